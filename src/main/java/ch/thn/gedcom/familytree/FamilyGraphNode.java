@@ -0,0 +1,137 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.index.FamilyTreeGraph;
+import ch.thn.gedcom.familytree.index.FamilyTreeIndex;
+import ch.thn.gedcom.familytree.sort.FamilyGraphSorter;
+import ch.thn.gedcom.familytree.sort.FamilyTreeSorter;
+
+/**
+ * A node of a tree which has been built from a {@link FamilyTreeGraph}. The
+ * node only keeps the numbers of the individuals and the family in the graph.
+ * The individuals and the family are loaded by the builder of the tree the
+ * first time they are needed, which usually is when the tree is printed. The child nodes
+ * are sorted with the dates of the graph, which does not load anything.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyGraphNode extends FamilyTreeNode {
+
+  private static final FamilyTreeSorter sorter = sortedBy(new FamilyGraphSorter());
+
+  private final GedcomGraphToFamilyTree toFamilyTree;
+  private final int individual1;
+  private final int individual2;
+  private final int familyNumber;
+
+  private volatile GedcomIndividual[] individuals = null;
+  private volatile GedcomFamily family = null;
+
+  /**
+   *
+   *
+   * @param toFamilyTree
+   * @param individual1 The parent which is the child of the parents of this family
+   * @param individual2 The partner of individual1 or {@link FamilyTreeIndex#NONE}
+   * @param familyNumber The family of the two parents or {@link FamilyTreeIndex#NONE}
+   */
+  FamilyGraphNode(GedcomGraphToFamilyTree toFamilyTree, int individual1, int individual2,
+      int familyNumber) {
+    super(sorter, null, null);
+    this.toFamilyTree = toFamilyTree;
+    this.individual1 = individual1;
+    this.individual2 = individual2;
+    this.familyNumber = familyNumber;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public FamilyTreeGraph getGraph() {
+    return toFamilyTree.getGraph();
+  }
+
+  /**
+   * Returns the number of the parent which is the child of the parents of
+   * this family
+   *
+   * @return
+   */
+  public int getIndividual1() {
+    return individual1;
+  }
+
+  /**
+   * Returns the number of the partner, or {@link FamilyTreeIndex#NONE}
+   *
+   * @return
+   */
+  public int getIndividual2() {
+    return individual2;
+  }
+
+  /**
+   * Returns the number of the family, or {@link FamilyTreeIndex#NONE}
+   *
+   * @return
+   */
+  public int getFamilyNumber() {
+    return familyNumber;
+  }
+
+  /**
+   * Returns <code>true</code> if the individuals of this node have already
+   * been loaded
+   *
+   * @return
+   */
+  public boolean isLoaded() {
+    return individuals != null;
+  }
+
+  @Override
+  public GedcomIndividual[] getNodeValue() {
+    if (individuals == null) {
+      GedcomIndividual[] loaded = new GedcomIndividual[2];
+      loaded[0] = toFamilyTree.loadIndividual(individual1);
+
+      if (individual2 != FamilyTreeIndex.NONE) {
+        loaded[1] = toFamilyTree.loadIndividual(individual2);
+      }
+
+      individuals = loaded;
+    }
+
+    return individuals;
+  }
+
+  @Override
+  public GedcomFamily getFamily() {
+    if (family == null && familyNumber != FamilyTreeIndex.NONE) {
+      family = toFamilyTree.loadFamily(familyNumber);
+    }
+
+    return family;
+  }
+
+}
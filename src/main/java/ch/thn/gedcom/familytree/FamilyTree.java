@@ -16,6 +16,8 @@
  */
 package ch.thn.gedcom.familytree;
 
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.sort.FamilyTreeSorter;
 
 /**
  *
@@ -34,8 +36,29 @@ public class FamilyTree extends FamilyTreeNode {
 	 * @param familyTreeTitle
 	 */
 	public FamilyTree(String familyTreeTitle) {
-		super(null, null, null);
+		super((GedcomIndividual)null, null, null);
 		
+		init(familyTreeTitle);
+	}
+	
+	/**
+	 * 
+	 * 
+	 * @param familyTreeTitle
+	 * @param sorter The sorter for the child nodes
+	 */
+	public FamilyTree(String familyTreeTitle, FamilyTreeSorter sorter) {
+		super(sorter, new GedcomIndividual[] {null, null}, null);
+		
+		init(familyTreeTitle);
+	}
+	
+	/**
+	 * 
+	 * 
+	 * @param familyTreeTitle
+	 */
+	private void init(String familyTreeTitle) {
 		this.familyTreeTitle = familyTreeTitle;
 		
 		if (familyTreeTitle == null) {
@@ -44,6 +67,16 @@ public class FamilyTree extends FamilyTreeNode {
 		}
 	}
 	
+	@Override
+	public FamilyTreeNode nodeFactory(FamilyTreeNode node) {
+		if (node instanceof FamilyTree) {
+			//The copy of a tree is a tree with the same title
+			return new FamilyTree(((FamilyTree)node).getFamilyTreeTitle(), node.getSorter());
+		}
+		
+		return super.nodeFactory(node);
+	}
+	
 	/**
 	 * @return the familyTreeTitle
 	 */
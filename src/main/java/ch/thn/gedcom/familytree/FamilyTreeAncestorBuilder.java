@@ -0,0 +1,303 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+
+/**
+ * Adds the ancestors of an individual to a tree by following the links to the
+ * families the individual is a child of. Every such family is added as node
+ * with the two parents, and the child nodes of that node are the families of
+ * the parents of the two parents.<br>
+ * <br>
+ * An ancestor family which is reached more than once (implex, for example if
+ * cousins married) is only built once. All the other nodes of that family share
+ * the child nodes of the first one. The number of built nodes therefore only
+ * grows with the number of different ancestor families and not with the number
+ * of ancestor slots, which doubles with every generation.<br>
+ * <br>
+ * The ancestors are added iteratively, the depth of the tree is not limited by
+ * the stack size.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+class FamilyTreeAncestorBuilder {
+
+  private static final int NO_INDIVIDUAL = -2;
+
+  private final GedcomToFamilyTree toFamilyTree;
+
+  private final GedcomCreatorStructureStorage storage;
+
+  private final List<FamilyTreeLoop> loops;
+
+  private final List<FamilyTreeProblem> problems;
+
+  private final Map<String, FamilyTreeNode> ancestors = new HashMap<>();
+
+  private final List<FamilyTreeNode> sharingNodes = new ArrayList<>();
+
+  /**
+   *
+   *
+   * @param toFamilyTree The builder which creates the nodes
+   * @param loops The list to add the found loops to
+   * @param problems The list to add the links to which can not be followed
+   */
+  public FamilyTreeAncestorBuilder(GedcomToFamilyTree toFamilyTree, List<FamilyTreeLoop> loops,
+      List<FamilyTreeProblem> problems) {
+    this.toFamilyTree = toFamilyTree;
+    this.storage = toFamilyTree.getStorage();
+    this.loops = loops;
+    this.problems = problems;
+  }
+
+  /**
+   * Adds the families of the parents of the given individual and all their
+   * ancestors to the given tree node. The individual has to be on the given
+   * path already.
+   *
+   * @param treeNode
+   * @param individual
+   * @param path
+   */
+  public void addAncestors(FamilyTreeNode treeNode, GedcomIndividual individual, FamilyTreeBuildPath path) {
+    Deque<AncestorStep> steps = new ArrayDeque<>();
+    steps.push(new AncestorStep(treeNode, individual));
+
+    while (!steps.isEmpty()) {
+      AncestorStep step = steps.pop();
+
+      if (step.treeNode == null) {
+        //All the ancestors of this family have been added
+        leave(path, step.pathNumber1, step.pathNumber2);
+        continue;
+      }
+
+      List<String> famcLinks = step.individual.getChildFamilyLinks();
+
+      if (famcLinks == null) {
+        //No parents
+        continue;
+      }
+
+      for (String familyLink : famcLinks) {
+        addParents(step.treeNode, step.individual, familyLink, path, steps);
+      }
+    }
+  }
+
+  /**
+   *
+   *
+   * @param treeNode
+   * @param child
+   * @param familyId
+   * @param path
+   * @param steps
+   */
+  private void addParents(FamilyTreeNode treeNode, GedcomIndividual child, String familyId,
+      FamilyTreeBuildPath path, Deque<AncestorStep> steps) {
+    if (familyId == null || !storage.hasFamily(familyId)) {
+      problems.add(new FamilyTreeProblem(child.getId(), familyId,
+          "Can not add parents of " + child.getId() + ". Family " + familyId + " not found."));
+      return;
+    }
+
+    GedcomFamily family = storage.getFamily(familyId);
+    GedcomIndividual husband = getIndividual(family.getHusbandLink());
+    GedcomIndividual wife = getIndividual(family.getWifeLink());
+
+    if (husband == null && wife == null) {
+      //No parents to show
+      return;
+    }
+
+    int husbandNumber = enter(path, husband);
+    int wifeNumber = enter(path, wife);
+
+    if (husbandNumber == -1 || wifeNumber == -1) {
+      //One of the parents is its own ancestor
+      leave(path, husbandNumber, wifeNumber);
+      loops.add(new FamilyTreeLoop(husbandNumber == -1 ? husband.getId() : wife.getId(), familyId));
+      return;
+    }
+
+    FamilyTreeNode ancestorNode = ancestors.get(familyId);
+
+    if (ancestorNode != null) {
+      //Implex -> the ancestors of this family have already been added once
+      FamilyTreeNode sharingNode = new FamilyTreeNode(ancestorNode);
+      if (treeNode.addChildNode(sharingNode)) {
+        sharingNodes.add(sharingNode);
+      }
+
+      leave(path, husbandNumber, wifeNumber);
+      return;
+    }
+
+    FamilyTreeNode newNode = null;
+
+    if (husband == null) {
+      newNode = toFamilyTree.createNode(wife, null, family);
+    } else {
+      newNode = toFamilyTree.createNode(husband, wife, family);
+    }
+
+    treeNode.addChildNode(newNode);
+    ancestors.put(familyId, newNode);
+
+    //Leave the path again once all the ancestors are done
+    steps.push(new AncestorStep(husbandNumber, wifeNumber));
+
+    if (wife != null) {
+      steps.push(new AncestorStep(newNode, wife));
+    }
+
+    if (husband != null) {
+      steps.push(new AncestorStep(newNode, husband));
+    }
+  }
+
+  /**
+   *
+   *
+   * @param individualId
+   * @return The individual, or <code>null</code> if there is no such individual
+   */
+  private GedcomIndividual getIndividual(String individualId) {
+    if (individualId == null || !storage.hasIndividual(individualId)) {
+      return null;
+    }
+
+    return storage.getIndividual(individualId);
+  }
+
+  /**
+   *
+   *
+   * @param path
+   * @param individual
+   * @return The path number, {@link #NO_INDIVIDUAL} if there is no individual
+   * or -1 if the individual already is on the path
+   */
+  private static int enter(FamilyTreeBuildPath path, GedcomIndividual individual) {
+    if (individual == null) {
+      return NO_INDIVIDUAL;
+    }
+
+    return path.enter(individual);
+  }
+
+  /**
+   *
+   *
+   * @param path
+   * @param pathNumber1
+   * @param pathNumber2
+   */
+  private static void leave(FamilyTreeBuildPath path, int pathNumber1, int pathNumber2) {
+    if (pathNumber1 >= 0) {
+      path.leave(pathNumber1);
+    }
+
+    if (pathNumber2 >= 0) {
+      path.leave(pathNumber2);
+    }
+  }
+
+  /**
+   * Returns the number of nodes which share the child nodes of another
+   * ancestor node
+   *
+   * @return
+   */
+  public int getSharedNodeCount() {
+    return sharingNodes.size();
+  }
+
+  /**
+   * Returns the number of nodes which did not have to be built because the
+   * ancestors of their family have already been added
+   *
+   * @return
+   */
+  public long getSavedNodeCount() {
+    Map<FamilyTreeNode, Long> counts = new IdentityHashMap<>();
+    long savedNodeCount = 0;
+
+    for (FamilyTreeNode node : sharingNodes) {
+      savedNodeCount += GedcomToFamilyTree.countDescendants(node, counts);
+    }
+
+    return savedNodeCount;
+  }
+
+
+  /**
+   * An individual whose parents still have to be added to the given tree
+   * node, or the marker to leave the build path once all the ancestors of a
+   * family have been added
+   *
+   */
+  private static class AncestorStep {
+
+    private final FamilyTreeNode treeNode;
+    private final GedcomIndividual individual;
+    private final int pathNumber1;
+    private final int pathNumber2;
+
+    /**
+     *
+     *
+     * @param treeNode
+     * @param individual
+     */
+    public AncestorStep(FamilyTreeNode treeNode, GedcomIndividual individual) {
+      this.treeNode = treeNode;
+      this.individual = individual;
+      this.pathNumber1 = -1;
+      this.pathNumber2 = -1;
+    }
+
+    /**
+     *
+     *
+     * @param pathNumber1
+     * @param pathNumber2
+     */
+    public AncestorStep(int pathNumber1, int pathNumber2) {
+      this.treeNode = null;
+      this.individual = null;
+      this.pathNumber1 = pathNumber1;
+      this.pathNumber2 = pathNumber2;
+    }
+
+  }
+
+}
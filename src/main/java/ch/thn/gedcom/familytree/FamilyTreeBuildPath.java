@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+
+/**
+ * Keeps track of the individuals on the path from the root of the tree to the
+ * node which is currently being built. Each individual gets a number the first
+ * time it is seen, and the individuals on the path are marked in a bit set.
+ * An individual which is entered while it is already on the path is its own
+ * ancestor.<br>
+ * <br>
+ * A copy of the path can be used by another thread. All copies share the same
+ * numbers for the individuals.<br>
+ * <br>
+ * An individual may appear more than once in a family tree (for example if
+ * cousins married). This is not a loop since the individual does not appear
+ * twice on the same path.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+class FamilyTreeBuildPath {
+
+  private final ConcurrentMap<String, Integer> numbers;
+  private final AtomicInteger nextNumber;
+
+  private final BitSet onPath;
+
+  /**
+   *
+   *
+   */
+  public FamilyTreeBuildPath() {
+    this.numbers = new ConcurrentHashMap<>();
+    this.nextNumber = new AtomicInteger();
+    this.onPath = new BitSet();
+  }
+
+  /**
+   *
+   *
+   * @param path
+   */
+  private FamilyTreeBuildPath(FamilyTreeBuildPath path) {
+    this.numbers = path.numbers;
+    this.nextNumber = path.nextNumber;
+    this.onPath = (BitSet)path.onPath.clone();
+  }
+
+  /**
+   * Creates a copy of this path which can be extended independently
+   *
+   * @return
+   */
+  public FamilyTreeBuildPath copy() {
+    return new FamilyTreeBuildPath(this);
+  }
+
+  /**
+   * Adds the individual to the path
+   *
+   * @param individual
+   * @return The number of the individual which is needed to leave the path
+   * again, or -1 if the individual already is on the path
+   */
+  public int enter(GedcomIndividual individual) {
+    Integer number = numbers.get(individual.getId());
+
+    if (number == null) {
+      number = nextNumber.getAndIncrement();
+      Integer existing = numbers.putIfAbsent(individual.getId(), number);
+
+      if (existing != null) {
+        number = existing;
+      }
+    }
+
+    return enter(number);
+  }
+
+  /**
+   * Adds the individual with the given number to the path
+   *
+   * @param number
+   * @return The number of the individual, or -1 if the individual already is
+   * on the path
+   */
+  public int enter(int number) {
+    if (onPath.get(number)) {
+      return -1;
+    }
+
+    onPath.set(number);
+    return number;
+  }
+
+  /**
+   * Removes the individual with the given number from the path
+   *
+   * @param number
+   */
+  public void leave(int number) {
+    onPath.clear(number);
+  }
+
+}
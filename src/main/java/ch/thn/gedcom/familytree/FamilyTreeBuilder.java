@@ -0,0 +1,75 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.util.List;
+
+/**
+ * Builds family trees. {@link GedcomToFamilyTree} builds them from a storage,
+ * {@link GedcomGraphToFamilyTree} from a
+ * {@link ch.thn.gedcom.familytree.index.FamilyTreeGraph}. The printers can
+ * print the trees of any builder.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public interface FamilyTreeBuilder {
+
+  /**
+   * Builds the family tree of the individual with the given ID
+   *
+   * @param individualId The ID to start with
+   * @return
+   * @throws GedcomToFamilytreeError If there is no individual with the given ID
+   */
+  public FamilyTree buildFamilyTree(String individualId);
+
+  /**
+   * Builds the family tree of the individual with the given ID
+   *
+   * @param individualId The ID to start with
+   * @param treeTitle
+   * @return
+   * @throws GedcomToFamilytreeError If there is no individual with the given ID
+   */
+  public FamilyTree buildFamilyTree(String individualId, String treeTitle);
+
+  /**
+   * Returns the family tree of the last build (the first node of the tree).
+   *
+   * @return
+   */
+  public FamilyTree getFamilyTree();
+
+  /**
+   * Returns the loops in the family relations which have been found during the
+   * last build. A loop ends the branch of the tree where it has been found.
+   *
+   * @return
+   */
+  public List<FamilyTreeLoop> getLoops();
+
+  /**
+   * Returns the links which could not be followed during the last build, like
+   * a family with a husband which does not exist. The families and
+   * individuals of those links are skipped in the tree.
+   *
+   * @return
+   */
+  public List<FamilyTreeProblem> getProblems();
+
+}
@@ -0,0 +1,68 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+/**
+ * A loop in the family relations which has been found while building a family
+ * tree: the individual is linked as child of a family, but it already is an
+ * ancestor of that family in the tree which is being built. The branch of the
+ * tree ends at that family.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeLoop {
+
+  private final String individualId;
+  private final String familyId;
+
+  /**
+   *
+   *
+   * @param individualId The individual which is its own ancestor
+   * @param familyId The family which links to the individual as child. Might be
+   * <code>null</code> if the family is not known.
+   */
+  public FamilyTreeLoop(String individualId, String familyId) {
+    this.individualId = individualId;
+    this.familyId = familyId;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public String getIndividualId() {
+    return individualId;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public String getFamilyId() {
+    return familyId;
+  }
+
+  @Override
+  public String toString() {
+    return "Individual " + individualId + " is its own ancestor (child of family " + familyId + ")";
+  }
+
+}
@@ -17,9 +17,20 @@
 package ch.thn.gedcom.familytree;
 
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
 import ch.thn.datatree.onoff.core.GenericOnOffSetTreeNode;
 import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.sort.FamilyInsertionOrderSorter;
+import ch.thn.gedcom.familytree.sort.FamilyTreeKeySorter;
+import ch.thn.gedcom.familytree.sort.FamilyTreeSorter;
 import ch.thn.gedcom.familytree.sort.FamilytreeSorter;
 
 /**
@@ -33,10 +44,26 @@ public class FamilyTreeNode
 extends GenericOnOffSetTreeNode<GedcomIndividual[], FamilyTreeNode> {
 
 
-  private static FamilytreeSorter sorter = new FamilytreeSorter();
+  private static final SortPositionSorter defaultSorter = new SortPositionSorter(new FamilytreeSorter());
+
+  private final SortPositionSorter childSorter;
 
   private GedcomFamily family = null;
 
+  private volatile List<FamilyTreeNode> unsortedChildNodes = null;
+
+  private int sortPosition = -1;
+
+  private final boolean keepInsertionOrder;
+  private InsertionOrder insertionOrder = null;
+
+  private volatile SortKey sortKey = null;
+
+  private FamilyTreeNode sharedNode = null;
+
+  private volatile GedcomToFamilyTree.LazyChildren lazyChildren = null;
+  private boolean expanding = false;
+
   /**
    *
    *
@@ -45,19 +72,64 @@ extends GenericOnOffSetTreeNode<GedcomIndividual[], FamilyTreeNode> {
    * @param family The family of the two parents
    */
   public FamilyTreeNode(GedcomIndividual parent1, GedcomIndividual parent2, GedcomFamily family) {
-    super(sorter, new GedcomIndividual[] {parent1, parent2});
-    this.family = family;
+    this(defaultSorter, new GedcomIndividual[] {parent1, parent2}, family);
   }
 
   /**
    *
    *
+   * @param sorter The sorter for the child nodes
    * @param value
    * @param family
    */
-  private FamilyTreeNode(GedcomIndividual[] value, GedcomFamily family) {
+  protected FamilyTreeNode(FamilyTreeSorter sorter, GedcomIndividual[] value, GedcomFamily family) {
+    this(sortedBy(sorter), value, family);
+  }
+
+  /**
+   *
+   *
+   * @param sorter
+   * @param value
+   * @param family
+   */
+  private FamilyTreeNode(SortPositionSorter sorter, GedcomIndividual[] value, GedcomFamily family) {
     super(sorter, value);
+    this.childSorter = sorter;
     this.family = family;
+
+    //No sorting, only the families are checked
+    this.keepInsertionOrder = (sorter.sorter instanceof FamilyInsertionOrderSorter);
+  }
+
+  /**
+   * Creates a node which shows the same individuals and the same child nodes
+   * as the given node. The child nodes are not copied, they are read from the
+   * shared node. No child nodes can be added to such a node.
+   *
+   * @param sharedNode
+   */
+  FamilyTreeNode(FamilyTreeNode sharedNode) {
+    this(sharedNode.childSorter, sharedNode.getNodeValue(), sharedNode.getFamily());
+    this.sharedNode = sharedNode;
+  }
+
+  /**
+   * Wraps the given sorter so that it can also sort the appended child nodes
+   * (see {@link #appendChildNode(FamilyTreeNode)}). The default sorter is
+   * returned if the given sorter is <code>null</code>.
+   *
+   * @param sorter
+   * @return
+   */
+  static SortPositionSorter sortedBy(FamilyTreeSorter sorter) {
+    if (sorter == null) {
+      return defaultSorter;
+    } else if (sorter instanceof SortPositionSorter) {
+      return (SortPositionSorter)sorter;
+    }
+
+    return new SortPositionSorter(sorter);
   }
 
   @Override
@@ -67,7 +139,9 @@ extends GenericOnOffSetTreeNode<GedcomIndividual[], FamilyTreeNode> {
 
   @Override
   public FamilyTreeNode nodeFactory(FamilyTreeNode node) {
-    return new FamilyTreeNode(node.getNodeValue(), node.getFamily());
+    //Only the node itself is copied, the child nodes which are added to the
+    //copy are sorted with the same sorter
+    return new FamilyTreeNode(node.childSorter, node.getNodeValue(), node.getFamily());
   }
 
   @Override
@@ -84,6 +158,471 @@ extends GenericOnOffSetTreeNode<GedcomIndividual[], FamilyTreeNode> {
     return family;
   }
 
+  /**
+   * Returns the sorter which sorts the child nodes of this node
+   *
+   * @return
+   */
+  public FamilyTreeSorter getSorter() {
+    return childSorter.sorter;
+  }
+
+  /**
+   * Returns the position of this node among its siblings if the child nodes
+   * of its parent are kept in the order in which they have been added (see
+   * {@link FamilyInsertionOrderSorter}), or -1 otherwise
+   *
+   * @return
+   */
+  public int getSortPosition() {
+    return sortPosition;
+  }
+
+  /**
+   * Returns the key of this node for the given sorter. The key is created the
+   * first time it is needed and kept for the last sorter which has used it.
+   * The key of a node with modified dates or names has to be cleared (see
+   * {@link #clearSortKey()}) before the node is sorted again.
+   *
+   * @param sorter
+   * @return
+   */
+  public <K> K getSortKey(FamilyTreeKeySorter<K> sorter) {
+    SortKey key = sortKey;
+
+    if (key == null || key.sorter != sorter) {
+      key = new SortKey(sorter, sorter.createKey(this));
+      sortKey = key;
+    }
+
+    @SuppressWarnings("unchecked")
+    K value = (K)key.value;
+    return value;
+  }
+
+  /**
+   * Removes the key of this node, so that it is created again the next time
+   * the node is sorted
+   *
+   */
+  void clearSortKey() {
+    sortKey = null;
+  }
+
+  /**
+   * Returns the node which holds the child nodes of this node if this node
+   * shares the descendants of another node, or <code>null</code> otherwise.
+   *
+   * @return
+   */
+  public FamilyTreeNode getSharedNode() {
+    return sharedNode;
+  }
+
+  /**
+   * Sets the children which are added to this node the first time its child
+   * nodes are read
+   *
+   * @param lazyChildren
+   */
+  void setLazyChildren(GedcomToFamilyTree.LazyChildren lazyChildren) {
+    this.lazyChildren = lazyChildren;
+  }
+
+  /**
+   * Returns <code>false</code> if the child nodes of this node have not
+   * been added yet because the tree has been built lazily
+   *
+   * @return
+   */
+  public boolean isExpanded() {
+    return lazyChildren == null;
+  }
+
+  /**
+   * Returns the child nodes without adding the lazy children
+   *
+   * @return
+   */
+  Collection<FamilyTreeNode> getExpandedChildNodes() {
+    if (lazyChildren != null) {
+      return Collections.emptyList();
+    }
+
+    return getChildNodes();
+  }
+
+  /**
+   * Adds the lazy children if they have not been added yet. The node only
+   * counts as expanded once all the children have been added, other threads
+   * wait until then.
+   *
+   */
+  private void expand() {
+    if (lazyChildren == null) {
+      return;
+    }
+
+    synchronized (this) {
+      if (lazyChildren == null || expanding) {
+        //Expanded by another thread, or the children are being added by this thread
+        return;
+      }
+
+      expanding = true;
+
+      try {
+        lazyChildren.addTo(this);
+        lazyChildren = null;
+      } finally {
+        expanding = false;
+      }
+    }
+  }
+
+  /**
+   * Adds the node to the child nodes without sorting it. All the appended
+   * nodes are sorted at once and added to the sorted child nodes the next
+   * time the child nodes are read or changed. The order and the handling of
+   * equal nodes (the first one is kept) is the same as when the nodes are
+   * added one by one with {@link #addChildNode(FamilyTreeNode)}.
+   *
+   * @param node
+   */
+  void appendChildNode(FamilyTreeNode node) {
+    if (sharedNode != null) {
+      throw new UnsupportedOperationException("Child nodes can not be added to a node " +
+          "which shares the child nodes of another node.");
+    }
+
+    if (unsortedChildNodes == null) {
+      unsortedChildNodes = new ArrayList<>();
+    }
+
+    unsortedChildNodes.add(node);
+  }
+
+  /**
+   * Sorts the appended child nodes and adds them to the sorted child nodes.
+   * The nodes are sorted in a plain list first, in the order in which they
+   * have been appended. While they are added to the sorted child nodes, they
+   * are only compared by their position in the sorted list.
+   *
+   */
+  private void sortChildNodes() {
+    if (unsortedChildNodes == null) {
+      return;
+    }
+
+    synchronized (this) {
+      List<FamilyTreeNode> nodes = unsortedChildNodes;
+
+      if (nodes == null) {
+        return;
+      }
+
+      if (keepInsertionOrder) {
+        //Nothing to sort
+        for (FamilyTreeNode node : nodes) {
+          addInInsertionOrder(node);
+        }
+
+        unsortedChildNodes = null;
+        return;
+      }
+
+      //The nodes are inserted one by one with a binary search, like when
+      //they are added one by one. A sort of the whole list would need an
+      //antisymmetric order, but the sorter sorts each of two nodes after
+      //the other if they are of the same individual and a partner is missing.
+      List<FamilyTreeNode> sorted = new ArrayList<>(nodes.size());
+
+      for (FamilyTreeNode node : nodes) {
+        int low = 0;
+        int high = sorted.size();
+
+        while (low < high) {
+          int middle = (low + high) >>> 1;
+          int comp = childSorter.compare(node, sorted.get(middle));
+
+          if (comp == 0) {
+            //Only the first of equal nodes is added
+            low = -1;
+            break;
+          } else if (comp < 0) {
+            high = middle;
+          } else {
+            low = middle + 1;
+          }
+        }
+
+        if (low >= 0) {
+          sorted.add(low, node);
+        }
+      }
+
+      for (int i = 0; i < sorted.size(); i++) {
+        FamilyTreeNode node = sorted.get(i);
+        node.sortPosition = i;
+        super.addChildNode(node);
+      }
+
+      for (FamilyTreeNode node : nodes) {
+        node.sortPosition = -1;
+      }
+
+      unsortedChildNodes = null;
+    }
+  }
+
+  @Override
+  public Collection<FamilyTreeNode> getChildNodes() {
+    expand();
+    sortChildNodes();
+
+    if (sharedNode != null) {
+      return sharedNode.getChildNodes();
+    }
+
+    return super.getChildNodes();
+  }
+
+  @Override
+  public int getChildNodeCount() {
+    expand();
+    sortChildNodes();
+
+    if (sharedNode != null) {
+      return sharedNode.getChildNodeCount();
+    }
+
+    return super.getChildNodeCount();
+  }
+
+  @Override
+  public boolean addChildNode(FamilyTreeNode node) {
+    if (sharedNode != null) {
+      throw new UnsupportedOperationException("Child nodes can not be added to a node " +
+          "which shares the child nodes of another node.");
+    }
+
+    sortChildNodes();
+
+    if (keepInsertionOrder) {
+      return addInInsertionOrder(node);
+    }
+
+    return super.addChildNode(node);
+  }
+
+  @Override
+  public boolean removeChildNode(FamilyTreeNode node) {
+    sortChildNodes();
+
+    boolean removed = super.removeChildNode(node);
+
+    if (removed && insertionOrder != null) {
+      insertionOrder.remove(node);
+    }
+
+    return removed;
+  }
+
+  /**
+   * Adds the node after the other child nodes if its family has not been
+   * added yet
+   *
+   * @param node
+   * @return
+   */
+  private boolean addInInsertionOrder(FamilyTreeNode node) {
+    if (insertionOrder == null) {
+      insertionOrder = new InsertionOrder();
+    }
+
+    if (!insertionOrder.add(node)) {
+      //Same family
+      return false;
+    }
+
+    node.sortPosition = insertionOrder.nextPosition++;
+
+    return super.addChildNode(node);
+  }
+
+
+
+
+  /**
+   * Compares two nodes by their position in the sorted list of appended
+   * nodes while they are added to the sorted child nodes, and with the given
+   * sorter otherwise
+   *
+   */
+  static class SortPositionSorter implements FamilyTreeSorter {
+
+    private final FamilyTreeSorter sorter;
+
+    /**
+     *
+     *
+     * @param sorter
+     */
+    public SortPositionSorter(FamilyTreeSorter sorter) {
+      this.sorter = sorter;
+    }
+
+    @Override
+    public int compare(FamilyTreeNode node1, FamilyTreeNode node2) {
+      if (node1.sortPosition >= 0 && node2.sortPosition >= 0) {
+        return Integer.compare(node1.sortPosition, node2.sortPosition);
+      }
+
+      return sorter.compare(node1, node2);
+    }
+
+  }
+
+
+
+
+  /**
+   * The families and couples of the child nodes of a node which keeps its
+   * child nodes in the order in which they have been added. Two nodes are
+   * the same family if they have the same family, or if they have the same
+   * two individuals (like with the {@link FamilytreeSorter}).
+   *
+   */
+  private static class InsertionOrder {
+
+    private final Set<GedcomFamily> families =
+        Collections.newSetFromMap(new IdentityHashMap<GedcomFamily, Boolean>());
+    private final Set<Couple> couples = new HashSet<>();
+
+    private int nextPosition = 0;
+
+    /**
+     *
+     *
+     * @param node
+     * @return <code>false</code> if the family of the node has already been added
+     */
+    public boolean add(FamilyTreeNode node) {
+      GedcomFamily family = node.getFamily();
+      Couple couple = Couple.of(node);
+
+      if ((family != null && families.contains(family))
+          || (couple != null && couples.contains(couple))) {
+        return false;
+      }
+
+      if (family != null) {
+        families.add(family);
+      }
+
+      if (couple != null) {
+        couples.add(couple);
+      }
+
+      return true;
+    }
+
+    /**
+     *
+     *
+     * @param node
+     */
+    public void remove(FamilyTreeNode node) {
+      if (node.getFamily() != null) {
+        families.remove(node.getFamily());
+      }
+
+      Couple couple = Couple.of(node);
+
+      if (couple != null) {
+        couples.remove(couple);
+      }
+    }
+
+  }
+
+  /**
+   * The two individuals of a node, in any order
+   *
+   */
+  private static class Couple {
+
+    private final GedcomIndividual individual1;
+    private final GedcomIndividual individual2;
+
+    /**
+     *
+     *
+     * @param individual1
+     * @param individual2
+     */
+    private Couple(GedcomIndividual individual1, GedcomIndividual individual2) {
+      this.individual1 = individual1;
+      this.individual2 = individual2;
+    }
+
+    /**
+     *
+     *
+     * @param node
+     * @return The couple, or <code>null</code> if the node has no partner
+     */
+    public static Couple of(FamilyTreeNode node) {
+      GedcomIndividual[] individuals = node.getNodeValue();
+
+      if (individuals[0] == null || individuals[1] == null) {
+        return null;
+      }
+
+      return new Couple(individuals[0], individuals[1]);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(individual1) ^ System.identityHashCode(individual2);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Couple)) {
+        return false;
+      }
+
+      Couple other = (Couple)obj;
+
+      return (individual1 == other.individual1 && individual2 == other.individual2)
+          || (individual1 == other.individual2 && individual2 == other.individual1);
+    }
+
+  }
+
+  /**
+   * The key of a node and the sorter it has been created for
+   *
+   */
+  private static class SortKey {
+
+    private final FamilyTreeKeySorter<?> sorter;
+    private final Object value;
+
+    /**
+     *
+     *
+     * @param sorter
+     * @param value
+     */
+    public SortKey(FamilyTreeKeySorter<?> sorter, Object value) {
+      this.sorter = sorter;
+      this.value = value;
+    }
+
+  }
+
 
 
 
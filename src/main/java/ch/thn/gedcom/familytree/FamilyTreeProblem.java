@@ -0,0 +1,80 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+/**
+ * A link in the family relations which could not be followed while building a
+ * family tree, for example a family which links to an individual which does
+ * not exist. The family (or the individual) is skipped in the tree.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeProblem {
+
+  private final String individualId;
+  private final String familyId;
+  private final String message;
+
+  /**
+   *
+   *
+   * @param individualId The individual of the link. Might be <code>null</code>
+   * if the individual is not known.
+   * @param familyId The family of the link. Might be <code>null</code> if the
+   * family is not known.
+   * @param message
+   */
+  public FamilyTreeProblem(String individualId, String familyId, String message) {
+    this.individualId = individualId;
+    this.familyId = familyId;
+    this.message = message;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public String getIndividualId() {
+    return individualId;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public String getFamilyId() {
+    return familyId;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return message;
+  }
+
+}
@@ -0,0 +1,479 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.thn.gedcom.GedcomFormatter;
+
+/**
+ * A cache for parsed and formatted GEDCOM dates. The same dates appear many
+ * times in a family tree (and every date is used for sorting and for printing),
+ * with the cache each date string is only parsed once and only formatted once
+ * per format.<br>
+ * <br>
+ * The cache is thread-safe. The dates are spread over segments, and each
+ * segment removes its least recently used dates when it is full, which keeps
+ * the size bounded without dropping all the dates at once. The shared cache
+ * (see {@link #getShared()}) is used by the sorters and the printers, its
+ * size can be changed with {@link #setMaxSize(int)}.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomDateCache {
+
+  /** The default maximum number of cached dates */
+  public static final int DEFAULT_MAX_SIZE = 100000;
+
+  private static final int SEGMENT_COUNT = 16;
+
+  /** The number of formatted outputs which are kept per date */
+  private static final int MAX_FORMATS = 4;
+
+  private static final GedcomDateCache shared = new GedcomDateCache(DEFAULT_MAX_SIZE);
+
+  private final Segment[] segments;
+
+  private volatile int maxSize;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   *
+   *
+   * @param maxSize The maximum number of cached dates
+   */
+  public GedcomDateCache(int maxSize) {
+    segments = new Segment[Math.min(SEGMENT_COUNT, Math.max(maxSize, 1))];
+
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+
+    setMaxSize(maxSize);
+  }
+
+  /**
+   * Returns the cache which is shared by the sorters and the printers
+   *
+   * @return
+   */
+  public static GedcomDateCache getShared() {
+    return shared;
+  }
+
+  /**
+   * Sets the maximum number of cached dates. If there are more dates in the
+   * cache, the least recently used ones are removed.
+   *
+   * @param maxSize
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("The maximum size has to be larger than 0");
+    }
+
+    this.maxSize = maxSize;
+
+    //The size is spread over the segments, the first ones get the remainder
+    for (int i = 0; i < segments.length; i++) {
+      segments[i].setMaxSize(maxSize / segments.length + (i < maxSize % segments.length ? 1 : 0));
+    }
+  }
+
+  /**
+   * Returns the parsed date, or <code>null</code> if the date is missing or
+   * not valid. The returned date is a copy which can be modified.
+   *
+   * @param gedcomDate
+   * @return
+   */
+  public Date getDate(String gedcomDate) {
+    if (gedcomDate == null) {
+      return GedcomFormatter.getDateFromGedcom(gedcomDate);
+    }
+
+    CachedDate date = get(gedcomDate);
+    return date.date == null ? null : new Date(date.date.getTime());
+  }
+
+  /**
+   * Returns the milliseconds of the parsed date
+   *
+   * @param gedcomDate
+   * @param noDate The value to return if the date is missing or not valid
+   * @return
+   */
+  public long getTime(String gedcomDate, long noDate) {
+    if (gedcomDate == null) {
+      Date date = GedcomFormatter.getDateFromGedcom(gedcomDate);
+      return date == null ? noDate : date.getTime();
+    }
+
+    CachedDate date = get(gedcomDate);
+    return date.date == null ? noDate : date.date.getTime();
+  }
+
+  /**
+   * Formats the date like {@link GedcomFormatter#convertGedcomDate(String, String, String, String)}.
+   * The output is cached separately for each combination of formats (the
+   * last few combinations which have been used for the date are kept).
+   *
+   * @param gedcomDate
+   * @param formatYear The format for dates with only a year
+   * @param formatYearMonth The format for dates with a month and a year
+   * @param formatYearMonthDay The format for complete dates
+   * @return
+   */
+  public String format(String gedcomDate, String formatYear, String formatYearMonth,
+      String formatYearMonthDay) {
+    if (gedcomDate == null) {
+      return GedcomFormatter.convertGedcomDate(gedcomDate, formatYear, formatYearMonth, formatYearMonthDay);
+    }
+
+    Segment segment = getSegment(gedcomDate);
+    CachedDate date = segment.get(gedcomDate);
+
+    if (date != null) {
+      FormattedDate formatted = date.getFormatted(formatYear, formatYearMonth, formatYearMonthDay);
+
+      if (formatted != null) {
+        hitCount.incrementAndGet();
+        return formatted.output;
+      }
+    } else {
+      date = put(segment, gedcomDate);
+    }
+
+    missCount.incrementAndGet();
+
+    FormattedDate formatted = new FormattedDate(formatYear, formatYearMonth, formatYearMonthDay,
+        GedcomFormatter.convertGedcomDate(gedcomDate, formatYear, formatYearMonth, formatYearMonthDay));
+    date.addFormatted(formatted);
+
+    return formatted.output;
+  }
+
+  /**
+   * Returns the cached date or parses it if it is not in the cache yet
+   *
+   * @param gedcomDate
+   * @return
+   */
+  private CachedDate get(String gedcomDate) {
+    Segment segment = getSegment(gedcomDate);
+    CachedDate date = segment.get(gedcomDate);
+
+    if (date != null) {
+      hitCount.incrementAndGet();
+      return date;
+    }
+
+    missCount.incrementAndGet();
+
+    return put(segment, gedcomDate);
+  }
+
+  /**
+   * Parses the date and adds it to the cache
+   *
+   * @param segment The segment of the date
+   * @param gedcomDate
+   * @return
+   */
+  private CachedDate put(Segment segment, String gedcomDate) {
+    //Parsed outside of the lock of the segment
+    return segment.put(gedcomDate, new CachedDate(GedcomFormatter.getDateFromGedcom(gedcomDate)));
+  }
+
+  /**
+   *
+   *
+   * @param gedcomDate
+   * @return
+   */
+  private Segment getSegment(String gedcomDate) {
+    int hash = gedcomDate.hashCode();
+    hash ^= (hash >>> 16);
+    return segments[(hash & 0x7fffffff) % segments.length];
+  }
+
+  /**
+   * Returns the number of times a parsed date or a formatted output has
+   * been found in the cache
+   *
+   * @return
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the number of times a date had to be parsed or formatted
+   * because it was not in the cache
+   *
+   * @return
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the number of cached dates
+   *
+   * @return
+   */
+  public int getSize() {
+    int size = 0;
+
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+
+    return size;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Removes all the dates from the cache and resets the counters
+   *
+   */
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+
+    hitCount.set(0);
+    missCount.set(0);
+  }
+
+
+  /**
+   * A part of the cached dates, which removes its least recently used date
+   * when a new date is added and the segment is full
+   *
+   */
+  private static class Segment {
+
+    //In access order, the least recently used date comes first
+    private final LinkedHashMap<String, CachedDate> dates = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int maxSize = 0;
+
+    /**
+     *
+     *
+     * @param gedcomDate
+     * @return The cached date or <code>null</code>
+     */
+    public synchronized CachedDate get(String gedcomDate) {
+      return dates.get(gedcomDate);
+    }
+
+    /**
+     * Adds the date if it is not in the segment yet
+     *
+     * @param gedcomDate
+     * @param date
+     * @return The date which is in the segment now, or the given date if the
+     * segment can not hold any dates
+     */
+    public synchronized CachedDate put(String gedcomDate, CachedDate date) {
+      CachedDate existing = dates.get(gedcomDate);
+
+      if (existing != null) {
+        //Parsed by another thread in the meantime
+        return existing;
+      }
+
+      if (maxSize > 0) {
+        dates.put(gedcomDate, date);
+        trim();
+      }
+
+      return date;
+    }
+
+    /**
+     *
+     *
+     * @param maxSize
+     */
+    public synchronized void setMaxSize(int maxSize) {
+      this.maxSize = maxSize;
+      trim();
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public synchronized int size() {
+      return dates.size();
+    }
+
+    /**
+     *
+     *
+     */
+    public synchronized void clear() {
+      dates.clear();
+    }
+
+    /**
+     * Removes the least recently used dates until the segment is not larger
+     * than its maximum size
+     *
+     */
+    private void trim() {
+      Iterator<CachedDate> iterator = dates.values().iterator();
+
+      while (dates.size() > maxSize) {
+        iterator.next();
+        iterator.remove();
+      }
+    }
+
+  }
+
+  /**
+   * A parsed date and its formatted outputs
+   *
+   */
+  private static class CachedDate {
+
+    private final Date date;
+    private volatile FormattedDate[] formatted = new FormattedDate[0];
+
+    /**
+     *
+     *
+     * @param date
+     */
+    public CachedDate(Date date) {
+      this.date = date;
+    }
+
+    /**
+     *
+     *
+     * @param formatYear
+     * @param formatYearMonth
+     * @param formatYearMonthDay
+     * @return The output with the given formats, or <code>null</code> if the
+     * date has not been formatted with them yet
+     */
+    public FormattedDate getFormatted(String formatYear, String formatYearMonth,
+        String formatYearMonthDay) {
+      for (FormattedDate output : formatted) {
+        if (output.isFormattedWith(formatYear, formatYearMonth, formatYearMonthDay)) {
+          return output;
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Adds the output. The oldest output is removed if there already are
+     * {@link GedcomDateCache#MAX_FORMATS} outputs.
+     *
+     * @param output
+     */
+    public synchronized void addFormatted(FormattedDate output) {
+      FormattedDate[] current = formatted;
+      int kept = Math.min(current.length, MAX_FORMATS - 1);
+
+      FormattedDate[] outputs = new FormattedDate[kept + 1];
+      System.arraycopy(current, current.length - kept, outputs, 0, kept);
+      outputs[kept] = output;
+
+      formatted = outputs;
+    }
+
+  }
+
+  /**
+   * The formatted output of a date and the formats it has been formatted with
+   *
+   */
+  private static class FormattedDate {
+
+    private final String formatYear;
+    private final String formatYearMonth;
+    private final String formatYearMonthDay;
+    private final String output;
+
+    /**
+     *
+     *
+     * @param formatYear
+     * @param formatYearMonth
+     * @param formatYearMonthDay
+     * @param output
+     */
+    public FormattedDate(String formatYear, String formatYearMonth, String formatYearMonthDay,
+        String output) {
+      this.formatYear = formatYear;
+      this.formatYearMonth = formatYearMonth;
+      this.formatYearMonthDay = formatYearMonthDay;
+      this.output = output;
+    }
+
+    /**
+     *
+     *
+     * @param formatYear
+     * @param formatYearMonth
+     * @param formatYearMonthDay
+     * @return
+     */
+    public boolean isFormattedWith(String formatYear, String formatYearMonth,
+        String formatYearMonthDay) {
+      return equals(this.formatYear, formatYear)
+          && equals(this.formatYearMonth, formatYearMonth)
+          && equals(this.formatYearMonthDay, formatYearMonthDay);
+    }
+
+    /**
+     *
+     *
+     * @param format1
+     * @param format2
+     * @return
+     */
+    private static boolean equals(String format1, String format2) {
+      return format1 == null ? format2 == null : format1.equals(format2);
+    }
+
+  }
+
+}
@@ -0,0 +1,311 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.index.FamilyTreeGraph;
+import ch.thn.gedcom.familytree.index.FamilyTreeIndex;
+import ch.thn.gedcom.familytree.index.GedcomRecordLoader;
+import ch.thn.gedcom.familytree.sort.FamilyGraphSorter;
+
+/**
+ * Builds the family trees from a {@link FamilyTreeGraph}. The nodes of the
+ * tree are {@link FamilyGraphNode}s, which only load their individuals and
+ * family with the given {@link GedcomRecordLoader} when they are printed.
+ * Each individual and family is only loaded once. The tree is the same as the
+ * tree built by {@link GedcomToFamilyTree} from the storage.<br>
+ * <br>
+ * The tree is always built iteratively and sorted with the dates of the graph.
+ * The other settings of {@link GedcomToFamilyTree} (like parallel or lazy
+ * builds, shared subtrees or another sorter) do not exist for a graph. A tree
+ * built from a graph can not be updated either, the graph does not change when
+ * the storage is modified.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomGraphToFamilyTree implements FamilyTreeBuilder {
+
+  private FamilyTreeGraph graph = null;
+
+  private final GedcomRecordLoader loader;
+
+  private final GedcomIndividual[] individuals;
+  private final GedcomFamily[] families;
+
+  private FamilyTree familyTree = null;
+
+  private List<FamilyTreeLoop> loops = new ArrayList<>();
+  private List<FamilyTreeProblem> problems = new ArrayList<>();
+
+  /**
+   *
+   *
+   * @param graph The graph to build the trees from
+   * @param loader The loader for the individuals and families when they
+   * are printed
+   */
+  public GedcomGraphToFamilyTree(FamilyTreeGraph graph, GedcomRecordLoader loader) {
+    this.graph = graph;
+    this.loader = loader;
+    this.individuals = new GedcomIndividual[graph.getIndividualCount()];
+    this.families = new GedcomFamily[graph.getFamilyCount()];
+  }
+
+  /**
+   *
+   *
+   * @param graph The graph to build the trees from
+   * @param storage The storage to load the individuals and families from
+   * when they are printed
+   */
+  public GedcomGraphToFamilyTree(FamilyTreeGraph graph, GedcomCreatorStructureStorage storage) {
+    this(graph, loaderOf(storage));
+  }
+
+  /**
+   * Creates a loader which gets the individuals and families from the storage
+   *
+   * @param storage
+   * @return
+   */
+  private static GedcomRecordLoader loaderOf(final GedcomCreatorStructureStorage storage) {
+    return new GedcomRecordLoader() {
+
+      @Override
+      public GedcomIndividual loadIndividual(String individualId) {
+        return storage.getIndividual(individualId);
+      }
+
+      @Override
+      public GedcomFamily loadFamily(String familyId) {
+        return storage.getFamily(familyId);
+      }
+    };
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public FamilyTreeGraph getGraph() {
+    return graph;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public GedcomRecordLoader getLoader() {
+    return loader;
+  }
+
+  /**
+   * Returns the individual with the given number in the graph. The individual
+   * is loaded the first time it is needed.
+   *
+   * @param individual
+   * @return
+   */
+  synchronized GedcomIndividual loadIndividual(int individual) {
+    if (individuals[individual] == null) {
+      individuals[individual] = loader.loadIndividual(graph.getIndividualId(individual));
+    }
+
+    return individuals[individual];
+  }
+
+  /**
+   * Returns the family with the given number in the graph. The family is
+   * loaded the first time it is needed.
+   *
+   * @param family
+   * @return
+   */
+  synchronized GedcomFamily loadFamily(int family) {
+    if (families[family] == null) {
+      families[family] = loader.loadFamily(graph.getFamilyId(family));
+    }
+
+    return families[family];
+  }
+
+  @Override
+  public FamilyTree getFamilyTree() {
+    return familyTree;
+  }
+
+  @Override
+  public List<FamilyTreeLoop> getLoops() {
+    return Collections.unmodifiableList(loops);
+  }
+
+  @Override
+  public List<FamilyTreeProblem> getProblems() {
+    return Collections.unmodifiableList(problems);
+  }
+
+  @Override
+  public FamilyTree buildFamilyTree(String individualId) {
+    return buildFamilyTree(individualId, null);
+  }
+
+  @Override
+  public FamilyTree buildFamilyTree(String individualId, String treeTitle) {
+    int individual = graph.getIndividualNumber(individualId);
+
+    if (individual == FamilyTreeIndex.NONE) {
+      throw new GedcomToFamilytreeError("Failed to build family tree. Individual with ID " +
+          individualId + " does not exist.");
+    }
+
+    FamilyTree familyTree = new FamilyTree(treeTitle, new FamilyGraphSorter());
+    loops = new ArrayList<>();
+    problems = new ArrayList<>();
+
+    FamilyTreeBuildPath path = new FamilyTreeBuildPath();
+    Deque<GraphStep> steps = new ArrayDeque<>();
+    List<GraphStep> newSteps = new ArrayList<>();
+
+    steps.push(new GraphStep(familyTree, individual, -1));
+
+    while (!steps.isEmpty()) {
+      GraphStep step = steps.pop();
+
+      if (step.treeNode == null) {
+        //All the descendants of this child have been added
+        path.leave(step.pathNumber);
+        continue;
+      }
+
+      int pathNumber = path.enter(step.child);
+
+      if (pathNumber == -1) {
+        int family = FamilyTreeIndex.NONE;
+
+        if (step.treeNode instanceof FamilyGraphNode) {
+          family = ((FamilyGraphNode)step.treeNode).getFamilyNumber();
+        }
+
+        loops.add(new FamilyTreeLoop(graph.getIndividualId(step.child),
+            family == FamilyTreeIndex.NONE ? null : graph.getFamilyId(family)));
+        continue;
+      }
+
+      addFamilies(step.treeNode, step.child, newSteps);
+
+      //Leave the path again once all the new steps are done
+      steps.push(new GraphStep(null, FamilyTreeIndex.NONE, pathNumber));
+
+      for (int i = newSteps.size() - 1; i >= 0; i--) {
+        steps.push(newSteps.get(i));
+      }
+
+      newSteps.clear();
+    }
+
+    this.familyTree = familyTree;
+
+    return familyTree;
+  }
+
+  /**
+   * Adds the families of the given child to the tree and collects the steps
+   * for their children
+   *
+   * @param treeNode
+   * @param child
+   * @param newSteps
+   */
+  private void addFamilies(FamilyTreeNode treeNode, int child, List<GraphStep> newSteps) {
+    int familyCount = graph.getSpouseFamilyCount(child);
+
+    if (familyCount == 0) {
+      //No family for this individual
+      FamilyTreeNode newNode = new FamilyGraphNode(this, child, FamilyTreeIndex.NONE,
+          graph.getSingleFamily(child));
+      treeNode.addChildNode(newNode);
+      return;
+    }
+
+    for (int i = 0; i < familyCount; i++) {
+      int family = graph.getSpouseFamily(child, i);
+      int husband = graph.getHusband(family);
+      int wife = graph.getWife(family);
+
+      if (husband == FamilyTreeIndex.MISSING || wife == FamilyTreeIndex.MISSING) {
+        //The graph does not keep the ID which has not been found
+        problems.add(new FamilyTreeProblem(null, graph.getFamilyId(family),
+            "Can not create family " + graph.getFamilyId(family) +
+            ". ID of " + (husband == FamilyTreeIndex.MISSING ? "husband" : "wife") + " not found."));
+        continue;
+      }
+
+      FamilyTreeNode newNode = null;
+
+      if (child == husband) {
+        newNode = new FamilyGraphNode(this, husband, wife, graph.getCoupleFamily(family));
+      } else {
+        newNode = new FamilyGraphNode(this, wife, husband, graph.getCoupleFamily(family));
+      }
+
+      treeNode.addChildNode(newNode);
+
+      for (int j = 0; j < graph.getChildCount(family); j++) {
+        newSteps.add(new GraphStep(newNode, graph.getChild(family, j), -1));
+      }
+    }
+  }
+
+
+  /**
+   * A child which still has to be added to the given tree node, or the marker
+   * to leave the build path once all the descendants of a child have been added
+   *
+   */
+  private static class GraphStep {
+
+    private final FamilyTreeNode treeNode;
+    private final int child;
+    private final int pathNumber;
+
+    /**
+     *
+     *
+     * @param treeNode
+     * @param child
+     * @param pathNumber
+     */
+    public GraphStep(FamilyTreeNode treeNode, int child, int pathNumber) {
+      this.treeNode = treeNode;
+      this.child = child;
+      this.pathNumber = pathNumber;
+    }
+
+  }
+
+}
@@ -0,0 +1,132 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+
+/**
+ * Builds the ancestor tree (pedigree) of an individual. The first node of the
+ * tree only contains the starting individual, its child node is the family of
+ * its parents. The child nodes of every family are the families of the
+ * parents of the husband and of the wife, and so on.<br>
+ * <br>
+ * Ancestors who appear more than once (implex) are only built once, the other
+ * nodes of their family share the child nodes of the first one (see
+ * {@link FamilyTreeNode#getSharedNode()}). The tree can be printed with the
+ * same printers as a tree of descendants.<br>
+ * <br>
+ * The tree is always built iteratively. Parallel builds, lazy builds and the
+ * index of {@link GedcomToFamilyTree} are not used by this builder.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomToAncestorTree extends GedcomToFamilyTree {
+
+  private FamilyTree familyTree = null;
+
+  private List<FamilyTreeLoop> loops = new ArrayList<>();
+  private List<FamilyTreeProblem> problems = new ArrayList<>();
+
+  private FamilyTreeAncestorBuilder ancestorBuilder = null;
+
+  /**
+   *
+   *
+   * @param storage
+   */
+  public GedcomToAncestorTree(GedcomCreatorStructureStorage storage) {
+    super(storage);
+  }
+
+  @Override
+  public FamilyTree getFamilyTree() {
+    return familyTree;
+  }
+
+  @Override
+  public List<FamilyTreeLoop> getLoops() {
+    return Collections.unmodifiableList(loops);
+  }
+
+  @Override
+  public List<FamilyTreeProblem> getProblems() {
+    return Collections.unmodifiableList(problems);
+  }
+
+  @Override
+  public int getSharedNodeCount() {
+    return ancestorBuilder == null ? 0 : ancestorBuilder.getSharedNodeCount();
+  }
+
+  @Override
+  public long getSavedNodeCount() {
+    return ancestorBuilder == null ? 0 : ancestorBuilder.getSavedNodeCount();
+  }
+
+  /**
+   * An ancestor tree can not be updated. Build it again instead.
+   *
+   * @throws UnsupportedOperationException Always
+   */
+  @Override
+  public FamilyTree updateFamilyTree(Collection<String> individualIds, Collection<String> familyIds) {
+    throw new UnsupportedOperationException("An ancestor tree can not be updated. " +
+        "Build it again instead.");
+  }
+
+  @Override
+  public FamilyTree buildFamilyTree(String individualId, String treeTitle) {
+    GedcomCreatorStructureStorage storage = getStorage();
+
+    if (!storage.hasIndividual(individualId)) {
+      throw new GedcomToFamilytreeError("Failed to build ancestor tree. Individual with ID " +
+          individualId + " does not exist.");
+    }
+
+    if (storage.structuresModified()) {
+      //Make sure the relations are built for printing
+      storage.buildFamilyRelations();
+    }
+
+    GedcomIndividual individual = storage.getIndividual(individualId);
+
+    FamilyTree familyTree = createFamilyTree(treeTitle);
+    loops = new ArrayList<>();
+    problems = new ArrayList<>();
+    ancestorBuilder = new FamilyTreeAncestorBuilder(this, loops, problems);
+
+    FamilyTreeNode first = createNode(individual, null, null);
+    familyTree.addChildNode(first);
+
+    FamilyTreeBuildPath path = new FamilyTreeBuildPath();
+    path.enter(individual);
+
+    ancestorBuilder.addAncestors(first, individual, path);
+
+    this.familyTree = familyTree;
+
+    return familyTree;
+  }
+
+}
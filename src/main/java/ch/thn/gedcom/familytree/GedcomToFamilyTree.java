@@ -16,24 +16,72 @@
  */
 package ch.thn.gedcom.familytree;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
 import ch.thn.gedcom.creator.GedcomEnums.Sex;
 import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.index.FamilyTreeComponent;
+import ch.thn.gedcom.familytree.index.FamilyTreeIndex;
+import ch.thn.gedcom.familytree.sort.FamilyTreeKeySorter;
+import ch.thn.gedcom.familytree.sort.FamilyTreeSorter;
+import ch.thn.gedcom.familytree.sort.FamilytreeSorter;
 
 /**
  *
  * @author Thomas Naeff (github.com/thnaeff)
  *
  */
-public class GedcomToFamilyTree {
+public class GedcomToFamilyTree implements FamilyTreeBuilder {
 
   private GedcomCreatorStructureStorage structureStorage = null;
 
   private FamilyTree familyTree = null;
 
+  private boolean iterativeBuild = false;
+
+  private ForkJoinPool buildPool = null;
+  private int splitThreshold = 0;
+
+  private List<FamilyTreeLoop> loops = Collections.synchronizedList(new ArrayList<FamilyTreeLoop>());
+  private List<FamilyTreeProblem> problems = Collections.synchronizedList(new ArrayList<FamilyTreeProblem>());
+
+  private boolean shareSubtrees = false;
+  private ConcurrentMap<SubtreeKey, FamilyTreeNode> subtrees = null;
+  private List<FamilyTreeNode> sharingNodes = null;
+  private long savedNodeCount = 0;
+
+  private FamilyTreeIndex index = null;
+
+  private String rootId = null;
+
+  private boolean lazyBuild = false;
+  private int generationLimit = 0;
+
+  private boolean hourglassBuild = false;
+  private FamilyTreeAncestorBuilder ancestorBuilder = null;
+
+  private boolean deferredSort = false;
+  private FamilyTreeSorter sorter = null;
+  private FamilyTreeSorter nodeSorter = null;
+
 
   public GedcomToFamilyTree(GedcomCreatorStructureStorage structureStorage) {
     this.structureStorage = structureStorage;
@@ -59,6 +107,253 @@ public class GedcomToFamilyTree {
   }
 
 
+  /**
+   * Returns the loops in the family relations which have been found during the
+   * last build. A loop ends the branch of the tree where it has been found.
+   *
+   * @return
+   */
+  public List<FamilyTreeLoop> getLoops() {
+    return Collections.unmodifiableList(loops);
+  }
+
+  /**
+   * Returns the links which could not be followed during the last build, like
+   * a family with a husband which does not exist. The families and
+   * individuals of those links are skipped in the tree. If the tree is built
+   * with an index (see {@link #setIndex(FamilyTreeIndex)}), the problems of
+   * the index are returned as well.
+   *
+   * @return
+   */
+  public List<FamilyTreeProblem> getProblems() {
+    return Collections.unmodifiableList(problems);
+  }
+
+  /**
+   * If set to <code>true</code>, the family tree is built by walking the
+   * individuals and families with an explicit work queue instead of recursive
+   * method calls. The resulting tree is exactly the same, but the depth of
+   * the tree is not limited by the stack size of the building thread.
+   *
+   * @param iterativeBuild
+   */
+  public void setIterativeBuild(boolean iterativeBuild) {
+    this.iterativeBuild = iterativeBuild;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public boolean isIterativeBuild() {
+    return iterativeBuild;
+  }
+
+  /**
+   * Builds the subtrees of siblings in parallel with the given pool. A subtree
+   * is only built as separate task if it contains more than splitThreshold
+   * individuals, smaller subtrees are built iteratively by the task which found
+   * them. The nodes are added to their parent node in the same order as
+   * with the other builds, which results in the same family tree.<br>
+   * <br>
+   * The storage must not be modified while a tree is being built.
+   *
+   * @param pool The pool to build with, or <code>null</code> to disable the
+   * parallel build
+   * @param splitThreshold
+   */
+  public void setParallelBuild(ForkJoinPool pool, int splitThreshold) {
+    this.buildPool = pool;
+    this.splitThreshold = splitThreshold;
+  }
+
+  /**
+   * If set to <code>true</code>, the descendants of a family are only built
+   * once for each individual which follows the tree into the family. If the
+   * same family and individual are reached again (for example if cousins
+   * married), the new node shares the child nodes of the first node (see
+   * {@link FamilyTreeNode#getSharedNode()}). The printers still show the
+   * descendants in every place.<br>
+   * <br>
+   * If there are loops in the family relations, a shared subtree ends where
+   * the loop has been found when building it the first time.
+   *
+   * @param shareSubtrees
+   */
+  public void setShareSubtrees(boolean shareSubtrees) {
+    this.shareSubtrees = shareSubtrees;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public boolean isShareSubtrees() {
+    return shareSubtrees;
+  }
+
+  /**
+   * Returns the number of nodes which share the child nodes of another node
+   * in the last built tree
+   *
+   * @return
+   */
+  public int getSharedNodeCount() {
+    return (sharingNodes == null ? 0 : sharingNodes.size())
+        + (ancestorBuilder == null ? 0 : ancestorBuilder.getSharedNodeCount());
+  }
+
+  /**
+   * Returns the number of nodes which did not have to be built for the last
+   * tree because their subtree has been shared
+   *
+   * @return
+   */
+  public long getSavedNodeCount() {
+    return savedNodeCount;
+  }
+
+  /**
+   * Builds the family trees from the given index instead of looking up the
+   * individuals and families in the storage. The index is built again when a
+   * tree is built after the storage has been modified, or if the starting
+   * individual is not part of the index.
+   *
+   * @param index The index to build with, or <code>null</code> to build with
+   * the storage
+   */
+  public void setIndex(FamilyTreeIndex index) {
+    this.index = index;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public FamilyTreeIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * If set to <code>true</code>, only the root of the family tree is built.
+   * The child nodes of each node are built the first time they are read (see
+   * {@link FamilyTreeNode#isExpanded()}), for example when the tree is printed
+   * with a limited number of generations. The storage must not be modified as
+   * long as the tree is used.<br>
+   * <br>
+   * Lazy trees are built without the parallel or iterative build and without
+   * shared subtrees.
+   *
+   * @param lazyBuild
+   */
+  public void setLazyBuild(boolean lazyBuild) {
+    this.lazyBuild = lazyBuild;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public boolean isLazyBuild() {
+    return lazyBuild;
+  }
+
+  /**
+   * Limits the number of generations of a lazily built tree. The nodes of
+   * the last generation do not have any child nodes.
+   *
+   * @param generationLimit The number of generations, or 0 for no limit
+   */
+  public void setGenerationLimit(int generationLimit) {
+    this.generationLimit = generationLimit;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getGenerationLimit() {
+    return generationLimit;
+  }
+
+  /**
+   * If set to <code>true</code>, the tree also contains the ancestors of the
+   * starting individual. The family of the parents of the starting individual
+   * is added next to the families of the starting individual, with all the
+   * ancestors below it (see {@link GedcomToAncestorTree}). Both parts are
+   * built in the same pass and share the build path, which also finds the
+   * individuals who are their own ancestor.<br>
+   * <br>
+   * The ancestors are always looked up in the storage and built completely,
+   * also if an index or lazy building is set. A tree with ancestors is always
+   * built again completely when it is updated.
+   *
+   * @param hourglassBuild
+   */
+  public void setHourglassBuild(boolean hourglassBuild) {
+    this.hourglassBuild = hourglassBuild;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public boolean isHourglassBuild() {
+    return hourglassBuild;
+  }
+
+  /**
+   * If set to <code>true</code>, the child nodes are not sorted one by one
+   * while the tree is built. The child nodes of each node are collected in
+   * a list and sorted all at once when they are read the first time (see
+   * {@link FamilyTreeNode#appendChildNode(FamilyTreeNode)}). The tree is the
+   * same as a tree which is sorted while building.
+   *
+   * @param deferredSort
+   */
+  public void setDeferredSort(boolean deferredSort) {
+    this.deferredSort = deferredSort;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public boolean isDeferredSort() {
+    return deferredSort;
+  }
+
+  /**
+   * Sets the sorter for the child nodes of the built trees. The keys of a
+   * {@link FamilyTreeKeySorter} are created once per node and kept in the
+   * node. If set to <code>null</code>, the nodes are sorted by the
+   * {@link FamilytreeSorter}.
+   *
+   * @param sorter
+   */
+  public void setSorter(FamilyTreeSorter sorter) {
+    this.sorter = sorter;
+    this.nodeSorter = (sorter == null ? null : FamilyTreeNode.sortedBy(sorter));
+  }
+
+  /**
+   *
+   *
+   * @return The sorter, or <code>null</code> if the nodes are sorted by
+   * the {@link FamilytreeSorter}
+   */
+  public FamilyTreeSorter getSorter() {
+    return sorter;
+  }
+
   /**
    * Build the family tree using the added individuals and families. The starting
    * individual of the tree will be the one which has the given individual ID
@@ -82,40 +377,641 @@ public class GedcomToFamilyTree {
    */
   public FamilyTree buildFamilyTree(String individualId, String treeTitle) {
 
-    if (!structureStorage.hasIndividual(individualId)) {
-      throw new GedcomToFamilytreeError("Failed to build family tree. Individual with ID " +
-          individualId + " does not exist.");
-    }
+    if (!structureStorage.hasIndividual(individualId)) {
+      throw new GedcomToFamilytreeError("Failed to build family tree. Individual with ID " +
+          individualId + " does not exist.");
+    }
+
+    boolean modified = structureStorage.structuresModified();
+
+    if (modified) {
+      //Make sure the relations are built
+      structureStorage.buildFamilyRelations();
+    }
+
+    updateIndex(Collections.singletonList(individualId), modified);
+
+    FamilyTree familyTree = createFamilyTree(treeTitle);
+
+    FamilyTreeBuildPath path = new FamilyTreeBuildPath();
+    BuildStep first = createFirstStep(familyTree, individualId);
+
+    loops = Collections.synchronizedList(new ArrayList<FamilyTreeLoop>());
+    problems = createProblems();
+
+    if (shareSubtrees && !lazyBuild) {
+      subtrees = new ConcurrentHashMap<>();
+      sharingNodes = Collections.synchronizedList(new ArrayList<FamilyTreeNode>());
+    } else {
+      subtrees = null;
+      sharingNodes = null;
+    }
+
+    //Start building the tree by adding the first child
+    if (lazyBuild) {
+      familyTree.setLazyChildren(new LazyChildren(Collections.singletonList(first), 0));
+    } else if (buildPool != null) {
+      buildPool.invoke(new ChildrenTask(familyTree, Collections.singletonList(first), path));
+    } else if (iterativeBuild) {
+      addChildIteratively(first, path);
+    } else {
+      addChild(first, null, path);
+    }
+
+    if (hourglassBuild) {
+      //The ancestors next to the descendants
+      GedcomIndividual individual = structureStorage.getIndividual(individualId);
+      FamilyTreeBuildPath ancestorPath = path.copy();
+      ancestorPath.enter(individual);
+
+      ancestorBuilder = new FamilyTreeAncestorBuilder(this, loops, problems);
+      ancestorBuilder.addAncestors(familyTree, individual, ancestorPath);
+    } else {
+      ancestorBuilder = null;
+    }
+
+    this.familyTree = familyTree;
+    this.rootId = individualId;
+
+    savedNodeCount = 0;
+
+    if (ancestorBuilder != null) {
+      savedNodeCount += ancestorBuilder.getSavedNodeCount();
+    }
+
+    if (sharingNodes != null) {
+      Map<FamilyTreeNode, Long> counts = new IdentityHashMap<>();
+
+      for (FamilyTreeNode node : sharingNodes) {
+        savedNodeCount += countDescendants(node, counts);
+      }
+
+      //Only needed while building
+      subtrees = null;
+    }
+
+    return familyTree;
+  }
+
+  /**
+   * Updates the last built family tree after the given individuals or families
+   * have been modified, without building the whole tree again. Only the nodes
+   * which contain one of the individuals or families are updated:<br>
+   * - If the structures of the storage have been modified (individuals or
+   * families added), the descendants of the individual which follows the tree
+   * into such a node are built again.<br>
+   * - Otherwise (for example if only a date has changed) the node is only
+   * sorted again among its siblings.<br>
+   * <br>
+   * The updated nodes are replaced in the tree of the last build, which is
+   * returned again.<br>
+   * <br>
+   * If the descendants are shared (see {@link #setShareSubtrees(boolean)}) or
+   * if the tree contains the ancestors (see {@link #setHourglassBuild(boolean)}),
+   * a node can be part of the tree more than once and can not be replaced on
+   * its own. In those cases the whole tree is built again with
+   * {@link #buildFamilyTree(String, String)} and a new tree is returned, the
+   * given IDs are not needed then.
+   *
+   * @param individualIds The IDs of the modified individuals
+   * @param familyIds The IDs of the modified families
+   * @return The updated tree of the last build, or the new tree if it has
+   * been built again
+   * @throws GedcomToFamilytreeError If no tree has been built yet
+   */
+  public FamilyTree updateFamilyTree(Collection<String> individualIds, Collection<String> familyIds) {
+    if (familyTree == null) {
+      throw new GedcomToFamilytreeError("Failed to update family tree. No family tree has been built.");
+    }
+
+    if (sharingNodes != null || ancestorBuilder != null) {
+      //Shared nodes can not be replaced on their own
+      return buildFamilyTree(rootId, familyTree.getFamilyTreeTitle());
+    }
+
+    boolean rebuild = structureStorage.structuresModified();
+
+    if (rebuild) {
+      structureStorage.buildFamilyRelations();
+      updateIndex(Collections.singletonList(rootId), true);
+    }
+
+    //The nodes with the modified individuals and families, parents first
+    final Map<FamilyTreeNode, Integer> depths = new IdentityHashMap<>();
+    List<FamilyTreeNode> modifiedNodes = findNodes(individualIds, familyIds, depths);
+
+    Collections.sort(modifiedNodes, new Comparator<FamilyTreeNode>() {
+
+      @Override
+      public int compare(FamilyTreeNode node1, FamilyTreeNode node2) {
+        return Integer.compare(depths.get(node1), depths.get(node2));
+      }
+    });
+
+    for (FamilyTreeNode node : modifiedNodes) {
+      //The keys have been created with the old dates and names
+      node.clearSortKey();
+    }
+
+    Set<FamilyTreeNode> updatedParents = Collections.newSetFromMap(new IdentityHashMap<FamilyTreeNode, Boolean>());
+
+    for (FamilyTreeNode node : modifiedNodes) {
+      FamilyTreeNode parent = node.getParentNode();
+
+      if (parent == null || !isInTree(parent)) {
+        //Removed by an update of one of its ancestors
+        continue;
+      }
+
+      if (!rebuild && updatedParents.contains(parent)) {
+        //The node has already been sorted again together with its siblings
+        continue;
+      }
+
+      GedcomIndividual child = node.getNodeValue()[0];
+      FamilyTreeNode newParent = replaceNode(parent, rebuild ? child : null);
+      updatedParents.add(newParent);
+
+      if (rebuild) {
+        //Build the descendants of the child again
+        FamilyTreeBuildPath path = createPath(newParent);
+        BuildStep step = null;
+
+        if (index == null) {
+          step = new BuildStep(newParent, child);
+        } else {
+          step = new BuildStep(newParent, index.getIndividualNumber(child.getId()));
+        }
+
+        if (lazyBuild) {
+          new LazyChildren(Collections.singletonList(step), getGeneration(newParent)).addTo(newParent);
+        } else if (iterativeBuild || buildPool != null) {
+          addChildIteratively(step, path);
+        } else {
+          addChild(step, null, path);
+        }
+      }
+    }
+
+    return familyTree;
+  }
+
+  /**
+   * Builds the family trees of all the given individuals. The trees are built
+   * in parallel, with the pool of the parallel build if there is one (see
+   * {@link #setParallelBuild(ForkJoinPool, int)}). The descendants which are
+   * part of more than one tree (or more than once in a tree) are only built
+   * once and shared between the trees, as with {@link #setShareSubtrees(boolean)}.<br>
+   * <br>
+   * The trees are always built completely, even if lazy building is set. The
+   * tree returned by {@link #getFamilyTree()} is not changed, but
+   * {@link #getLoops()} returns the loops found in all the trees.
+   *
+   * @param individualIds The IDs to start the trees with
+   * @return The trees of the individuals, in the order of the given IDs
+   * @throws GedcomToFamilytreeError If there is no individual with one of
+   * the given IDs
+   */
+  public Map<String, FamilyTree> buildFamilyTrees(Collection<String> individualIds) {
+
+    for (String individualId : individualIds) {
+      if (!structureStorage.hasIndividual(individualId)) {
+        throw new GedcomToFamilytreeError("Failed to build family tree. Individual with ID " +
+            individualId + " does not exist.");
+      }
+    }
+
+    boolean modified = structureStorage.structuresModified();
+
+    if (modified) {
+      //Make sure the relations are built
+      structureStorage.buildFamilyRelations();
+    }
+
+    updateIndex(individualIds, modified);
+
+    Map<String, FamilyTree> familyTrees = new LinkedHashMap<>();
+    List<RootTask> tasks = new ArrayList<>();
+
+    for (String individualId : individualIds) {
+      if (!familyTrees.containsKey(individualId)) {
+        FamilyTree familyTree = createFamilyTree(null);
+        familyTrees.put(individualId, familyTree);
+        tasks.add(new RootTask(familyTree,
+            Collections.singletonList(createFirstStep(familyTree, individualId))));
+      }
+    }
+
+    buildTrees(tasks);
+
+    return familyTrees;
+  }
+
+  /**
+   * Finds the groups of connected individuals (see {@link FamilyTreeComponent})
+   * of the given individuals and builds one family tree for each group, with
+   * the top ancestors of the group as first nodes. Each group is built like
+   * with {@link #buildFamilyTrees(Collection)}: in parallel and with shared
+   * subtrees. The given individuals do not have to be the top ancestors, any
+   * individual of a group finds the whole group.
+   *
+   * @param individualIds The individuals to find the groups of, for example
+   * all the individuals of a GEDCOM file (see {@link ch.thn.gedcom.familytree.index.GedcomFileIndex#getIndividualIds()})
+   * @return The trees of all the groups, the largest group first
+   * @throws GedcomToFamilytreeError If there is no individual with one of
+   * the given IDs
+   */
+  public Map<FamilyTreeComponent, FamilyTree> buildComponentTrees(Collection<String> individualIds) {
+
+    for (String individualId : individualIds) {
+      if (!structureStorage.hasIndividual(individualId)) {
+        throw new GedcomToFamilytreeError("Failed to build family tree. Individual with ID " +
+            individualId + " does not exist.");
+      }
+    }
+
+    boolean modified = structureStorage.structuresModified();
+
+    if (modified) {
+      //Make sure the relations are built
+      structureStorage.buildFamilyRelations();
+    }
+
+    updateIndex(individualIds, modified);
+
+    List<FamilyTreeComponent> components = null;
+
+    if (index == null) {
+      //Only needed to find the components
+      components = FamilyTreeComponent.find(FamilyTreeIndex.build(structureStorage, individualIds));
+    } else {
+      components = FamilyTreeComponent.find(index);
+    }
+
+    Map<FamilyTreeComponent, FamilyTree> familyTrees = new LinkedHashMap<>();
+    List<RootTask> tasks = new ArrayList<>();
+
+    for (FamilyTreeComponent component : components) {
+      FamilyTree familyTree = createFamilyTree(null);
+      List<BuildStep> firsts = new ArrayList<>();
+
+      for (String topAncestorId : component.getTopAncestorIds()) {
+        firsts.add(createFirstStep(familyTree, topAncestorId));
+      }
+
+      familyTrees.put(component, familyTree);
+      tasks.add(new RootTask(familyTree, firsts));
+    }
+
+    buildTrees(tasks);
+
+    return familyTrees;
+  }
+
+  /**
+   * Runs the given tasks in parallel, with shared subtrees
+   *
+   * @param tasks
+   */
+  private void buildTrees(List<RootTask> tasks) {
+    loops = Collections.synchronizedList(new ArrayList<FamilyTreeLoop>());
+    problems = createProblems();
+    subtrees = new ConcurrentHashMap<>();
+    sharingNodes = Collections.synchronizedList(new ArrayList<FamilyTreeNode>());
+    ancestorBuilder = null;
+
+    ForkJoinPool pool = buildPool;
+
+    if (pool == null) {
+      pool = new ForkJoinPool();
+    }
+
+    try {
+      for (RootTask task : tasks) {
+        pool.execute(task);
+      }
+
+      for (RootTask task : tasks) {
+        task.join();
+      }
+    } finally {
+      if (pool != buildPool) {
+        pool.shutdown();
+      }
+    }
+
+    Map<FamilyTreeNode, Long> counts = new IdentityHashMap<>();
+    savedNodeCount = 0;
+
+    for (FamilyTreeNode node : sharingNodes) {
+      savedNodeCount += countDescendants(node, counts);
+    }
+
+    //Only needed while building
+    subtrees = null;
+  }
+
+  /**
+   *
+   *
+   * @param familyTree
+   * @param individualId
+   * @return
+   */
+  private BuildStep createFirstStep(FamilyTree familyTree, String individualId) {
+    if (index == null) {
+      return new BuildStep(familyTree, structureStorage.getIndividual(individualId));
+    } else {
+      return new BuildStep(familyTree, index.getIndividualNumber(individualId));
+    }
+  }
+
+  /**
+   * Creates the list for the problems of a build, with the problems of the
+   * index if there is one
+   *
+   * @return
+   */
+  private List<FamilyTreeProblem> createProblems() {
+    List<FamilyTreeProblem> problems = Collections.synchronizedList(new ArrayList<FamilyTreeProblem>());
+
+    if (index != null) {
+      problems.addAll(index.getProblems());
+    }
+
+    return problems;
+  }
+
+  /**
+   * Builds the index again if the storage has been modified or if it does not
+   * contain all of the given individuals
+   *
+   * @param individualIds
+   * @param modified
+   */
+  private void updateIndex(Collection<String> individualIds, boolean modified) {
+    if (index == null) {
+      return;
+    }
+
+    List<String> seeds = new ArrayList<>(index.getSeeds());
+    boolean missing = false;
+
+    for (String individualId : individualIds) {
+      if (index.getIndividualNumber(individualId) == FamilyTreeIndex.NONE) {
+        missing = true;
+      }
+
+      if (!seeds.contains(individualId)) {
+        seeds.add(individualId);
+      }
+    }
+
+    if (modified || missing) {
+      index = FamilyTreeIndex.build(structureStorage, seeds);
+    }
+  }
+
+  /**
+   * Searches the current tree for the nodes which contain one of the given
+   * individuals or families
+   *
+   * @param individualIds
+   * @param familyIds
+   * @param depths The depth of each found node is added to this map
+   * @return
+   */
+  private List<FamilyTreeNode> findNodes(Collection<String> individualIds,
+      Collection<String> familyIds, Map<FamilyTreeNode, Integer> depths) {
+    Set<String> individuals = new HashSet<>(individualIds);
+    Set<String> families = new HashSet<>(familyIds);
+
+    List<FamilyTreeNode> nodes = new ArrayList<>();
+    Deque<FamilyTreeNode> pending = new ArrayDeque<>();
+    Deque<Integer> pendingDepths = new ArrayDeque<>();
+
+    for (FamilyTreeNode child : familyTree.getExpandedChildNodes()) {
+      pending.push(child);
+      pendingDepths.push(1);
+    }
+
+    while (!pending.isEmpty()) {
+      FamilyTreeNode node = pending.pop();
+      int depth = pendingDepths.pop();
+
+      GedcomIndividual[] value = node.getNodeValue();
+      GedcomFamily family = node.getFamily();
+
+      if (individuals.contains(value[0].getId())
+          || (value[1] != null && individuals.contains(value[1].getId()))
+          || (family != null && families.contains(family.getId()))) {
+        nodes.add(node);
+        depths.put(node, depth);
+      }
+
+      //Nodes which have not been built yet are built with the modifications
+      for (FamilyTreeNode child : node.getExpandedChildNodes()) {
+        pending.push(child);
+        pendingDepths.push(depth + 1);
+      }
+    }
+
+    return nodes;
+  }
+
+  /**
+   * Checks if the node still is part of the current tree
+   *
+   * @param node
+   * @return
+   */
+  private boolean isInTree(FamilyTreeNode node) {
+    while (node.getParentNode() != null) {
+      node = node.getParentNode();
+    }
+
+    return node == familyTree;
+  }
+
+  /**
+   * Replaces the node with a new node with the same individuals and family,
+   * and adds the child nodes to the new node again. This sorts the child nodes
+   * again, even if their sort order has changed (the order of the nodes can not
+   * be changed once they have been added).
+   *
+   * @param node
+   * @param excludedChild If not <code>null</code>, the nodes of this
+   * individual are not added to the new node
+   * @return The new node
+   */
+  private FamilyTreeNode replaceNode(FamilyTreeNode node, GedcomIndividual excludedChild) {
+    FamilyTreeNode newNode = null;
+
+    if (node == familyTree) {
+      familyTree = createFamilyTree(familyTree.getFamilyTreeTitle());
+      newNode = familyTree;
+    } else {
+      FamilyTreeNode parent = node.getParentNode();
+      parent.removeChildNode(node);
+      newNode = node.nodeFactory(node);
+      parent.addChildNode(newNode);
+    }
+
+    for (FamilyTreeNode child : new ArrayList<>(node.getChildNodes())) {
+      if (excludedChild == null || child.getNodeValue()[0] != excludedChild) {
+        newNode.addChildNode(child);
+      }
+    }
+
+    return newNode;
+  }
+
+  /**
+   * Returns the number of nodes above the given node, without the root of
+   * the tree
+   *
+   * @param node
+   * @return
+   */
+  private static int getGeneration(FamilyTreeNode node) {
+    int generation = 0;
+
+    for (; node.getParentNode() != null; node = node.getParentNode()) {
+      generation++;
+    }
+
+    return generation;
+  }
+
+  /**
+   * Creates a build path with all the individuals which lead from the root of
+   * the tree to the given node
+   *
+   * @param node
+   * @return
+   */
+  private FamilyTreeBuildPath createPath(FamilyTreeNode node) {
+    Deque<GedcomIndividual> individuals = new ArrayDeque<>();
+
+    //The root of the tree has no individuals
+    for (; node != null && node.getParentNode() != null; node = node.getParentNode()) {
+      individuals.push(node.getNodeValue()[0]);
+    }
+
+    FamilyTreeBuildPath path = new FamilyTreeBuildPath();
+
+    for (GedcomIndividual individual : individuals) {
+      if (index == null) {
+        path.enter(individual);
+      } else {
+        path.enter(index.getIndividualNumber(individual.getId()));
+      }
+    }
+
+    return path;
+  }
+
+  /**
+   * Builds the family tree without recursion. Each pending child is kept as
+   * {@link BuildStep} on a stack. The steps of the children of a new family are
+   * pushed in reverse order, which results in the same order of processing as
+   * the recursive build.
+   *
+   * @param first
+   * @param path
+   */
+  private void addChildIteratively(BuildStep first, FamilyTreeBuildPath path) {
+    Deque<BuildStep> steps = new ArrayDeque<>();
+    List<BuildStep> newSteps = new ArrayList<>();
+
+    steps.push(first);
+
+    while (!steps.isEmpty()) {
+      BuildStep step = steps.pop();
+
+      if (step.treeNode == null) {
+        //All the descendants of this child have been added
+        path.leave(step.pathNumber);
+        continue;
+      }
+
+      int pathNumber = addChild(step, newSteps, path);
+
+      if (pathNumber == -1) {
+        continue;
+      }
+
+      //Leave the path again once all the new steps are done
+      steps.push(new BuildStep(pathNumber));
+
+      for (int i = newSteps.size() - 1; i >= 0; i--) {
+        steps.push(newSteps.get(i));
+      }
+
+      newSteps.clear();
+    }
+  }
+
+  /**
+   * Add a child for building the family tree
+   *
+   * @param step The child and the tree node to add it to
+   * @param pendingSteps If not <code>null</code>, the children of the new
+   * families are not added recursively but collected as build steps in this list.
+   * The child then stays on the build path until the caller leaves it.
+   * @param path The individuals from the root of the tree to the tree node
+   * @return The number of the child on the build path, or -1 if the child has
+   * not been added because it is its own ancestor
+   */
+  private int addChild(BuildStep step, List<BuildStep> pendingSteps,
+      FamilyTreeBuildPath path) {
+
+    int pathNumber = 0;
 
-    if (structureStorage.structuresModified()) {
-      //Make sure the relations are built
-      structureStorage.buildFamilyRelations();
+    if (index == null) {
+      pathNumber = path.enter(step.child);
+    } else {
+      pathNumber = path.enter(step.childNumber);
     }
 
-    FamilyTree familyTree = new FamilyTree(treeTitle);
+    if (pathNumber == -1) {
+      GedcomFamily family = step.treeNode.getFamily();
+      String childId = (index == null ? step.child.getId() : index.getIndividualId(step.childNumber));
+      loops.add(new FamilyTreeLoop(childId, family == null ? null : family.getId()));
+      return -1;
+    }
 
-    //Start building the tree by adding the first child
-    addChild(familyTree, structureStorage.getIndividual(individualId));
+    if (index == null) {
+      addFamilies(step.treeNode, step.child, pendingSteps, path);
+    } else {
+      addIndexedFamilies(step.treeNode, step.childNumber, pendingSteps, path);
+    }
 
-    this.familyTree = familyTree;
+    if (pendingSteps == null) {
+      //All the descendants have been added recursively
+      path.leave(pathNumber);
+    }
 
-    return familyTree;
+    return pathNumber;
   }
 
   /**
-   * Add a child for building the family tree
+   * Adds the families of the given child to the tree
    *
    * @param treeNode
    * @param child
+   * @param pendingSteps
+   * @param path
    */
-  private void addChild(FamilyTreeNode treeNode, GedcomIndividual child) {
+  private void addFamilies(FamilyTreeNode treeNode, GedcomIndividual child,
+      List<BuildStep> pendingSteps, FamilyTreeBuildPath path) {
 
     //Get all the links to this individuals families
     List<String> famsLinks = child.getSpouseFamilyLinks();
 
     //No family for this individual
     if (famsLinks == null || famsLinks.size() == 0) {
-      addOneIndividualFamily(treeNode, child);
+      addOneIndividualFamily(treeNode, child, pendingSteps, path);
       return;
     }
 
@@ -132,8 +1028,9 @@ public class GedcomToFamilyTree {
       if (!structureStorage.hasFamily(famXRef)) {
         //				throw new GedcomToFamilytreeError("Individual " + childId + " is linked to family " +
         //						famXRef + ", but such a family has not been found. Family skipped.");
-        System.err.println("Individual " + child.getId() + " is linked to family " +
-            famXRef + ", but such a family has not been found. Family skipped.");
+        problems.add(new FamilyTreeProblem(child.getId(), famXRef,
+            "Individual " + child.getId() + " is linked to family " +
+            famXRef + ", but such a family has not been found. Family skipped."));
         continue;
       }
 
@@ -144,13 +1041,13 @@ public class GedcomToFamilyTree {
       String wifeXRef = family.getWifeLink();
       List<String> childXRefs = family.getChildLinks();
 
-      addFamily(treeNode, husbXRef, wifeXRef, child.getId(), childXRefs);
+      addFamily(treeNode, famXRef, husbXRef, wifeXRef, child.getId(), childXRefs, pendingSteps, path);
 
       familyAdded = true;
     }
 
     if (!familyAdded) {
-      addOneIndividualFamily(treeNode, child);
+      addOneIndividualFamily(treeNode, child, pendingSteps, path);
     }
   }
 
@@ -159,8 +1056,11 @@ public class GedcomToFamilyTree {
    *
    * @param treeNode
    * @param indi
+   * @param pendingSteps
+   * @param path
    */
-  private void addOneIndividualFamily(FamilyTreeNode treeNode, GedcomIndividual indi) {
+  private void addOneIndividualFamily(FamilyTreeNode treeNode, GedcomIndividual indi,
+      List<BuildStep> pendingSteps, FamilyTreeBuildPath path) {
     String husbXRef = null;
     String wifeXRef = null;
 
@@ -173,31 +1073,38 @@ public class GedcomToFamilyTree {
       husbXRef = indi.getId();
     }
 
-    addFamily(treeNode, husbXRef, wifeXRef, indi.getId(), null);
+    addFamily(treeNode, null, husbXRef, wifeXRef, indi.getId(), null, pendingSteps, path);
   }
 
   /**
    * Add a family for building the family tree
    *
    * @param treeNode
+   * @param famXRef The family with the children, or <code>null</code> if the
+   * family only consists of one individual
    * @param husbXRef
    * @param wifeXRef
    * @param childOfParentsId The ID of the husband or wife which is the child
    * of the parents of this new family -> childOfParentsId matches either husbXRef
    * or wifeXRef
    * @param childXRefs
+   * @param pendingSteps If not <code>null</code>, the children are collected as
+   * build steps in this list instead of being added recursively
+   * @param path
    */
-  private void addFamily(FamilyTreeNode treeNode, String husbXRef, String wifeXRef,
-      String childOfParentsId, List<String> childXRefs) {
+  private void addFamily(FamilyTreeNode treeNode, String famXRef, String husbXRef, String wifeXRef,
+      String childOfParentsId, List<String> childXRefs, List<BuildStep> pendingSteps,
+      FamilyTreeBuildPath path) {
 
     GedcomIndividual husband = null;
     GedcomIndividual wife = null;
 
     if (husbXRef != null) {
       if (!structureStorage.hasIndividual(husbXRef)) {
-        System.out.println("Can not create family with husband " + husbXRef +
+        problems.add(new FamilyTreeProblem(husbXRef, famXRef,
+            "Can not create family with husband " + husbXRef +
             ", wife " + wifeXRef + " and children " + childXRefs +
-            ". ID of husband not found.");
+            ". ID of husband not found."));
         return;
       }
 
@@ -206,37 +1113,638 @@ public class GedcomToFamilyTree {
 
     if (wifeXRef != null) {
       if (!structureStorage.hasIndividual(wifeXRef)) {
-        System.out.println("Can not create family with husband " + husbXRef +
+        problems.add(new FamilyTreeProblem(wifeXRef, famXRef,
+            "Can not create family with husband " + husbXRef +
             ", wife " + wifeXRef + " and children " + childXRefs +
-            ". ID of wife not found.");
+            ". ID of wife not found."));
         return;
       }
 
       wife = structureStorage.getIndividual(wifeXRef);
     }
 
-    FamilyTreeNode newNode = null;
     GedcomFamily family = structureStorage.getFamilyOfParents(husbXRef, wifeXRef);
+    boolean hasChildren = childXRefs != null && childXRefs.size() > 0;
+
+    FamilyTreeNode newNode = addFamilyNode(treeNode, husband, wife, family,
+        childOfParentsId.equals(husbXRef), famXRef, childOfParentsId, hasChildren);
+
+    if (newNode != null && hasChildren) {
+      //Add all the children of this family
+      for (String childXRef : childXRefs) {
+        if (structureStorage.hasIndividual(childXRef)) {
+          BuildStep step = new BuildStep(newNode, structureStorage.getIndividual(childXRef));
+
+          if (pendingSteps == null) {
+            addChild(step, null, path);
+          } else {
+            pendingSteps.add(step);
+          }
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Adds the families of the given child to the tree, using the index
+   *
+   * @param treeNode
+   * @param child
+   * @param pendingSteps
+   * @param path
+   */
+  private void addIndexedFamilies(FamilyTreeNode treeNode, int child,
+      List<BuildStep> pendingSteps, FamilyTreeBuildPath path) {
+
+    //Only the existing families are in the index
+    int[] spouseFamilies = index.getSpouseFamilies(child);
+
+    if (spouseFamilies.length == 0) {
+      //No family for this individual
+      int husband = FamilyTreeIndex.NONE;
+      int wife = FamilyTreeIndex.NONE;
+
+      if (index.getIndividual(child).getSex() == Sex.FEMALE) {
+        wife = child;
+      } else {
+        //Assume a male individual if set is not set and it is not a female
+        husband = child;
+      }
+
+      addIndexedFamily(treeNode, FamilyTreeIndex.NONE, husband, wife, child, pendingSteps, path);
+      return;
+    }
+
+    for (int family : spouseFamilies) {
+      addIndexedFamily(treeNode, family, index.getHusband(family), index.getWife(family),
+          child, pendingSteps, path);
+    }
+  }
+
+  /**
+   * Add a family for building the family tree, using the index
+   *
+   * @param treeNode
+   * @param family The family with the children, or {@link FamilyTreeIndex#NONE}
+   * if the family only consists of one individual
+   * @param husband
+   * @param wife
+   * @param childOfParents The husband or the wife which is the child of the
+   * parents of this new family
+   * @param pendingSteps
+   * @param path
+   */
+  private void addIndexedFamily(FamilyTreeNode treeNode, int family, int husband, int wife,
+      int childOfParents, List<BuildStep> pendingSteps, FamilyTreeBuildPath path) {
+
+    if (husband == FamilyTreeIndex.MISSING || wife == FamilyTreeIndex.MISSING) {
+      GedcomFamily gedcomFamily = index.getFamily(family);
+      problems.add(new FamilyTreeProblem(husband == FamilyTreeIndex.MISSING
+          ? gedcomFamily.getHusbandLink() : gedcomFamily.getWifeLink(), gedcomFamily.getId(),
+          "Can not create family with husband " + gedcomFamily.getHusbandLink() +
+          ", wife " + gedcomFamily.getWifeLink() + " and children " + gedcomFamily.getChildLinks() +
+          ". ID of " + (husband == FamilyTreeIndex.MISSING ? "husband" : "wife") + " not found."));
+      return;
+    }
+
+    int coupleFamily = (family == FamilyTreeIndex.NONE
+        ? index.getSingleFamily(childOfParents) : index.getCoupleFamily(family));
+    int[] children = (family == FamilyTreeIndex.NONE ? null : index.getChildren(family));
+    boolean hasChildren = children != null && children.length > 0;
+
+    FamilyTreeNode newNode = addFamilyNode(treeNode,
+        husband == FamilyTreeIndex.NONE ? null : index.getIndividual(husband),
+        wife == FamilyTreeIndex.NONE ? null : index.getIndividual(wife),
+        coupleFamily == FamilyTreeIndex.NONE ? null : index.getFamily(coupleFamily),
+        childOfParents == husband,
+        hasChildren ? index.getFamilyId(family) : null,
+        index.getIndividualId(childOfParents), hasChildren);
+
+    if (newNode != null && hasChildren) {
+      //Add all the children of this family
+      for (int child : children) {
+        BuildStep step = new BuildStep(newNode, child);
+
+        if (pendingSteps == null) {
+          addChild(step, null, path);
+        } else {
+          pendingSteps.add(step);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Creates the node of a new family and adds it to the tree node. If the
+   * descendants of the family are shared and have already been built through
+   * the same individual, a node which shares them is added instead.
+   *
+   * @param treeNode
+   * @param husband
+   * @param wife
+   * @param family
+   * @param husbandIsChild <code>true</code> if the husband is the child of the
+   * parents of this new family, which makes the husband the first individual
+   * of the node
+   * @param famXRef
+   * @param childOfParentsId
+   * @param hasChildren
+   * @return The new node, or <code>null</code> if the node shares the
+   * descendants of another node
+   */
+  private FamilyTreeNode addFamilyNode(FamilyTreeNode treeNode, GedcomIndividual husband,
+      GedcomIndividual wife, GedcomFamily family, boolean husbandIsChild, String famXRef,
+      String childOfParentsId, boolean hasChildren) {
+    FamilyTreeNode newNode = null;
 
     //
-    if (childOfParentsId.equals(husbXRef)) {
-      newNode = new FamilyTreeNode(husband, wife, family);
+    if (husbandIsChild) {
+      newNode = createNode(husband, wife, family);
     } else {
-      newNode = new FamilyTreeNode(wife, husband, family);
+      newNode = createNode(wife, husband, family);
     }
 
-    treeNode.addChildNode(newNode);
+    if (subtrees != null && hasChildren) {
+      FamilyTreeNode sharedNode = subtrees.putIfAbsent(new SubtreeKey(famXRef, childOfParentsId), newNode);
 
-    if (childXRefs != null && childXRefs.size() > 0) {
-      //Add all the children of this family
-      for (String childXRef : childXRefs) {
-        if (structureStorage.hasIndividual(childXRef)) {
-          addChild(newNode, structureStorage.getIndividual(childXRef));
+      if (sharedNode != null) {
+        //The descendants have already been built
+        FamilyTreeNode sharingNode = new FamilyTreeNode(sharedNode);
+        addChildNode(treeNode, sharingNode);
+        sharingNodes.add(sharingNode);
+        return null;
+      }
+    }
+
+    addChildNode(treeNode, newNode);
+
+    return newNode;
+  }
+
+  /**
+   *
+   *
+   * @param treeTitle
+   * @return
+   */
+  FamilyTree createFamilyTree(String treeTitle) {
+    if (sorter == null) {
+      return new FamilyTree(treeTitle);
+    } else {
+      return new FamilyTree(treeTitle, nodeSorter);
+    }
+  }
+
+  /**
+   *
+   *
+   * @param parent1
+   * @param parent2
+   * @param family
+   * @return
+   */
+  FamilyTreeNode createNode(GedcomIndividual parent1, GedcomIndividual parent2,
+      GedcomFamily family) {
+    if (sorter == null) {
+      return new FamilyTreeNode(parent1, parent2, family);
+    } else {
+      return new FamilyTreeNode(nodeSorter, new GedcomIndividual[] {parent1, parent2}, family);
+    }
+  }
+
+  /**
+   *
+   *
+   * @param treeNode
+   * @param node
+   */
+  private void addChildNode(FamilyTreeNode treeNode, FamilyTreeNode node) {
+    if (deferredSort) {
+      treeNode.appendChildNode(node);
+    } else {
+      treeNode.addChildNode(node);
+    }
+  }
+
+
+  /**
+   * Counts all the nodes below the given node, including the nodes which are
+   * reached through shared nodes. The number of descendants of every visited
+   * node is kept in the given map, which makes counting shared subtrees
+   * cheap.
+   *
+   * @param node
+   * @param counts
+   * @return
+   */
+  static long countDescendants(FamilyTreeNode node, Map<FamilyTreeNode, Long> counts) {
+    Deque<FamilyTreeNode> pending = new ArrayDeque<>();
+    pending.push(node);
+
+    while (!pending.isEmpty()) {
+      FamilyTreeNode current = pending.peek();
+
+      if (counts.containsKey(current)) {
+        pending.pop();
+        continue;
+      }
+
+      long count = 0;
+      boolean counted = true;
+
+      for (FamilyTreeNode child : current.getChildNodes()) {
+        Long childCount = counts.get(child);
+
+        if (childCount == null) {
+          //Count the child first
+          pending.push(child);
+          counted = false;
+        } else {
+          count += 1 + childCount;
+        }
+      }
+
+      if (counted) {
+        counts.put(current, count);
+        pending.pop();
+      }
+    }
+
+    return counts.get(node);
+  }
+
+  /**
+   * Checks if the descendant trees of the given individuals contain more than
+   * the given number of individuals. The individuals are only counted until the
+   * limit is reached.
+   *
+   * @param steps The steps with the individuals
+   * @param limit
+   * @return
+   */
+  private boolean isLargerThan(List<BuildStep> steps, int limit) {
+    if (index != null) {
+      return isLargerThanIndexed(steps, limit);
+    }
+
+    Deque<GedcomIndividual> pending = new ArrayDeque<>();
+    int count = 0;
+
+    for (BuildStep step : steps) {
+      pending.push(step.child);
+    }
+
+    while (!pending.isEmpty()) {
+      if (++count > limit) {
+        return true;
+      }
+
+      List<String> famsLinks = pending.pop().getSpouseFamilyLinks();
+
+      if (famsLinks == null) {
+        continue;
+      }
+
+      for (String famXRef : famsLinks) {
+        if (famXRef == null || !structureStorage.hasFamily(famXRef)) {
+          continue;
+        }
+
+        List<String> childXRefs = structureStorage.getFamily(famXRef).getChildLinks();
+
+        if (childXRefs == null) {
+          continue;
+        }
+
+        for (String childXRef : childXRefs) {
+          if (structureStorage.hasIndividual(childXRef)) {
+            pending.push(structureStorage.getIndividual(childXRef));
+          }
+        }
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Same as {@link #isLargerThan(List, int)}, using the index
+   *
+   * @param steps
+   * @param limit
+   * @return
+   */
+  private boolean isLargerThanIndexed(List<BuildStep> steps, int limit) {
+    int[] pending = new int[Math.max(16, steps.size())];
+    int size = 0;
+    int count = 0;
+
+    for (BuildStep step : steps) {
+      pending[size++] = step.childNumber;
+    }
+
+    while (size > 0) {
+      if (++count > limit) {
+        return true;
+      }
+
+      int individual = pending[--size];
+
+      for (int family : index.getSpouseFamilies(individual)) {
+        for (int child : index.getChildren(family)) {
+          if (size == pending.length) {
+            pending = Arrays.copyOf(pending, size * 2);
+          }
+
+          pending[size++] = child;
+        }
+      }
+    }
+
+    return false;
+  }
+
+
+  /**
+   * Adds the given children to a tree node. The task is the only one which
+   * adds nodes to its tree node, which keeps the order in which the nodes are
+   * added the same as with the other builds. The descendants of each new node
+   * are either built by a new task (if there are more than splitThreshold
+   * individuals) or iteratively by this task.
+   *
+   */
+  private class ChildrenTask extends RecursiveAction {
+    private static final long serialVersionUID = 3316587839411036515L;
+
+    private final FamilyTreeNode treeNode;
+    private final List<BuildStep> children;
+    private final FamilyTreeBuildPath path;
+
+    /**
+     *
+     *
+     * @param treeNode
+     * @param children The steps of the children, all for the given tree node
+     * @param path
+     */
+    public ChildrenTask(FamilyTreeNode treeNode, List<BuildStep> children,
+        FamilyTreeBuildPath path) {
+      this.treeNode = treeNode;
+      this.children = children;
+      this.path = path;
+    }
+
+    @Override
+    protected void compute() {
+      List<ChildrenTask> tasks = new ArrayList<>();
+      List<BuildStep> steps = new ArrayList<>();
+
+      for (BuildStep child : children) {
+        int pathNumber = addChild(child, steps, path);
+
+        if (pathNumber == -1) {
+          continue;
+        }
+
+        //The steps are in order of the new nodes -> collect the children of each node
+        int i = 0;
+        while (i < steps.size()) {
+          FamilyTreeNode newNode = steps.get(i).treeNode;
+          List<BuildStep> newChildren = new ArrayList<>();
+
+          for (; i < steps.size() && steps.get(i).treeNode == newNode; i++) {
+            newChildren.add(steps.get(i));
+          }
+
+          if (isLargerThan(newChildren, splitThreshold)) {
+            ChildrenTask task = new ChildrenTask(newNode, newChildren, path.copy());
+            task.fork();
+            tasks.add(task);
+          } else {
+            for (BuildStep newChild : newChildren) {
+              addChildIteratively(newChild, path);
+            }
+          }
+        }
+
+        path.leave(pathNumber);
+        steps.clear();
+      }
+
+      for (ChildrenTask task : tasks) {
+        task.join();
+      }
+    }
+
+  }
+
+
+  /**
+   * Builds one tree of {@link GedcomToFamilyTree#buildFamilyTrees(Collection)}
+   * or {@link GedcomToFamilyTree#buildComponentTrees(Collection)}
+   *
+   */
+  private class RootTask extends RecursiveAction {
+    private static final long serialVersionUID = -2519113458215925476L;
+
+    private final FamilyTree familyTree;
+    private final List<BuildStep> firsts;
+
+    /**
+     *
+     *
+     * @param familyTree
+     * @param firsts
+     */
+    public RootTask(FamilyTree familyTree, List<BuildStep> firsts) {
+      this.familyTree = familyTree;
+      this.firsts = firsts;
+    }
+
+    @Override
+    protected void compute() {
+      FamilyTreeBuildPath path = new FamilyTreeBuildPath();
+
+      if (buildPool != null) {
+        new ChildrenTask(familyTree, firsts, path).invoke();
+      } else {
+        for (BuildStep first : firsts) {
+          addChildIteratively(first, path);
+        }
+      }
+    }
+
+  }
+
+
+  /**
+   * The children of a node of a lazily built tree, which are added once the
+   * child nodes are read
+   *
+   */
+  class LazyChildren {
+
+    private final List<BuildStep> children;
+    private final int generation;
+
+    /**
+     *
+     *
+     * @param children The steps of the children, all for the same tree node
+     * @param generation The generation of the tree node
+     */
+    public LazyChildren(List<BuildStep> children, int generation) {
+      this.children = children;
+      this.generation = generation;
+    }
+
+    /**
+     * Adds the families of the children to the given node, without their
+     * descendants. The descendants of each new node become its lazy children.
+     *
+     * @param treeNode
+     */
+    public void addTo(FamilyTreeNode treeNode) {
+      FamilyTreeBuildPath path = createPath(treeNode);
+      List<BuildStep> steps = new ArrayList<>();
+
+      for (BuildStep child : children) {
+        int pathNumber = addChild(new BuildStep(treeNode, child), steps, path);
+
+        if (pathNumber == -1) {
+          continue;
+        }
+
+        path.leave(pathNumber);
+      }
+
+      if (generationLimit > 0 && generation + 1 >= generationLimit) {
+        //The new nodes are the last generation
+        return;
+      }
+
+      //The steps are in order of the new nodes -> collect the children of each node
+      int i = 0;
+      while (i < steps.size()) {
+        FamilyTreeNode newNode = steps.get(i).treeNode;
+        List<BuildStep> newChildren = new ArrayList<>();
+
+        for (; i < steps.size() && steps.get(i).treeNode == newNode; i++) {
+          newChildren.add(steps.get(i));
         }
+
+        newNode.setLazyChildren(new LazyChildren(newChildren, generation + 1));
       }
     }
 
   }
 
 
+  /**
+   * Identifies the descendants of a family when following the tree into the
+   * family through the given individual
+   *
+   */
+  private static class SubtreeKey {
+
+    private final String famXRef;
+    private final String individualXRef;
+
+    /**
+     *
+     *
+     * @param famXRef
+     * @param individualXRef
+     */
+    public SubtreeKey(String famXRef, String individualXRef) {
+      this.famXRef = famXRef;
+      this.individualXRef = individualXRef;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * famXRef.hashCode() + individualXRef.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SubtreeKey)) {
+        return false;
+      }
+
+      SubtreeKey key = (SubtreeKey)obj;
+      return famXRef.equals(key.famXRef) && individualXRef.equals(key.individualXRef);
+    }
+
+  }
+
+
+  /**
+   * A child which still has to be added to the given tree node, or the marker
+   * to leave the build path once all the descendants of a child have been added
+   *
+   */
+  private static class BuildStep {
+
+    private final FamilyTreeNode treeNode;
+    private final GedcomIndividual child;
+    private final int childNumber;
+    private final int pathNumber;
+
+    /**
+     *
+     *
+     * @param treeNode
+     * @param child
+     */
+    public BuildStep(FamilyTreeNode treeNode, GedcomIndividual child) {
+      this.treeNode = treeNode;
+      this.child = child;
+      this.childNumber = FamilyTreeIndex.NONE;
+      this.pathNumber = -1;
+    }
+
+    /**
+     * Creates the same step for another tree node
+     *
+     * @param treeNode
+     * @param step
+     */
+    public BuildStep(FamilyTreeNode treeNode, BuildStep step) {
+      this.treeNode = treeNode;
+      this.child = step.child;
+      this.childNumber = step.childNumber;
+      this.pathNumber = -1;
+    }
+
+    /**
+     *
+     *
+     * @param treeNode
+     * @param childNumber The number of the child in the index
+     */
+    public BuildStep(FamilyTreeNode treeNode, int childNumber) {
+      this.treeNode = treeNode;
+      this.child = null;
+      this.childNumber = childNumber;
+      this.pathNumber = -1;
+    }
+
+    /**
+     *
+     *
+     * @param pathNumber
+     */
+    public BuildStep(int pathNumber) {
+      this.treeNode = null;
+      this.child = null;
+      this.childNumber = FamilyTreeIndex.NONE;
+      this.pathNumber = pathNumber;
+    }
+
+  }
+
+
 }
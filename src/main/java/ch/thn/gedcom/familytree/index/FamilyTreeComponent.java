@@ -0,0 +1,251 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A group of individuals which are connected through families (as husband,
+ * wife or child), and which is not connected to any other individual. The
+ * components of an index are found with a union-find over the families of the
+ * index.<br>
+ * <br>
+ * The top ancestors of a component are the individuals whose descendants
+ * make up the component: individuals without parents who are not only the
+ * partner of an individual with parents. Of a couple without parents, only
+ * the husband is a top ancestor. If every individual of a component has
+ * parents (which is only possible with a loop), the first individual of the
+ * component is its top ancestor.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeComponent {
+
+  private final List<String> individualIds;
+  private final List<String> topAncestorIds;
+
+  /**
+   *
+   *
+   * @param individualIds
+   * @param topAncestorIds
+   */
+  private FamilyTreeComponent(List<String> individualIds, List<String> topAncestorIds) {
+    this.individualIds = Collections.unmodifiableList(individualIds);
+    this.topAncestorIds = Collections.unmodifiableList(topAncestorIds);
+  }
+
+  /**
+   * Finds the components of all the individuals of the given index. The
+   * largest components come first.
+   *
+   * @param index
+   * @return
+   */
+  public static List<FamilyTreeComponent> find(FamilyTreeIndex index) {
+    int individualCount = index.getIndividualCount();
+    int[] parents = new int[individualCount];
+    int[] sizes = new int[individualCount];
+
+    for (int i = 0; i < individualCount; i++) {
+      parents[i] = i;
+      sizes[i] = 1;
+    }
+
+    for (int family = 0; family < index.getFamilyCount(); family++) {
+      int first = index.getHusband(family);
+
+      if (first < 0) {
+        first = index.getWife(family);
+      } else if (index.getWife(family) >= 0) {
+        union(parents, sizes, first, index.getWife(family));
+      }
+
+      for (int child : index.getChildren(family)) {
+        if (first < 0) {
+          first = child;
+        } else {
+          union(parents, sizes, first, child);
+        }
+      }
+    }
+
+    //The component of each root of the union-find
+    List<List<String>> individualIds = new ArrayList<>();
+    List<List<String>> topAncestorIds = new ArrayList<>();
+    int[] components = new int[individualCount];
+
+    for (int i = 0; i < individualCount; i++) {
+      int root = findRoot(parents, i);
+
+      if (root == i) {
+        components[i] = individualIds.size();
+        individualIds.add(new ArrayList<String>(sizes[i]));
+        topAncestorIds.add(new ArrayList<String>(1));
+      }
+    }
+
+    for (int i = 0; i < individualCount; i++) {
+      int component = components[findRoot(parents, i)];
+      individualIds.get(component).add(index.getIndividualId(i));
+
+      if (isTopAncestor(index, i)) {
+        topAncestorIds.get(component).add(index.getIndividualId(i));
+      }
+    }
+
+    List<FamilyTreeComponent> result = new ArrayList<>(individualIds.size());
+
+    for (int i = 0; i < individualIds.size(); i++) {
+      List<String> ids = individualIds.get(i);
+      List<String> topIds = topAncestorIds.get(i);
+
+      if (topIds.isEmpty()) {
+        //Everybody has parents
+        topIds.add(ids.get(0));
+      }
+
+      result.add(new FamilyTreeComponent(ids, topIds));
+    }
+
+    Collections.sort(result, new Comparator<FamilyTreeComponent>() {
+
+      @Override
+      public int compare(FamilyTreeComponent component1, FamilyTreeComponent component2) {
+        return Integer.compare(component2.getIndividualCount(), component1.getIndividualCount());
+      }
+    });
+
+    return result;
+  }
+
+  /**
+   *
+   *
+   * @param index
+   * @param individual
+   * @return
+   */
+  private static boolean isTopAncestor(FamilyTreeIndex index, int individual) {
+    if (index.getChildFamilies(individual).length > 0) {
+      return false;
+    }
+
+    int[] spouseFamilies = index.getSpouseFamilies(individual);
+
+    if (spouseFamilies.length == 0) {
+      //Alone
+      return true;
+    }
+
+    for (int family : spouseFamilies) {
+      int husband = index.getHusband(family);
+      int partner = (husband == individual ? index.getWife(family) : husband);
+
+      if (partner < 0) {
+        //No partner
+        return true;
+      }
+
+      if (husband == individual && index.getChildFamilies(partner).length == 0) {
+        //Husband of a couple without parents
+        return true;
+      }
+    }
+
+    //Only the partner of individuals with parents, or the wife of a couple
+    //without parents
+    return false;
+  }
+
+  /**
+   *
+   *
+   * @param parents
+   * @param individual
+   * @return
+   */
+  private static int findRoot(int[] parents, int individual) {
+    while (parents[individual] != individual) {
+      //Path halving
+      parents[individual] = parents[parents[individual]];
+      individual = parents[individual];
+    }
+
+    return individual;
+  }
+
+  /**
+   *
+   *
+   * @param parents
+   * @param sizes
+   * @param individual1
+   * @param individual2
+   */
+  private static void union(int[] parents, int[] sizes, int individual1, int individual2) {
+    int root1 = findRoot(parents, individual1);
+    int root2 = findRoot(parents, individual2);
+
+    if (root1 == root2) {
+      return;
+    }
+
+    //The smaller component below the larger one
+    if (sizes[root1] < sizes[root2]) {
+      int root = root1;
+      root1 = root2;
+      root2 = root;
+    }
+
+    parents[root2] = root1;
+    sizes[root1] += sizes[root2];
+  }
+
+  /**
+   * Returns the IDs of all the individuals of this component
+   *
+   * @return
+   */
+  public List<String> getIndividualIds() {
+    return individualIds;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getIndividualCount() {
+    return individualIds.size();
+  }
+
+  /**
+   * Returns the IDs of the individuals to build the family tree of this
+   * component with
+   *
+   * @return
+   */
+  public List<String> getTopAncestorIds() {
+    return topAncestorIds;
+  }
+
+}
@@ -0,0 +1,442 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.GedcomEnums.Sex;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.sort.FamilyTreeDates;
+import ch.thn.gedcom.familytree.sort.NaturalIdComparator;
+import ch.thn.gedcom.familytree.sort.NaturalIdComparator.NaturalId;
+
+/**
+ * A compact version of the {@link FamilyTreeIndex} which only keeps what is
+ * needed to build and sort a family tree, without any references to the
+ * individuals and families of the storage. The links are stored as compressed
+ * sparse rows: the spouse families of individual i are at
+ * spouseFamilies[spouseFamilyOffsets[i]] up to (excluding)
+ * spouseFamilies[spouseFamilyOffsets[i + 1]], the same for the children of the
+ * families. The sex and the birth and marriage dates are kept in primitive
+ * arrays. The IDs of the individuals are also kept split for sorting (see
+ * {@link NaturalIdComparator}), each ID is only split once.<br>
+ * <br>
+ * The numbers of the individuals and families are the same as in the index
+ * the graph has been created from.<br>
+ * <br>
+ * A graph can only be created from an index, and the index needs a storage
+ * with all the individuals and families of the graph. Creating a graph
+ * therefore always loads all its records once. Only a graph which has been
+ * kept, for example in a file (see {@link FamilyTreeGraphFile}), can build
+ * and print trees without a storage (see {@link GedcomFileIndex#loadGraph(java.io.File)}).
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeGraph {
+
+  /** The sex of an individual which is neither male nor female */
+  public static final byte UNKNOWN = 0;
+  public static final byte MALE = 1;
+  public static final byte FEMALE = 2;
+
+  private final String[] individualIds;
+  private final NaturalId[] naturalIndividualIds;
+  private final byte[] sexes;
+  private final long[] birthDates;
+  private final int[] spouseFamilyOffsets;
+  private final int[] spouseFamilies;
+  private final int[] singleFamilies;
+
+  private final String[] familyIds;
+  private final int[] husbands;
+  private final int[] wives;
+  private final long[] marriageDates;
+  private final int[] childOffsets;
+  private final int[] children;
+  private final int[] coupleFamilies;
+
+  private final int[] individualsById;
+
+
+  /**
+   *
+   *
+   * @param individualIds
+   * @param sexes
+   * @param birthDates
+   * @param spouseFamilyOffsets
+   * @param spouseFamilies
+   * @param singleFamilies
+   * @param familyIds
+   * @param husbands
+   * @param wives
+   * @param marriageDates
+   * @param childOffsets
+   * @param children
+   * @param coupleFamilies
+   */
+  FamilyTreeGraph(String[] individualIds, byte[] sexes, long[] birthDates,
+      int[] spouseFamilyOffsets, int[] spouseFamilies, int[] singleFamilies,
+      String[] familyIds, int[] husbands, int[] wives, long[] marriageDates,
+      int[] childOffsets, int[] children, int[] coupleFamilies) {
+    this.individualIds = individualIds;
+    this.naturalIndividualIds = parseIds(individualIds);
+    this.sexes = sexes;
+    this.birthDates = birthDates;
+    this.spouseFamilyOffsets = spouseFamilyOffsets;
+    this.spouseFamilies = spouseFamilies;
+    this.singleFamilies = singleFamilies;
+    this.familyIds = familyIds;
+    this.husbands = husbands;
+    this.wives = wives;
+    this.marriageDates = marriageDates;
+    this.childOffsets = childOffsets;
+    this.children = children;
+    this.coupleFamilies = coupleFamilies;
+    this.individualsById = sortById(individualIds);
+  }
+
+  /**
+   * Splits all the IDs for sorting
+   *
+   * @param individualIds
+   * @return
+   */
+  private static NaturalId[] parseIds(String[] individualIds) {
+    NaturalId[] naturalIds = new NaturalId[individualIds.length];
+
+    for (int i = 0; i < naturalIds.length; i++) {
+      naturalIds[i] = NaturalIdComparator.parse(individualIds[i]);
+    }
+
+    return naturalIds;
+  }
+
+  /**
+   * Returns the numbers of the individuals, sorted by their IDs
+   *
+   * @param individualIds
+   * @return
+   */
+  private static int[] sortById(final String[] individualIds) {
+    Integer[] numbers = new Integer[individualIds.length];
+
+    for (int i = 0; i < numbers.length; i++) {
+      numbers[i] = i;
+    }
+
+    Arrays.sort(numbers, new Comparator<Integer>() {
+
+      @Override
+      public int compare(Integer number1, Integer number2) {
+        return individualIds[number1].compareTo(individualIds[number2]);
+      }
+    });
+
+    int[] sorted = new int[numbers.length];
+
+    for (int i = 0; i < numbers.length; i++) {
+      sorted[i] = numbers[i];
+    }
+
+    return sorted;
+  }
+
+  /**
+   * Creates the graph for the given individuals and all the individuals and
+   * families which are linked to them (see
+   * {@link FamilyTreeIndex#build(GedcomCreatorStructureStorage, Collection)}).
+   *
+   * @param storage The storage with all the individuals and families which
+   * are linked to the given individuals
+   * @param individualIds
+   * @return
+   */
+  public static FamilyTreeGraph build(GedcomCreatorStructureStorage storage,
+      Collection<String> individualIds) {
+    return build(FamilyTreeIndex.build(storage, individualIds));
+  }
+
+  /**
+   * Creates the graph from the given index
+   *
+   * @param index
+   * @return
+   */
+  public static FamilyTreeGraph build(FamilyTreeIndex index) {
+    int individualCount = index.getIndividualCount();
+    int familyCount = index.getFamilyCount();
+
+    String[] individualIds = new String[individualCount];
+    byte[] sexes = new byte[individualCount];
+    long[] birthDates = new long[individualCount];
+    int[] spouseFamilyOffsets = new int[individualCount + 1];
+    int[] singleFamilies = new int[individualCount];
+
+    for (int i = 0; i < individualCount; i++) {
+      GedcomIndividual individual = index.getIndividual(i);
+
+      individualIds[i] = index.getIndividualId(i);
+      birthDates[i] = FamilyTreeDates.toKey(individual.getBirthDate());
+      singleFamilies[i] = index.getSingleFamily(i);
+      spouseFamilyOffsets[i + 1] = spouseFamilyOffsets[i] + index.getSpouseFamilies(i).length;
+
+      if (individual.getSex() == Sex.MALE) {
+        sexes[i] = MALE;
+      } else if (individual.getSex() == Sex.FEMALE) {
+        sexes[i] = FEMALE;
+      } else {
+        sexes[i] = UNKNOWN;
+      }
+    }
+
+    int[] spouseFamilies = new int[spouseFamilyOffsets[individualCount]];
+
+    for (int i = 0; i < individualCount; i++) {
+      int[] families = index.getSpouseFamilies(i);
+      System.arraycopy(families, 0, spouseFamilies, spouseFamilyOffsets[i], families.length);
+    }
+
+    String[] familyIds = new String[familyCount];
+    int[] husbands = new int[familyCount];
+    int[] wives = new int[familyCount];
+    long[] marriageDates = new long[familyCount];
+    int[] childOffsets = new int[familyCount + 1];
+    int[] coupleFamilies = new int[familyCount];
+
+    for (int i = 0; i < familyCount; i++) {
+      GedcomFamily family = index.getFamily(i);
+
+      familyIds[i] = index.getFamilyId(i);
+      husbands[i] = index.getHusband(i);
+      wives[i] = index.getWife(i);
+      marriageDates[i] = FamilyTreeDates.toKey(family.getMarriageDate());
+      coupleFamilies[i] = index.getCoupleFamily(i);
+      childOffsets[i + 1] = childOffsets[i] + index.getChildren(i).length;
+    }
+
+    int[] children = new int[childOffsets[familyCount]];
+
+    for (int i = 0; i < familyCount; i++) {
+      int[] familyChildren = index.getChildren(i);
+      System.arraycopy(familyChildren, 0, children, childOffsets[i], familyChildren.length);
+    }
+
+    return new FamilyTreeGraph(individualIds, sexes, birthDates, spouseFamilyOffsets,
+        spouseFamilies, singleFamilies, familyIds, husbands, wives, marriageDates,
+        childOffsets, children, coupleFamilies);
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getIndividualCount() {
+    return individualIds.length;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getFamilyCount() {
+    return familyIds.length;
+  }
+
+  /**
+   * Searches the individual with the given ID. The graph does not keep a map
+   * of the IDs to save memory, the numbers sorted by ID are binary searched
+   * instead.
+   *
+   * @param individualId
+   * @return The number of the individual or {@link FamilyTreeIndex#NONE} if the
+   * individual is not in the graph
+   */
+  public int getIndividualNumber(String individualId) {
+    if (individualId == null) {
+      return FamilyTreeIndex.NONE;
+    }
+
+    int low = 0;
+    int high = individualsById.length - 1;
+
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int compared = individualIds[individualsById[middle]].compareTo(individualId);
+
+      if (compared < 0) {
+        low = middle + 1;
+      } else if (compared > 0) {
+        high = middle - 1;
+      } else {
+        return individualsById[middle];
+      }
+    }
+
+    return FamilyTreeIndex.NONE;
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @return
+   */
+  public String getIndividualId(int individual) {
+    return individualIds[individual];
+  }
+
+  /**
+   * Returns the ID of the individual, split for sorting
+   *
+   * @param individual
+   * @return
+   */
+  public NaturalId getNaturalIndividualId(int individual) {
+    return naturalIndividualIds[individual];
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @return {@link #MALE}, {@link #FEMALE} or {@link #UNKNOWN}
+   */
+  public byte getSex(int individual) {
+    return sexes[individual];
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @return The birth date as key (see {@link FamilyTreeDates})
+   */
+  public long getBirthDate(int individual) {
+    return birthDates[individual];
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @return
+   */
+  public int getSpouseFamilyCount(int individual) {
+    return spouseFamilyOffsets[individual + 1] - spouseFamilyOffsets[individual];
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @param i
+   * @return
+   */
+  public int getSpouseFamily(int individual, int i) {
+    return spouseFamilies[spouseFamilyOffsets[individual] + i];
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @return See {@link FamilyTreeIndex#getSingleFamily(int)}
+   */
+  public int getSingleFamily(int individual) {
+    return singleFamilies[individual];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return
+   */
+  public String getFamilyId(int family) {
+    return familyIds[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return The husband, {@link FamilyTreeIndex#NONE} or {@link FamilyTreeIndex#MISSING}
+   */
+  public int getHusband(int family) {
+    return husbands[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return The wife, {@link FamilyTreeIndex#NONE} or {@link FamilyTreeIndex#MISSING}
+   */
+  public int getWife(int family) {
+    return wives[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return The marriage date as key (see {@link FamilyTreeDates})
+   */
+  public long getMarriageDate(int family) {
+    return marriageDates[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return
+   */
+  public int getChildCount(int family) {
+    return childOffsets[family + 1] - childOffsets[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @param i
+   * @return
+   */
+  public int getChild(int family, int i) {
+    return children[childOffsets[family] + i];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return See {@link FamilyTreeIndex#getCoupleFamily(int)}
+   */
+  public int getCoupleFamily(int family) {
+    return coupleFamilies[family];
+  }
+
+}
@@ -0,0 +1,382 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes a {@link FamilyTreeGraph} to a binary file and reads it again with a
+ * memory mapped file, which is a lot faster than parsing the GEDCOM file and
+ * building the graph again.<br>
+ * <br>
+ * The file starts with a header which contains a version, the length and the
+ * modification time of the source (the GEDCOM file the graph has been built
+ * from) and a checksum of the graph data. A file is stale if it has another
+ * version, if the source has changed or if the checksum does not match.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeGraphFile {
+
+  /** The version of the file format. Increase it if the format changes. */
+  public static final int VERSION = 1;
+
+  private static final int MAGIC = 0x47544647;
+
+  //magic, version, source length, source modified, checksum, data length
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 8;
+
+  private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+
+  /**
+   * Creates the graph again if the file is stale
+   *
+   */
+  public interface GraphParser {
+
+    /**
+     * Parses the source and builds the graph
+     *
+     * @return
+     * @throws IOException
+     */
+    public FamilyTreeGraph parse() throws IOException;
+
+  }
+
+
+  /**
+   *
+   *
+   */
+  private FamilyTreeGraphFile() {
+
+  }
+
+  /**
+   * Reads the graph from the given file. If the file does not exist or if it is
+   * stale, the graph is created with the given parser and written to the file.
+   *
+   * @param file The graph file
+   * @param source The GEDCOM file the graph is built from
+   * @param parser Creates the graph if the file is stale
+   * @return
+   * @throws IOException
+   */
+  public static FamilyTreeGraph load(File file, File source, GraphParser parser) throws IOException {
+    FamilyTreeGraph graph = null;
+
+    if (file.exists()) {
+      graph = read(file, source);
+    }
+
+    if (graph == null) {
+      //Missing or stale -> normal parse
+      graph = parser.parse();
+      write(graph, file, source);
+    }
+
+    return graph;
+  }
+
+  /**
+   * Writes the graph to the given file
+   *
+   * @param graph
+   * @param file
+   * @param source The GEDCOM file the graph has been built from
+   * @throws IOException
+   */
+  public static void write(FamilyTreeGraph graph, File file, File source) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      channel.truncate(0);
+      channel.position(HEADER_SIZE);
+
+      CRC32 checksum = new CRC32();
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new CheckedOutputStream(Channels.newOutputStream(channel), checksum)));
+
+      writeGraph(graph, out);
+      out.flush();
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putLong(source.length());
+      header.putLong(source.lastModified());
+      header.putLong(checksum.getValue());
+      header.putLong(out.size());
+      header.flip();
+
+      channel.position(0);
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+    }
+  }
+
+  /**
+   * Reads the graph from the given file
+   *
+   * @param file
+   * @param source The GEDCOM file the graph has been built from
+   * @return The graph, or <code>null</code> if the file is stale
+   * @throws IOException
+   */
+  public static FamilyTreeGraph read(File file, File source) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel channel = randomAccessFile.getChannel();
+
+      if (channel.size() < HEADER_SIZE) {
+        return null;
+      }
+
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.getInt() != MAGIC
+          || buffer.getInt() != VERSION
+          || buffer.getLong() != source.length()
+          || buffer.getLong() != source.lastModified()) {
+        return null;
+      }
+
+      long expectedChecksum = buffer.getLong();
+      long length = buffer.getLong();
+
+      if (length != channel.size() - HEADER_SIZE
+          || checksum(buffer, HEADER_SIZE, (int)length) != expectedChecksum) {
+        return null;
+      }
+
+      buffer.position(HEADER_SIZE);
+
+      try {
+        return readGraph(buffer);
+      } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   *
+   *
+   * @param graph
+   * @param out
+   * @throws IOException
+   */
+  private static void writeGraph(FamilyTreeGraph graph, DataOutputStream out) throws IOException {
+    int individualCount = graph.getIndividualCount();
+    int familyCount = graph.getFamilyCount();
+
+    out.writeInt(individualCount);
+    out.writeInt(familyCount);
+
+    for (int i = 0; i < individualCount; i++) {
+      writeString(graph.getIndividualId(i), out);
+      out.writeByte(graph.getSex(i));
+      out.writeLong(graph.getBirthDate(i));
+      out.writeInt(graph.getSingleFamily(i));
+      out.writeInt(graph.getSpouseFamilyCount(i));
+
+      for (int j = 0; j < graph.getSpouseFamilyCount(i); j++) {
+        out.writeInt(graph.getSpouseFamily(i, j));
+      }
+    }
+
+    for (int i = 0; i < familyCount; i++) {
+      writeString(graph.getFamilyId(i), out);
+      out.writeInt(graph.getHusband(i));
+      out.writeInt(graph.getWife(i));
+      out.writeLong(graph.getMarriageDate(i));
+      out.writeInt(graph.getCoupleFamily(i));
+      out.writeInt(graph.getChildCount(i));
+
+      for (int j = 0; j < graph.getChildCount(i); j++) {
+        out.writeInt(graph.getChild(i, j));
+      }
+    }
+  }
+
+  /**
+   *
+   *
+   * @param buffer
+   * @return
+   */
+  private static FamilyTreeGraph readGraph(ByteBuffer buffer) {
+    int individualCount = buffer.getInt();
+    int familyCount = buffer.getInt();
+
+    String[] individualIds = new String[individualCount];
+    byte[] sexes = new byte[individualCount];
+    long[] birthDates = new long[individualCount];
+    int[] singleFamilies = new int[individualCount];
+    int[] spouseFamilyOffsets = new int[individualCount + 1];
+    IntList spouseFamilies = new IntList(individualCount);
+
+    for (int i = 0; i < individualCount; i++) {
+      individualIds[i] = readString(buffer);
+      sexes[i] = buffer.get();
+      birthDates[i] = buffer.getLong();
+      singleFamilies[i] = buffer.getInt();
+
+      int count = buffer.getInt();
+      spouseFamilies.add(buffer, count);
+      spouseFamilyOffsets[i + 1] = spouseFamilyOffsets[i] + count;
+    }
+
+    String[] familyIds = new String[familyCount];
+    int[] husbands = new int[familyCount];
+    int[] wives = new int[familyCount];
+    long[] marriageDates = new long[familyCount];
+    int[] coupleFamilies = new int[familyCount];
+    int[] childOffsets = new int[familyCount + 1];
+    IntList children = new IntList(familyCount * 2);
+
+    for (int i = 0; i < familyCount; i++) {
+      familyIds[i] = readString(buffer);
+      husbands[i] = buffer.getInt();
+      wives[i] = buffer.getInt();
+      marriageDates[i] = buffer.getLong();
+      coupleFamilies[i] = buffer.getInt();
+
+      int count = buffer.getInt();
+      children.add(buffer, count);
+      childOffsets[i + 1] = childOffsets[i] + count;
+    }
+
+    return new FamilyTreeGraph(individualIds, sexes, birthDates, spouseFamilyOffsets,
+        spouseFamilies.toArray(), singleFamilies, familyIds, husbands, wives, marriageDates,
+        childOffsets, children.toArray(), coupleFamilies);
+  }
+
+  /**
+   *
+   *
+   * @param value
+   * @param out
+   * @throws IOException
+   */
+  private static void writeString(String value, DataOutputStream out) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   *
+   *
+   * @param buffer
+   * @return
+   */
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   *
+   *
+   * @param buffer
+   * @param offset
+   * @param length
+   * @return
+   */
+  private static long checksum(ByteBuffer buffer, int offset, int length) {
+    CRC32 checksum = new CRC32();
+    byte[] bytes = new byte[Math.min(CHECKSUM_BUFFER_SIZE, length)];
+
+    buffer.position(offset);
+
+    while (length > 0) {
+      int count = Math.min(bytes.length, length);
+      buffer.get(bytes, 0, count);
+      checksum.update(bytes, 0, count);
+      length -= count;
+    }
+
+    return checksum.getValue();
+  }
+
+
+  /**
+   * A growing int array
+   *
+   */
+  private static class IntList {
+
+    private int[] values;
+    private int size = 0;
+
+    /**
+     *
+     *
+     * @param capacity
+     */
+    public IntList(int capacity) {
+      values = new int[Math.max(16, capacity)];
+    }
+
+    /**
+     * Adds the given number of ints from the buffer
+     *
+     * @param buffer
+     * @param count
+     */
+    public void add(ByteBuffer buffer, int count) {
+      if (size + count > values.length) {
+        int[] newValues = new int[Math.max(values.length * 2, size + count)];
+        System.arraycopy(values, 0, newValues, 0, size);
+        values = newValues;
+      }
+
+      buffer.asIntBuffer().get(values, size, count);
+      buffer.position(buffer.position() + count * 4);
+      size += count;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public int[] toArray() {
+      int[] array = new int[size];
+      System.arraycopy(values, 0, array, 0, size);
+      return array;
+    }
+
+  }
+
+}
@@ -0,0 +1,567 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.GedcomEnums.Sex;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.FamilyTreeProblem;
+
+/**
+ * A read-only index over the individuals and families of a storage. Each
+ * individual and each family gets a number (0 to count-1) once, and all the
+ * links between them are resolved to these numbers and stored in int arrays.
+ * Building a tree from the index therefore does not need any lookups by ID.<br>
+ * <br>
+ * The index contains the individuals it has been built with and all the
+ * individuals and families which can be reached from them through any link
+ * (spouse, child, husband, wife and parent links). The index does not change if
+ * the storage is modified, a new index has to be built instead.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeIndex {
+
+  /** No individual or family is linked */
+  public static final int NONE = -1;
+
+  /** An individual is linked, but the individual does not exist */
+  public static final int MISSING = -2;
+
+  private static final int[] EMPTY = new int[0];
+
+  private final List<String> seeds;
+
+  private final Map<String, Integer> individualNumbers;
+  private final Map<String, Integer> familyNumbers;
+
+  private final GedcomIndividual[] individuals;
+  private final String[] individualIds;
+  private final int[][] spouseFamilies;
+  private final int[][] childFamilies;
+  private final int[] singleFamilies;
+
+  private final GedcomFamily[] families;
+  private final String[] familyIds;
+  private final int[] husbands;
+  private final int[] wives;
+  private final int[][] children;
+  private final int[] coupleFamilies;
+
+  private final List<FamilyTreeProblem> problems;
+
+
+  /**
+   *
+   *
+   * @param builder
+   */
+  private FamilyTreeIndex(Builder builder) {
+    this.seeds = Collections.unmodifiableList(new ArrayList<>(builder.seeds));
+    this.individualNumbers = builder.individualNumbers;
+    this.familyNumbers = builder.familyNumbers;
+    this.problems = Collections.unmodifiableList(new ArrayList<>(builder.problems));
+
+    int individualCount = builder.individuals.size();
+    int familyCount = builder.families.size();
+
+    individuals = builder.individuals.toArray(new GedcomIndividual[individualCount]);
+    individualIds = new String[individualCount];
+    spouseFamilies = new int[individualCount][];
+    childFamilies = new int[individualCount][];
+    singleFamilies = new int[individualCount];
+
+    families = builder.families.toArray(new GedcomFamily[familyCount]);
+    familyIds = new String[familyCount];
+    husbands = new int[familyCount];
+    wives = new int[familyCount];
+    children = new int[familyCount][];
+    coupleFamilies = new int[familyCount];
+
+    for (int i = 0; i < individualCount; i++) {
+      GedcomIndividual individual = individuals[i];
+      individualIds[i] = individual.getId();
+      spouseFamilies[i] = builder.toFamilyNumbers(individual.getSpouseFamilyLinks());
+      childFamilies[i] = builder.toFamilyNumbers(individual.getChildFamilyLinks());
+      singleFamilies[i] = builder.toFamilyNumber(builder.singleFamilies.get(i));
+    }
+
+    for (int i = 0; i < familyCount; i++) {
+      GedcomFamily family = families[i];
+      familyIds[i] = family.getId();
+      husbands[i] = builder.toIndividualNumber(family.getHusbandLink());
+      wives[i] = builder.toIndividualNumber(family.getWifeLink());
+      children[i] = builder.toIndividualNumbers(family.getChildLinks());
+      coupleFamilies[i] = builder.toFamilyNumber(builder.coupleFamilies.get(i));
+    }
+
+  }
+
+  /**
+   * Builds the index with the given individuals and all the individuals and
+   * families which are linked to them. The family relations of the storage
+   * are built first if the storage has been modified.
+   *
+   * @param storage
+   * @param individualIds
+   * @return
+   */
+  public static FamilyTreeIndex build(GedcomCreatorStructureStorage storage,
+      Collection<String> individualIds) {
+
+    if (storage.structuresModified()) {
+      //The index also resolves the families of the parents
+      storage.buildFamilyRelations();
+    }
+
+    Builder builder = new Builder(storage);
+
+    for (String individualId : individualIds) {
+      builder.addIndividual(individualId);
+    }
+
+    builder.addLinked();
+
+    return new FamilyTreeIndex(builder);
+  }
+
+  /**
+   * Returns the links which could not be followed while building the index,
+   * like a link to a family which does not exist. The linked individuals and
+   * families are not part of the index.
+   *
+   * @return
+   */
+  public List<FamilyTreeProblem> getProblems() {
+    return problems;
+  }
+
+  /**
+   * Returns the IDs of the individuals the index has been built with
+   *
+   * @return
+   */
+  public List<String> getSeeds() {
+    return seeds;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getIndividualCount() {
+    return individuals.length;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getFamilyCount() {
+    return families.length;
+  }
+
+  /**
+   *
+   *
+   * @param individualId
+   * @return The number of the individual or {@link #NONE} if the individual
+   * is not in the index
+   */
+  public int getIndividualNumber(String individualId) {
+    Integer number = individualNumbers.get(individualId);
+    return number == null ? NONE : number;
+  }
+
+  /**
+   *
+   *
+   * @param familyId
+   * @return The number of the family or {@link #NONE} if the family
+   * is not in the index
+   */
+  public int getFamilyNumber(String familyId) {
+    Integer number = familyNumbers.get(familyId);
+    return number == null ? NONE : number;
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @return
+   */
+  public GedcomIndividual getIndividual(int individual) {
+    return individuals[individual];
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @return
+   */
+  public String getIndividualId(int individual) {
+    return individualIds[individual];
+  }
+
+  /**
+   * Returns the existing families in which the individual is a spouse, in the
+   * order of the spouse family links of the individual.
+   *
+   * @param individual
+   * @return
+   */
+  public int[] getSpouseFamilies(int individual) {
+    return spouseFamilies[individual];
+  }
+
+  /**
+   * Returns the existing families in which the individual is a child, in the
+   * order of the child family links of the individual.
+   *
+   * @param individual
+   * @return
+   */
+  public int[] getChildFamilies(int individual) {
+    return childFamilies[individual];
+  }
+
+  /**
+   * Returns the family of the storage which has the individual as only parent
+   *
+   * @param individual
+   * @return The family or {@link #NONE}
+   */
+  public int getSingleFamily(int individual) {
+    return singleFamilies[individual];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return
+   */
+  public GedcomFamily getFamily(int family) {
+    return families[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return
+   */
+  public String getFamilyId(int family) {
+    return familyIds[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return The husband, {@link #NONE} or {@link #MISSING}
+   */
+  public int getHusband(int family) {
+    return husbands[family];
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @return The wife, {@link #NONE} or {@link #MISSING}
+   */
+  public int getWife(int family) {
+    return wives[family];
+  }
+
+  /**
+   * Returns the existing children of the family in the order of the child
+   * links of the family
+   *
+   * @param family
+   * @return
+   */
+  public int[] getChildren(int family) {
+    return children[family];
+  }
+
+  /**
+   * Returns the family which the storage returns for the husband and the
+   * wife of the given family (see
+   * {@link GedcomCreatorStructureStorage#getFamilyOfParents(String, String)}).
+   * This is usually the given family itself.
+   *
+   * @param family
+   * @return The family or {@link #NONE}
+   */
+  public int getCoupleFamily(int family) {
+    return coupleFamilies[family];
+  }
+
+
+  /**
+   * Collects the individuals and families of the index
+   *
+   */
+  private static class Builder {
+
+    private final GedcomCreatorStructureStorage storage;
+
+    private final List<String> seeds = new ArrayList<>();
+
+    private final Map<String, Integer> individualNumbers = new HashMap<>();
+    private final Map<String, Integer> familyNumbers = new HashMap<>();
+
+    private final List<GedcomIndividual> individuals = new ArrayList<>();
+    private final List<GedcomFamily> families = new ArrayList<>();
+
+    private final List<GedcomFamily> singleFamilies = new ArrayList<>();
+    private final List<GedcomFamily> coupleFamilies = new ArrayList<>();
+
+    private final Deque<GedcomIndividual> pendingIndividuals = new ArrayDeque<>();
+    private final Deque<GedcomFamily> pendingFamilies = new ArrayDeque<>();
+
+    private final List<FamilyTreeProblem> problems = new ArrayList<>();
+
+    /**
+     *
+     *
+     * @param storage
+     */
+    public Builder(GedcomCreatorStructureStorage storage) {
+      this.storage = storage;
+    }
+
+    /**
+     *
+     *
+     * @param individualId
+     */
+    public void addIndividual(String individualId) {
+      if (storage.hasIndividual(individualId)) {
+        seeds.add(individualId);
+        intern(storage.getIndividual(individualId));
+      }
+    }
+
+    /**
+     * Adds all the individuals and families which are linked to the ones
+     * added so far
+     *
+     */
+    public void addLinked() {
+      while (!pendingIndividuals.isEmpty() || !pendingFamilies.isEmpty()) {
+        if (!pendingIndividuals.isEmpty()) {
+          GedcomIndividual individual = pendingIndividuals.pop();
+
+          internFamilies(individual, individual.getSpouseFamilyLinks());
+          internFamilies(individual, individual.getChildFamilyLinks());
+
+          if (individual.getSex() == Sex.FEMALE) {
+            singleFamilies.add(intern(storage.getFamilyOfParents(null, individual.getId())));
+          } else {
+            singleFamilies.add(intern(storage.getFamilyOfParents(individual.getId(), null)));
+          }
+        } else {
+          GedcomFamily family = pendingFamilies.pop();
+
+          internIndividual(family.getHusbandLink());
+          internIndividual(family.getWifeLink());
+
+          List<String> childLinks = family.getChildLinks();
+
+          if (childLinks != null) {
+            for (String childLink : childLinks) {
+              internIndividual(childLink);
+            }
+          }
+
+          coupleFamilies.add(intern(storage.getFamilyOfParents(
+              family.getHusbandLink(), family.getWifeLink())));
+        }
+      }
+    }
+
+    /**
+     *
+     *
+     * @param individual
+     * @return
+     */
+    private GedcomIndividual intern(GedcomIndividual individual) {
+      if (!individualNumbers.containsKey(individual.getId())) {
+        individualNumbers.put(individual.getId(), individuals.size());
+        individuals.add(individual);
+        pendingIndividuals.add(individual);
+      }
+
+      return individual;
+    }
+
+    /**
+     *
+     *
+     * @param family
+     * @return
+     */
+    private GedcomFamily intern(GedcomFamily family) {
+      if (family != null && !familyNumbers.containsKey(family.getId())) {
+        familyNumbers.put(family.getId(), families.size());
+        families.add(family);
+        pendingFamilies.add(family);
+      }
+
+      return family;
+    }
+
+    /**
+     *
+     *
+     * @param individualId
+     */
+    private void internIndividual(String individualId) {
+      if (individualId != null && storage.hasIndividual(individualId)) {
+        intern(storage.getIndividual(individualId));
+      }
+    }
+
+    /**
+     *
+     *
+     * @param individual
+     * @param familyIds
+     */
+    private void internFamilies(GedcomIndividual individual, List<String> familyIds) {
+      if (familyIds == null) {
+        return;
+      }
+
+      for (String familyId : familyIds) {
+        if (familyId == null || familyId.length() == 0) {
+          continue;
+        }
+
+        if (storage.hasFamily(familyId)) {
+          intern(storage.getFamily(familyId));
+        } else {
+          problems.add(new FamilyTreeProblem(individual.getId(), familyId,
+              "Individual " + individual.getId() + " is linked to family " +
+              familyId + ", but such a family has not been found. Family skipped."));
+        }
+      }
+    }
+
+    /**
+     * Converts the IDs to the numbers of the existing individuals
+     *
+     * @param individualIds
+     * @return
+     */
+    public int[] toIndividualNumbers(List<String> individualIds) {
+      if (individualIds == null || individualIds.size() == 0) {
+        return EMPTY;
+      }
+
+      int[] numbers = new int[individualIds.size()];
+      int count = 0;
+
+      for (String individualId : individualIds) {
+        Integer number = individualNumbers.get(individualId);
+
+        if (number != null) {
+          numbers[count++] = number;
+        }
+      }
+
+      return count == numbers.length ? numbers : Arrays.copyOf(numbers, count);
+    }
+
+    /**
+     * Converts the IDs to the numbers of the existing families
+     *
+     * @param familyIds
+     * @return
+     */
+    public int[] toFamilyNumbers(List<String> familyIds) {
+      if (familyIds == null || familyIds.size() == 0) {
+        return EMPTY;
+      }
+
+      int[] numbers = new int[familyIds.size()];
+      int count = 0;
+
+      for (String familyId : familyIds) {
+        Integer number = (familyId == null ? null : familyNumbers.get(familyId));
+
+        if (number != null) {
+          numbers[count++] = number;
+        }
+      }
+
+      return count == numbers.length ? numbers : Arrays.copyOf(numbers, count);
+    }
+
+    /**
+     *
+     *
+     * @param individualId
+     * @return The number, {@link FamilyTreeIndex#NONE} if there is no ID or
+     * {@link FamilyTreeIndex#MISSING} if there is no such individual
+     */
+    public int toIndividualNumber(String individualId) {
+      if (individualId == null) {
+        return NONE;
+      }
+
+      Integer number = individualNumbers.get(individualId);
+      return number == null ? MISSING : number;
+    }
+
+    /**
+     *
+     *
+     * @param family
+     * @return
+     */
+    public int toFamilyNumber(GedcomFamily family) {
+      if (family == null) {
+        return NONE;
+      }
+
+      return familyNumbers.get(family.getId());
+    }
+
+  }
+
+}
@@ -0,0 +1,673 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.GedcomEnums.Sex;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.GedcomGraphToFamilyTree;
+import ch.thn.gedcom.familytree.GedcomToFamilyTree;
+import ch.thn.gedcom.familytree.GedcomToFamilytreeError;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * Knows where the individual (INDI) and family (FAM) records are in a GEDCOM
+ * file, which makes it possible to only load the records which are needed for
+ * a descendant tree instead of the whole file. The file is scanned once when
+ * the index is created, then the records are read directly at their offset.<br>
+ * <br>
+ * Only the lines which are needed to build and print the tree are read: the
+ * sex, the names, the birth and death dates and the family links of the
+ * individuals, and the husband, wife, children and marriage date of the
+ * families. The file is expected to be UTF-8 encoded.<br>
+ * <br>
+ * Together with a graph which has been written to a file (see
+ * {@link #loadGraph(File)}), the index can build and print trees without
+ * loading any storage: the index is the {@link GedcomRecordLoader} of the
+ * {@link GedcomGraphToFamilyTree}, which only reads the records of the
+ * printed nodes.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomFileIndex implements GedcomRecordLoader {
+
+  private final GedcomStore store;
+  private final File file;
+
+  private final Map<String, Long> individualOffsets = new HashMap<>();
+  private final Map<String, Long> familyOffsets = new HashMap<>();
+
+
+  /**
+   * Scans the file for the records
+   *
+   * @param store The store with the GEDCOM grammar for creating the individuals
+   * and families
+   * @param file
+   * @throws IOException
+   */
+  public GedcomFileIndex(GedcomStore store, File file) throws IOException {
+    this.store = store;
+    this.file = file;
+
+    scan();
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getIndividualCount() {
+    return individualOffsets.size();
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getFamilyCount() {
+    return familyOffsets.size();
+  }
+
+  /**
+   * Returns the IDs of all the individuals of the file
+   *
+   * @return
+   */
+  public Set<String> getIndividualIds() {
+    return Collections.unmodifiableSet(individualOffsets.keySet());
+  }
+
+  /**
+   * Loads the given individual and all the families, partners and descendants
+   * which are needed for the descendant tree of the individual into a new
+   * storage.
+   *
+   * @param individualId
+   * @return
+   * @throws IOException
+   */
+  public GedcomCreatorStructureStorage loadDescendants(String individualId) throws IOException {
+    GedcomCreatorStructureStorage storage = new GedcomCreatorStructureStorage();
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      Deque<GedcomIndividual> pending = new ArrayDeque<>();
+      //A partner might be loaded before it is reached as child
+      Set<String> reached = new HashSet<>();
+
+      GedcomIndividual individual = loadIndividual(randomAccessFile, storage, individualId);
+
+      if (individual != null) {
+        reached.add(individualId);
+        pending.push(individual);
+      }
+
+      while (!pending.isEmpty()) {
+        List<String> famsLinks = pending.pop().getSpouseFamilyLinks();
+
+        if (famsLinks == null) {
+          continue;
+        }
+
+        for (String famXRef : famsLinks) {
+          if (storage.hasFamily(famXRef)) {
+            //Family and its descendants already loaded through the partner
+            continue;
+          }
+
+          GedcomFamily family = loadFamily(randomAccessFile, storage, famXRef);
+
+          if (family == null) {
+            continue;
+          }
+
+          //The partners are only needed for the nodes, not their other families
+          loadIndividual(randomAccessFile, storage, family.getHusbandLink());
+          loadIndividual(randomAccessFile, storage, family.getWifeLink());
+
+          List<String> childXRefs = family.getChildLinks();
+
+          if (childXRefs == null) {
+            continue;
+          }
+
+          for (String childXRef : childXRefs) {
+            GedcomIndividual child = loadIndividual(randomAccessFile, storage, childXRef);
+
+            if (child != null && reached.add(childXRef)) {
+              pending.push(child);
+            }
+          }
+        }
+      }
+    }
+
+    return storage;
+  }
+
+  /**
+   * Loads the records which are needed for the descendant tree of the given
+   * individual and builds the tree
+   *
+   * @param individualId
+   * @param treeTitle
+   * @return The builder with the tree and the storage with the loaded records
+   * @throws IOException
+   */
+  public GedcomToFamilyTree buildFamilyTree(String individualId, String treeTitle) throws IOException {
+    GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(loadDescendants(individualId));
+    toFamilyTree.buildFamilyTree(individualId, treeTitle);
+    return toFamilyTree;
+  }
+
+  /**
+   * Reads the graph of all the individuals of the file from the given graph
+   * file. If the graph file does not exist or if it is stale, all the records
+   * are loaded into a temporary storage once to build the graph (a graph can
+   * only be built from a full storage, see {@link FamilyTreeGraph}), and the
+   * graph is written to the graph file (see
+   * {@link FamilyTreeGraphFile#load(File, File, FamilyTreeGraphFile.GraphParser)}).<br>
+   * <br>
+   * The trees of the graph are built with this index as loader:
+   * <code>new GedcomGraphToFamilyTree(graph, fileIndex)</code>
+   *
+   * @param graphFile
+   * @return
+   * @throws IOException
+   */
+  public FamilyTreeGraph loadGraph(File graphFile) throws IOException {
+    return FamilyTreeGraphFile.load(graphFile, file, new FamilyTreeGraphFile.GraphParser() {
+
+      @Override
+      public FamilyTreeGraph parse() throws IOException {
+        return FamilyTreeGraph.build(loadAll(), individualOffsets.keySet());
+      }
+    });
+  }
+
+  /**
+   * Reads the individual from the file. The individual is not kept, every
+   * call reads it again.
+   *
+   * @param individualId
+   * @return The individual or <code>null</code> if there is no such individual
+   * @throws GedcomToFamilytreeError If the file can not be read
+   */
+  @Override
+  public GedcomIndividual loadIndividual(String individualId) {
+    Long offset = individualOffsets.get(individualId);
+
+    if (offset == null) {
+      return null;
+    }
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      return readIndividual(randomAccessFile, individualId, offset);
+    } catch (IOException e) {
+      throw new GedcomToFamilytreeError("Failed to load individual " + individualId +
+          ". " + e.getMessage());
+    }
+  }
+
+  /**
+   * Reads the family from the file. The family is not kept, every call reads
+   * it again.
+   *
+   * @param familyId
+   * @return The family or <code>null</code> if there is no such family
+   * @throws GedcomToFamilytreeError If the file can not be read
+   */
+  @Override
+  public GedcomFamily loadFamily(String familyId) {
+    Long offset = familyOffsets.get(familyId);
+
+    if (offset == null) {
+      return null;
+    }
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      return readFamily(randomAccessFile, familyId, offset);
+    } catch (IOException e) {
+      throw new GedcomToFamilytreeError("Failed to load family " + familyId +
+          ". " + e.getMessage());
+    }
+  }
+
+  /**
+   * Loads all the records of the file into a new storage
+   *
+   * @return
+   * @throws IOException
+   */
+  private GedcomCreatorStructureStorage loadAll() throws IOException {
+    GedcomCreatorStructureStorage storage = new GedcomCreatorStructureStorage();
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      for (String individualId : individualOffsets.keySet()) {
+        loadIndividual(randomAccessFile, storage, individualId);
+      }
+
+      for (String familyId : familyOffsets.keySet()) {
+        loadFamily(randomAccessFile, storage, familyId);
+      }
+    }
+
+    return storage;
+  }
+
+  /**
+   * Reads the whole file once and remembers the offsets of the level 0
+   * individual and family records
+   *
+   * @throws IOException
+   */
+  private void scan() throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      long offset = 0;
+      long lineOffset = 0;
+      int b = 0;
+
+      while ((b = in.read()) != -1) {
+        offset++;
+
+        if (b == '\n' || b == '\r') {
+          scanLine(line, lineOffset);
+          line.reset();
+          lineOffset = offset;
+        } else if (line.size() < 256 && (line.size() > 0 || b == '0')) {
+          //Only the start of the level 0 lines is needed to find the records
+          line.write(b);
+        }
+      }
+
+      scanLine(line, lineOffset);
+    }
+  }
+
+  /**
+   *
+   *
+   * @param line
+   * @param offset
+   * @throws IOException
+   */
+  private void scanLine(ByteArrayOutputStream line, long offset) throws IOException {
+    if (line.size() < 3) {
+      return;
+    }
+
+    String start = line.toString("UTF-8");
+
+    if (!start.startsWith("0 @")) {
+      //Only the records with a cross reference are needed
+      return;
+    }
+
+    GedcomLine gedcomLine = GedcomLine.parse(start);
+
+    if (gedcomLine == null || gedcomLine.level != 0 || gedcomLine.xref == null) {
+      return;
+    }
+
+    if (gedcomLine.tag.equals("INDI")) {
+      individualOffsets.put(gedcomLine.xref, offset);
+    } else if (gedcomLine.tag.equals("FAM")) {
+      familyOffsets.put(gedcomLine.xref, offset);
+    }
+  }
+
+  /**
+   * Reads the lines of the record at the given offset, without the line of
+   * the record itself
+   *
+   * @param randomAccessFile
+   * @param offset
+   * @return
+   * @throws IOException
+   */
+  private List<GedcomLine> readRecord(RandomAccessFile randomAccessFile, long offset) throws IOException {
+    randomAccessFile.seek(offset);
+
+    //Not closed, closing the reader would close the file
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        Channels.newInputStream(randomAccessFile.getChannel()), StandardCharsets.UTF_8));
+    List<GedcomLine> lines = new ArrayList<>();
+
+    //The record line
+    reader.readLine();
+
+    String line = null;
+    while ((line = reader.readLine()) != null) {
+      GedcomLine gedcomLine = GedcomLine.parse(line);
+
+      if (gedcomLine == null) {
+        continue;
+      }
+
+      if (gedcomLine.level == 0) {
+        break;
+      }
+
+      lines.add(gedcomLine);
+    }
+
+    return lines;
+  }
+
+  /**
+   * Loads the individual into the storage if it has not been loaded yet
+   *
+   * @param randomAccessFile
+   * @param storage
+   * @param individualId
+   * @return The individual or <code>null</code> if there is no such individual
+   * @throws IOException
+   */
+  private GedcomIndividual loadIndividual(RandomAccessFile randomAccessFile,
+      GedcomCreatorStructureStorage storage, String individualId) throws IOException {
+    if (individualId == null) {
+      return null;
+    }
+
+    if (storage.hasIndividual(individualId)) {
+      return storage.getIndividual(individualId);
+    }
+
+    Long offset = individualOffsets.get(individualId);
+
+    if (offset == null) {
+      return null;
+    }
+
+    GedcomIndividual individual = readIndividual(randomAccessFile, individualId, offset);
+    storage.addIndividual(individual);
+
+    return individual;
+  }
+
+  /**
+   * Reads the individual record at the given offset
+   *
+   * @param randomAccessFile
+   * @param individualId
+   * @param offset
+   * @return
+   * @throws IOException
+   */
+  private GedcomIndividual readIndividual(RandomAccessFile randomAccessFile,
+      String individualId, long offset) throws IOException {
+    GedcomIndividual individual = new GedcomIndividual(store, individualId);
+    String event = null;
+    String eventDate = null;
+
+    for (GedcomLine line : readRecord(randomAccessFile, offset)) {
+      if (line.level == 1 && event != null) {
+        setEvent(individual, event, eventDate);
+        event = null;
+        eventDate = null;
+      }
+
+      if (line.level == 1) {
+        switch (line.tag) {
+          case "SEX":
+            if ("M".equals(line.value)) {
+              individual.setSex(Sex.MALE);
+            } else if ("F".equals(line.value)) {
+              individual.setSex(Sex.FEMALE);
+            }
+            break;
+          case "NAME":
+            addName(individual, line.value);
+            break;
+          case "BIRT":
+          case "DEAT":
+            event = line.tag;
+            break;
+          case "FAMS":
+            individual.addSpouseFamilyLink(toId(line.value));
+            break;
+          case "FAMC":
+            individual.addChildFamilyLink(toId(line.value));
+            break;
+          default:
+            break;
+        }
+      } else if (line.level == 2 && event != null && line.tag.equals("DATE")) {
+        eventDate = line.value;
+      }
+    }
+
+    if (event != null) {
+      setEvent(individual, event, eventDate);
+    }
+
+    return individual;
+  }
+
+  /**
+   * Loads the family into the storage
+   *
+   * @param randomAccessFile
+   * @param storage
+   * @param familyId
+   * @return The family or <code>null</code> if there is no such family
+   * @throws IOException
+   */
+  private GedcomFamily loadFamily(RandomAccessFile randomAccessFile,
+      GedcomCreatorStructureStorage storage, String familyId) throws IOException {
+    Long offset = familyOffsets.get(familyId);
+
+    if (offset == null) {
+      return null;
+    }
+
+    GedcomFamily family = readFamily(randomAccessFile, familyId, offset);
+    storage.addFamily(family);
+
+    return family;
+  }
+
+  /**
+   * Reads the family record at the given offset
+   *
+   * @param randomAccessFile
+   * @param familyId
+   * @param offset
+   * @return
+   * @throws IOException
+   */
+  private GedcomFamily readFamily(RandomAccessFile randomAccessFile,
+      String familyId, long offset) throws IOException {
+    GedcomFamily family = new GedcomFamily(store, familyId);
+    boolean married = false;
+    String marriageDate = null;
+    //The tag of the current level 1 line
+    String event = null;
+
+    for (GedcomLine line : readRecord(randomAccessFile, offset)) {
+      if (line.level == 1) {
+        event = line.tag;
+        married = married || line.tag.equals("MARR");
+
+        switch (line.tag) {
+          case "HUSB":
+            family.setHusbandLink(toId(line.value));
+            break;
+          case "WIFE":
+            family.setWifeLink(toId(line.value));
+            break;
+          case "CHIL":
+            family.addChildLink(toId(line.value));
+            break;
+          default:
+            break;
+        }
+      } else if (line.level == 2 && "MARR".equals(event) && marriageDate == null
+          && line.tag.equals("DATE")) {
+        marriageDate = line.value;
+      }
+    }
+
+    if (married) {
+      family.setMarried(true, marriageDate);
+    }
+
+    return family;
+  }
+
+  /**
+   *
+   *
+   * @param individual
+   * @param event
+   * @param date
+   */
+  private static void setEvent(GedcomIndividual individual, String event, String date) {
+    if (event.equals("BIRT")) {
+      individual.setBirth(true, date);
+    } else {
+      individual.setDeath(true, date);
+    }
+  }
+
+  /**
+   * Adds a name like <code>Given Names /Surname/</code>
+   *
+   * @param individual
+   * @param name
+   */
+  private static void addName(GedcomIndividual individual, String name) {
+    if (name == null) {
+      return;
+    }
+
+    String surname = null;
+    String givenNames = name;
+    int start = name.indexOf('/');
+
+    if (start != -1) {
+      int end = name.indexOf('/', start + 1);
+      surname = name.substring(start + 1, end == -1 ? name.length() : end).trim();
+      givenNames = name.substring(0, start).trim();
+    }
+
+    individual.addName(surname, givenNames.length() == 0 ? new String[0] : givenNames.split("\\s+"));
+  }
+
+  /**
+   * Removes the @ around a cross reference
+   *
+   * @param xref
+   * @return
+   */
+  private static String toId(String xref) {
+    if (xref != null && xref.length() > 1 && xref.startsWith("@") && xref.endsWith("@")) {
+      return xref.substring(1, xref.length() - 1);
+    }
+
+    return xref;
+  }
+
+
+  /**
+   * One line of a GEDCOM file: <code>level [@xref@] tag [value]</code>
+   *
+   */
+  private static class GedcomLine {
+
+    private final int level;
+    private final String xref;
+    private final String tag;
+    private final String value;
+
+    /**
+     *
+     *
+     * @param level
+     * @param xref
+     * @param tag
+     * @param value
+     */
+    public GedcomLine(int level, String xref, String tag, String value) {
+      this.level = level;
+      this.xref = xref;
+      this.tag = tag;
+      this.value = value;
+    }
+
+    /**
+     *
+     *
+     * @param line
+     * @return The line or <code>null</code> if it is not a valid GEDCOM line
+     */
+    public static GedcomLine parse(String line) {
+      String[] parts = line.trim().split(" ", 3);
+
+      if (parts.length < 2 || parts[0].length() == 0) {
+        return null;
+      }
+
+      int level = 0;
+
+      try {
+        level = Integer.parseInt(parts[0]);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+
+      if (parts[1].startsWith("@")) {
+        if (parts.length < 3) {
+          return null;
+        }
+
+        String[] rest = parts[2].split(" ", 2);
+        return new GedcomLine(level, toId(parts[1]), rest[0], rest.length > 1 ? rest[1] : null);
+      }
+
+      return new GedcomLine(level, null, parts[1], parts.length > 2 ? parts[2] : null);
+    }
+
+  }
+
+}
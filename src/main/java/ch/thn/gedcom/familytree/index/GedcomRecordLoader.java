@@ -0,0 +1,49 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+
+/**
+ * Loads single individuals and families by their ID, for example from a
+ * storage or directly from a GEDCOM file (see {@link GedcomFileIndex}). A tree
+ * which is built from a {@link FamilyTreeGraph} only loads the individuals
+ * and families of the nodes which are printed.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public interface GedcomRecordLoader {
+
+  /**
+   *
+   *
+   * @param individualId
+   * @return The individual or <code>null</code> if there is no such individual
+   */
+  public GedcomIndividual loadIndividual(String individualId);
+
+  /**
+   *
+   *
+   * @param familyId
+   * @return The family or <code>null</code> if there is no such family
+   */
+  public GedcomFamily loadFamily(String familyId);
+
+}
@@ -0,0 +1,52 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.printer;
+
+import java.util.List;
+
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+
+/**
+ * Renders one field (or a group of fields which depend on each other, like
+ * the names) of a line. The printers compile their
+ * {@link FamilyTreePrintProfile} into a list of renderers once, and a line is
+ * created by running its renderers in order.<br>
+ * <br>
+ * A printer with one value per column adds the values of the field to the
+ * list of values, using the buffer to build them. A printer which prints the
+ * whole line as one value only appends to the buffer. A renderer must not keep
+ * any state, the same renderer is used for all the lines and threads.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public interface FamilyTreeFieldRenderer {
+
+  /**
+   * Renders the field of the given individual
+   *
+   * @param sb The buffer of the line
+   * @param values The values of the line
+   * @param indi
+   * @param partner
+   * @param family
+   */
+  public void render(StringBuilder sb, List<String> values,
+      GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family);
+
+}
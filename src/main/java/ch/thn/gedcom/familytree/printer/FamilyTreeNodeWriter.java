@@ -0,0 +1,67 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.printer;
+
+import java.io.IOException;
+
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+
+/**
+ * Writes the lines of the nodes while a tree is printed with
+ * {@link FamilyTreePrinterUtil#print(ch.thn.gedcom.familytree.FamilyTree, int, FamilyTreeNodeWriter, Appendable)}.
+ * The nodes are written depth first, one after the other, so every line
+ * can go to the output right away. A printer creates a new writer for every
+ * print call, the writer can therefore keep the state of the call.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public interface FamilyTreeNodeWriter {
+
+  /**
+   * Called before the first node of a tree
+   *
+   * @param topNode
+   * @param levels The number of levels below the top node which are printed
+   * @param out
+   * @throws IOException
+   */
+  public void startTree(FamilyTreeNode topNode, int levels, Appendable out) throws IOException;
+
+  /**
+   * Writes the lines of the given node
+   *
+   * @param node
+   * @param depth The level of the node, 0 for the top node
+   * @param lastChild For every level from 0 to depth, whether the node on
+   * that level is the last child node of its parent. Only valid during the call.
+   * @param hasChildNodes Whether child nodes are printed below the node
+   * @param out
+   * @throws IOException
+   */
+  public void writeNode(FamilyTreeNode node, int depth, boolean[] lastChild,
+      boolean hasChildNodes, Appendable out) throws IOException;
+
+  /**
+   * Called after the last node of a tree
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void endTree(Appendable out) throws IOException;
+
+}
@@ -19,15 +19,20 @@ package ch.thn.gedcom.familytree.printer;
 import java.util.ArrayList;
 import java.util.List;
 
-import ch.thn.gedcom.GedcomFormatter;
 import ch.thn.gedcom.GedcomHelper;
 import ch.thn.gedcom.creator.GedcomEnums.NameType;
 import ch.thn.gedcom.creator.GedcomEnums.Sex;
 import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.GedcomDateCache;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintProfile.Field;
 import ch.thn.stringutil.StringUtil;
 
 /**
+ * Creates the printed values of the individuals and families. The append
+ * methods write the values directly into the given buffer, which lets a
+ * printer build a whole line in one buffer. The get methods return each
+ * value in a new buffer.
  *
  * @author Thomas Naeff (github.com/thnaeff)
  *
@@ -40,19 +45,23 @@ public class FamilyTreePrintBuilder {
   public static final String dateFormatYearMonth = "MM.yyyy";
   public static final String dateFormatYearMonthDay = "dd.MM.yyyy";
 
-  private boolean showId = true;
-  private boolean showGender = true;
-  private boolean showRelationship = true;
-  private boolean showEmail = true;
-  private boolean showAddress = true;
-  private boolean showAgeForDead = true;
-  private boolean showBirthDate = true;
-  private boolean showDeathDate = true;
-  private boolean showFirstName = true;
-  private boolean showMaidenName = true;
-  private boolean showMarriedName = true;
-  private boolean showDivorcedPartnerWithoutChildren = true;
-  private boolean showDivorcedPartnerWithChildren = true;
+  private final FamilyTreePrintProfile profile;
+
+  private final boolean showId;
+  private final boolean showGender;
+  private final boolean showRelationship;
+  private final boolean showEmail;
+  private final boolean showAddress;
+  private final boolean showAgeForDead;
+  private final boolean showBirthDate;
+  private final boolean showDeathDate;
+  private final boolean showFirstName;
+  private final boolean showMaidenName;
+  private final boolean showMarriedName;
+  private final boolean showDivorcedPartnerWithoutChildren;
+  private final boolean showDivorcedPartnerWithChildren;
+
+  private GedcomDateCache dateCache = GedcomDateCache.getShared();
 
   //Useful UTF8 symbols: http://utf8-characters.com/miscellaneous-symbols/
 
@@ -77,21 +86,62 @@ public class FamilyTreePrintBuilder {
       boolean showAddress, boolean showAgeForDead, boolean showBirthDate,
       boolean showDeathDate, boolean showFirstName, boolean showMaidenName, boolean showMarriedName,
       boolean showDivorcedPartnerWithoutChildren, boolean showDivorcedPartnerWithChildren) {
+    this(FamilyTreePrintProfile.fromFlags(showId, showGender,
+        showRelationship, showEmail, showAddress, showAgeForDead,
+        showBirthDate, showDeathDate, showFirstName, showMaidenName, showMarriedName,
+        showDivorcedPartnerWithoutChildren, showDivorcedPartnerWithChildren));
+  }
+
+  /**
+   *
+   *
+   * @param profile The fields to show
+   */
+  public FamilyTreePrintBuilder(FamilyTreePrintProfile profile) {
+    this.profile = profile;
+
+    this.showId = profile.isShown(Field.ID);
+    this.showGender = profile.isShown(Field.GENDER);
+    this.showRelationship = profile.isShown(Field.RELATIONSHIP);
+    this.showEmail = profile.isShown(Field.EMAIL);
+    this.showAddress = profile.isShown(Field.ADDRESS);
+    this.showAgeForDead = profile.isShown(Field.AGE_FOR_DEAD);
+    this.showBirthDate = profile.isShown(Field.BIRTH_DATE);
+    this.showDeathDate = profile.isShown(Field.DEATH_DATE);
+    this.showFirstName = profile.isShown(Field.FIRST_NAME);
+    this.showMaidenName = profile.isShown(Field.MAIDEN_NAME);
+    this.showMarriedName = profile.isShown(Field.MARRIED_NAME);
+    this.showDivorcedPartnerWithoutChildren = profile.isShown(Field.DIVORCED_PARTNER_WITHOUT_CHILDREN);
+    this.showDivorcedPartnerWithChildren = profile.isShown(Field.DIVORCED_PARTNER_WITH_CHILDREN);
 
-    this.showId = showId;
-    this.showGender = showGender;
-    this.showRelationship = showRelationship;
-    this.showEmail = showEmail;
-    this.showAddress = showAddress;
-    this.showAgeForDead = showAgeForDead;
-    this.showBirthDate = showBirthDate;
-    this.showDeathDate = showDeathDate;
-    this.showFirstName = showFirstName;
-    this.showMaidenName = showMaidenName;
-    this.showMarriedName = showMarriedName;
-    this.showDivorcedPartnerWithoutChildren = showDivorcedPartnerWithoutChildren;
-    this.showDivorcedPartnerWithChildren = showDivorcedPartnerWithChildren;
+  }
 
+  /**
+   *
+   *
+   * @return
+   */
+  public FamilyTreePrintProfile getProfile() {
+    return profile;
+  }
+
+  /**
+   * Sets the cache for the parsed and formatted dates. The shared cache
+   * (see {@link GedcomDateCache#getShared()}) is used by default.
+   *
+   * @param dateCache
+   */
+  public void setDateCache(GedcomDateCache dateCache) {
+    this.dateCache = dateCache;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public GedcomDateCache getDateCache() {
+    return dateCache;
   }
 
   /**
@@ -188,7 +238,8 @@ public class FamilyTreePrintBuilder {
 
 
   /**
-   * Returns only the ID of the individual
+   * Same as {@link #appendId(StringBuilder, GedcomIndividual, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -198,6 +249,22 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getId(GedcomIndividual indi,
       String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendId(sb, indi, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   * Appends only the ID of the individual
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendId(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix) {
+    int length = sb.length();
 
     if (showId) {
       sb.append(prefix);
@@ -205,12 +272,12 @@ public class FamilyTreePrintBuilder {
       sb.append(postfix);
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   *
-   * UTF8 asterisk birth symbol: Hex=0x274A,  HTML=&#10058;
+   * Same as {@link #appendBirthDate(StringBuilder, GedcomIndividual, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -220,6 +287,23 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getBirthDate(GedcomIndividual indi,
       String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendBirthDate(sb, indi, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   *
+   * UTF8 asterisk birth symbol: Hex=0x274A,  HTML=&#10058;
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendBirthDate(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix) {
+    int length = sb.length();
 
     if (showBirthDate) {
 
@@ -230,7 +314,7 @@ public class FamilyTreePrintBuilder {
         if (birthDate == null || birthDate.length() == 0) {
           sb.append("?");
         } else {
-          sb.append(GedcomFormatter.convertGedcomDate(birthDate, dateFormatYear, dateFormatYearMonth, dateFormatYearMonthDay));
+          sb.append(dateCache.format(birthDate, dateFormatYear, dateFormatYearMonth, dateFormatYearMonthDay));
         }
 
         sb.append(postfix);
@@ -238,12 +322,12 @@ public class FamilyTreePrintBuilder {
 
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   *
-   * //UTF8 Latin cross death symbol: Hex=0x271D, HTML=&#10013;
+   * Same as {@link #appendDeathDate(StringBuilder, GedcomIndividual, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -253,6 +337,23 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getDeathDate(GedcomIndividual indi,
       String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendDeathDate(sb, indi, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   *
+   * //UTF8 Latin cross death symbol: Hex=0x271D, HTML=&#10013;
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendDeathDate(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix) {
+    int length = sb.length();
 
     if (showDeathDate) {
 
@@ -263,7 +364,7 @@ public class FamilyTreePrintBuilder {
         if (deathDate == null || deathDate.length() == 0) {
           sb.append("?");
         } else {
-          sb.append(GedcomFormatter.convertGedcomDate(deathDate, dateFormatYear, dateFormatYearMonth, dateFormatYearMonthDay));
+          sb.append(dateCache.format(deathDate, dateFormatYear, dateFormatYearMonth, dateFormatYearMonthDay));
         }
 
         sb.append(postfix);
@@ -271,11 +372,12 @@ public class FamilyTreePrintBuilder {
 
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   *
+   * Same as {@link #appendAge(StringBuilder, GedcomIndividual, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -285,6 +387,22 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getAge(GedcomIndividual indi,
       String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendAge(sb, indi, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   *
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendAge(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix) {
+    int length = sb.length();
 
     if (showAgeForDead) {
 
@@ -293,8 +411,8 @@ public class FamilyTreePrintBuilder {
 
         //Age of dead individual
         sb.append(GedcomHelper.getAge(
-            GedcomFormatter.getDateFromGedcom(indi.getBirthDate()),
-            GedcomFormatter.getDateFromGedcom(indi.getDeathDate())));
+            dateCache.getDate(indi.getBirthDate()),
+            dateCache.getDate(indi.getDeathDate())));
 
         sb.append(postfix);
       }
@@ -302,14 +420,13 @@ public class FamilyTreePrintBuilder {
     }
 
 
-    return sb;
+    return sb.length() > length;
 
   }
 
   /**
-   *
-   * //UTF8 male symbol: Hex=0x2642, HTML=&#9794;<br>
-   * //UTF8 female symbol: Hex=0x2640, &#9792;
+   * Same as {@link #appendGender(StringBuilder, GedcomIndividual, String, String, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param male
@@ -321,6 +438,26 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getGender(GedcomIndividual indi,
       String male, String female, String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendGender(sb, indi, male, female, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   *
+   * //UTF8 male symbol: Hex=0x2642, HTML=&#9794;<br>
+   * //UTF8 female symbol: Hex=0x2640, &#9792;
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param male
+   * @param female
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendGender(StringBuilder sb, GedcomIndividual indi,
+      String male, String female, String prefix, String postfix) {
+    int length = sb.length();
 
     if (showGender) {
 
@@ -336,11 +473,12 @@ public class FamilyTreePrintBuilder {
 
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   * Returns the first name which occurs last in the list of names
+   * Same as {@link #appendFirstName(StringBuilder, GedcomIndividual, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -350,6 +488,22 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getFirstName(GedcomIndividual indi,
       String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendFirstName(sb, indi, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   * Appends the first name which occurs last in the list of names
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendFirstName(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix) {
+    int length = sb.length();
 
     if (showFirstName) {
       int names = indi.getNumberOfNames();
@@ -365,11 +519,12 @@ public class FamilyTreePrintBuilder {
       }
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   * Returns the last name which occurs last in the list of non-married (maiden) names
+   * Same as {@link #appendMaidenName(StringBuilder, GedcomIndividual, String, String, boolean)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -380,6 +535,23 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getMaidenName(GedcomIndividual indi,
       String prefix, String postfix, boolean forceReturnMaidenName) {
     StringBuilder sb = new StringBuilder();
+    appendMaidenName(sb, indi, prefix, postfix, forceReturnMaidenName);
+    return sb;
+  }
+
+  /**
+   * Appends the last name which occurs last in the list of non-married (maiden) names
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @param forceReturnMaidenName
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendMaidenName(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix, boolean forceReturnMaidenName) {
+    int length = sb.length();
 
     if (showMaidenName || forceReturnMaidenName) {
       int names = indi.getNumberOfNames();
@@ -406,11 +578,12 @@ public class FamilyTreePrintBuilder {
       }
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   * Returns the married name which occurs last in the list or married names
+   * Same as {@link #appendMarriedName(StringBuilder, GedcomIndividual, GedcomFamily, String, String, boolean)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param family
@@ -422,6 +595,24 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getMarriedName(GedcomIndividual indi, GedcomFamily family,
       String prefix, String postfix, boolean forceReturnMarriedName) {
     StringBuilder sb = new StringBuilder();
+    appendMarriedName(sb, indi, family, prefix, postfix, forceReturnMarriedName);
+    return sb;
+  }
+
+  /**
+   * Appends the married name which occurs last in the list or married names
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param family
+   * @param prefix
+   * @param postfix
+   * @param forceReturnMarriedName
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendMarriedName(StringBuilder sb, GedcomIndividual indi, GedcomFamily family,
+      String prefix, String postfix, boolean forceReturnMarriedName) {
+    int length = sb.length();
 
     if (showMarriedName || forceReturnMarriedName) {
       int names = indi.getNumberOfNames();
@@ -450,12 +641,12 @@ public class FamilyTreePrintBuilder {
 
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   *
-   * //UTF8 Envelope symbol: Hex=0x2709, HTML=&#9993;
+   * Same as {@link #appendEmail(StringBuilder, GedcomIndividual, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -465,6 +656,23 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getEmail(GedcomIndividual indi,
       String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendEmail(sb, indi, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   *
+   * //UTF8 Envelope symbol: Hex=0x2709, HTML=&#9993;
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendEmail(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix) {
+    int length = sb.length();
 
     if (showEmail) {
       String primaryEMail = indi.getEMail(0, 0);
@@ -478,13 +686,12 @@ public class FamilyTreePrintBuilder {
       }
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
-   * Returns the last address in the list
-   *
-   * //UTF8 Black dot symbol: Hex=0x2981, HTML=&#10625;
+   * Same as {@link #appendAddress(StringBuilder, GedcomIndividual, String, String)}, but returns
+   * a new buffer
    *
    * @param indi
    * @param prefix
@@ -494,6 +701,24 @@ public class FamilyTreePrintBuilder {
   public StringBuilder getAddress(GedcomIndividual indi,
       String prefix, String postfix) {
     StringBuilder sb = new StringBuilder();
+    appendAddress(sb, indi, prefix, postfix);
+    return sb;
+  }
+
+  /**
+   * Appends the last address in the list
+   *
+   * //UTF8 Black dot symbol: Hex=0x2981, HTML=&#10625;
+   *
+   * @param sb The buffer to append to
+   * @param indi
+   * @param prefix
+   * @param postfix
+   * @return <code>true</code> if anything has been appended
+   */
+  public boolean appendAddress(StringBuilder sb, GedcomIndividual indi,
+      String prefix, String postfix) {
+    int length = sb.length();
 
     if (showAddress) {
       int numOfAddresses = indi.getNumberOfAddresses();
@@ -511,7 +736,7 @@ public class FamilyTreePrintBuilder {
       }
     }
 
-    return sb;
+    return sb.length() > length;
   }
 
   /**
@@ -559,20 +784,37 @@ public class FamilyTreePrintBuilder {
     return addressParts;
   }
 
+  /**
+   * Same as {@link #appendRelationship(StringBuilder, GedcomFamily, String, String, String, String, String)}, but returns
+   * a new buffer
+   *
+   * @param family
+   * @param prefix
+   * @param postfix
+   * @return
+   */
+  public StringBuilder getRelationship(GedcomFamily family,
+      String married, String divorced, String unmarried, String prefix, String postfix) {
+    StringBuilder sb = new StringBuilder();
+    appendRelationship(sb, family, married, divorced, unmarried, prefix, postfix);
+    return sb;
+  }
+
   /**
    *
    * //UTF8 Marriage symbol: Hex=0x26AD, HTML=&#9901;<br>
    * //UTF8 Divorce symbol: Hex=0x26AE, HTML=&#9902;<br>
    * //UTF8 Unmarried symbol: Hex=0x26AF, HTML=&#9903;
    *
+   * @param sb The buffer to append to
    * @param family
    * @param prefix
    * @param postfix
-   * @return
+   * @return <code>true</code> if anything has been appended
    */
-  public StringBuilder getRelationship(GedcomFamily family,
+  public boolean appendRelationship(StringBuilder sb, GedcomFamily family,
       String married, String divorced, String unmarried, String prefix, String postfix) {
-    StringBuilder sb = new StringBuilder();
+    int length = sb.length();
 
     if (showRelationship) {
 
@@ -593,7 +835,7 @@ public class FamilyTreePrintBuilder {
     }
 
 
-    return sb;
+    return sb.length() > length;
   }
 
 
@@ -0,0 +1,192 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.printer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The fields to print of the individuals and families. A profile can not be
+ * changed once it is created, {@link #with(Field...)} and
+ * {@link #without(Field...)} return a new profile. A profile can therefore be
+ * shared by any number of printers and threads.<br>
+ * <br>
+ * The printers compile the profile once into the list of renderers of their
+ * lines (see {@link FamilyTreeFieldRenderer}). Fields which are not shown do
+ * not get a renderer, they are not checked again for every individual.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public final class FamilyTreePrintProfile {
+
+  /**
+   * The fields which can be printed
+   *
+   */
+  public enum Field {
+    ID,
+    GENDER,
+    RELATIONSHIP,
+    EMAIL,
+    ADDRESS,
+    AGE_FOR_DEAD,
+    BIRTH_DATE,
+    DEATH_DATE,
+    FIRST_NAME,
+    MAIDEN_NAME,
+    MARRIED_NAME,
+    DIVORCED_PARTNER_WITHOUT_CHILDREN,
+    DIVORCED_PARTNER_WITH_CHILDREN
+  }
+
+  /** A profile which shows all the fields */
+  public static final FamilyTreePrintProfile ALL = new FamilyTreePrintProfile(EnumSet.allOf(Field.class));
+
+  private final Set<Field> fields;
+
+  /**
+   *
+   *
+   * @param fields The fields to show
+   */
+  public FamilyTreePrintProfile(Field... fields) {
+    this(Arrays.asList(fields));
+  }
+
+  /**
+   *
+   *
+   * @param fields The fields to show
+   */
+  public FamilyTreePrintProfile(Collection<Field> fields) {
+    EnumSet<Field> copy = EnumSet.noneOf(Field.class);
+    copy.addAll(fields);
+    this.fields = Collections.unmodifiableSet(copy);
+  }
+
+  /**
+   * Creates the profile from the flags of the printer constructors
+   *
+   * @param showId
+   * @param showGender
+   * @param showRelationship
+   * @param showEmail
+   * @param showAddress
+   * @param showAgeForDead
+   * @param showBirthDate
+   * @param showDeathDate
+   * @param showFirstName
+   * @param showMaidenName
+   * @param showMarriedName
+   * @param showDivorcedPartnerWithoutChildren
+   * @param showDivorcedPartnerWithChildren
+   * @return
+   */
+  public static FamilyTreePrintProfile fromFlags(boolean showId,
+      boolean showGender, boolean showRelationship, boolean showEmail,
+      boolean showAddress, boolean showAgeForDead, boolean showBirthDate,
+      boolean showDeathDate, boolean showFirstName, boolean showMaidenName, boolean showMarriedName,
+      boolean showDivorcedPartnerWithoutChildren, boolean showDivorcedPartnerWithChildren) {
+    boolean[] flags = new boolean[] {showId, showGender, showRelationship, showEmail,
+        showAddress, showAgeForDead, showBirthDate, showDeathDate, showFirstName,
+        showMaidenName, showMarriedName, showDivorcedPartnerWithoutChildren,
+        showDivorcedPartnerWithChildren};
+
+    //The flags are in the order of the fields
+    EnumSet<Field> fields = EnumSet.noneOf(Field.class);
+    for (Field field : Field.values()) {
+      if (flags[field.ordinal()]) {
+        fields.add(field);
+      }
+    }
+
+    return new FamilyTreePrintProfile(fields);
+  }
+
+  /**
+   * Returns a new profile which also shows the given fields
+   *
+   * @param fields
+   * @return
+   */
+  public FamilyTreePrintProfile with(Field... fields) {
+    EnumSet<Field> newFields = EnumSet.noneOf(Field.class);
+    newFields.addAll(this.fields);
+    newFields.addAll(Arrays.asList(fields));
+    return new FamilyTreePrintProfile(newFields);
+  }
+
+  /**
+   * Returns a new profile which does not show the given fields
+   *
+   * @param fields
+   * @return
+   */
+  public FamilyTreePrintProfile without(Field... fields) {
+    EnumSet<Field> newFields = EnumSet.noneOf(Field.class);
+    newFields.addAll(this.fields);
+    newFields.removeAll(Arrays.asList(fields));
+    return new FamilyTreePrintProfile(newFields);
+  }
+
+  /**
+   *
+   *
+   * @param field
+   * @return
+   */
+  public boolean isShown(Field field) {
+    return fields.contains(field);
+  }
+
+  /**
+   * Returns the shown fields, in the order of {@link Field}
+   *
+   * @return
+   */
+  public Set<Field> getFields() {
+    return fields;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+
+    if (!(obj instanceof FamilyTreePrintProfile)) {
+      return false;
+    }
+
+    return fields.equals(((FamilyTreePrintProfile)obj).fields);
+  }
+
+  @Override
+  public int hashCode() {
+    return fields.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return fields.toString();
+  }
+
+}
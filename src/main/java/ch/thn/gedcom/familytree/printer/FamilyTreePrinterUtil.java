@@ -16,6 +16,27 @@
  */
 package ch.thn.gedcom.familytree.printer;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.FamilyTree;
+import ch.thn.gedcom.familytree.FamilyTreeBuilder;
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+
 /**
  *
  * @author Thomas Naeff (github.com/thnaeff)
@@ -24,6 +45,19 @@ package ch.thn.gedcom.familytree.printer;
 public class FamilyTreePrinterUtil {
 
 
+	/**
+	 * A renderer which adds an empty value, for the columns of the fields
+	 * which are not shown
+	 */
+	public static final FamilyTreeFieldRenderer EMPTY_VALUE = new FamilyTreeFieldRenderer() {
+		
+		@Override
+		public void render(StringBuilder sb, List<String> values, 
+				GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+			values.add("");
+		}
+	};
+	
 	/**
 	 * This method just repeatedly appends the content of columnContent and returns
 	 * the result.
@@ -46,4 +80,223 @@ public class FamilyTreePrinterUtil {
 		return sb.toString();
 	}
 
+	/**
+	 * Returns the content of the buffer and clears the buffer, so that it can
+	 * be used for the next value
+	 *
+	 * @param sb
+	 * @return
+	 */
+	public static String takeString(StringBuilder sb) {
+		String value = sb.toString();
+		sb.setLength(0);
+		return value;
+	}
+
+	/**
+	 * Copies the given number of generations of the tree. The child nodes of 
+	 * the last generation are not read.
+	 * 
+	 * @param familyTree
+	 * @param generations The number of generations to copy, or 0 to return 
+	 * the tree itself
+	 * @return
+	 */
+	public static FamilyTreeNode limitGenerations(FamilyTree familyTree, int generations) {
+		if (generations <= 0) {
+			return familyTree;
+		}
+		
+		FamilyTree copy = new FamilyTree(familyTree.getFamilyTreeTitle(), familyTree.getSorter());
+		
+		Deque<FamilyTreeNode> pending = new ArrayDeque<>();
+		Deque<FamilyTreeNode> pendingCopies = new ArrayDeque<>();
+		Deque<Integer> pendingGenerations = new ArrayDeque<>();
+		
+		pending.push(familyTree);
+		pendingCopies.push(copy);
+		pendingGenerations.push(0);
+		
+		while (!pending.isEmpty()) {
+			FamilyTreeNode node = pending.pop();
+			FamilyTreeNode nodeCopy = pendingCopies.pop();
+			int generation = pendingGenerations.pop();
+			
+			for (FamilyTreeNode child : node.getChildNodes()) {
+				FamilyTreeNode childCopy = child.nodeFactory(child);
+				nodeCopy.addChildNode(childCopy);
+				
+				if (generation + 1 < generations) {
+					pending.push(child);
+					pendingCopies.push(childCopy);
+					pendingGenerations.push(generation + 1);
+				}
+			}
+		}
+		
+		return copy;
+	}
+	
+	/**
+	 * Returns the nodes which are printed as separate trees: the child nodes 
+	 * of the tree if the tree itself is not shown (a tree without title), or 
+	 * just the tree otherwise.
+	 * 
+	 * @param familyTree
+	 * @return
+	 */
+	public static Collection<FamilyTreeNode> getTopNodes(FamilyTreeNode familyTree) {
+		if (familyTree instanceof FamilyTree 
+				&& ((FamilyTree)familyTree).getFamilyTreeTitle() == null) {
+			//A tree without title is not shown
+			return familyTree.getChildNodes();
+		}
+		
+		return Collections.singletonList(familyTree);
+	}
+	
+	/**
+	 * Prints the trees of the family tree node by node, depth first. The 
+	 * nodes are not copied and the output is not collected, the writer 
+	 * writes the lines of a node when the node is visited. Ignored nodes are 
+	 * not printed, their child nodes are printed in their place.
+	 * 
+	 * @param familyTree
+	 * @param generations The number of generations to print, or 0 to print 
+	 * all generations. The child nodes of the last generation are not read.
+	 * @param writer
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void print(FamilyTree familyTree, int generations, 
+			FamilyTreeNodeWriter writer, Appendable out) throws IOException {
+		for (FamilyTreeNode topNode : getTopNodes(familyTree)) {
+			//The top nodes of a tree without title are the first generation
+			int levels = Integer.MAX_VALUE;
+			if (generations > 0) {
+				levels = topNode == familyTree ? generations : generations - 1;
+			}
+			
+			writer.startTree(topNode, levels, out);
+			
+			//One iterator over the child nodes for every level down to the current node
+			Deque<Iterator<FamilyTreeNode>> pending = new ArrayDeque<>();
+			boolean[] lastChild = new boolean[16];
+			
+			pending.push(Collections.singletonList(topNode).iterator());
+			
+			while (!pending.isEmpty()) {
+				Iterator<FamilyTreeNode> siblings = pending.peek();
+				
+				if (!siblings.hasNext()) {
+					pending.pop();
+					continue;
+				}
+				
+				FamilyTreeNode node = siblings.next();
+				int depth = pending.size() - 1;
+				
+				if (depth == lastChild.length) {
+					lastChild = Arrays.copyOf(lastChild, depth * 2);
+				}
+				
+				lastChild[depth] = !siblings.hasNext();
+				
+				Collection<FamilyTreeNode> childNodes = Collections.emptyList();
+				if (depth < levels) {
+					childNodes = getShownChildNodes(node);
+				}
+				
+				writer.writeNode(node, depth, lastChild, !childNodes.isEmpty(), out);
+				
+				if (!childNodes.isEmpty()) {
+					pending.push(childNodes.iterator());
+				}
+			}
+			
+			writer.endTree(out);
+		}
+	}
+	
+	/**
+	 * Returns the number of levels below the given node, but not more than 
+	 * the given number of levels.
+	 * 
+	 * @param topNode
+	 * @param levels
+	 * @return
+	 */
+	public static int getDepth(FamilyTreeNode topNode, int levels) {
+		Deque<FamilyTreeNode> pending = new ArrayDeque<>();
+		Deque<Integer> pendingDepths = new ArrayDeque<>();
+		int maxDepth = 0;
+		
+		pending.push(topNode);
+		pendingDepths.push(0);
+		
+		while (!pending.isEmpty()) {
+			FamilyTreeNode node = pending.pop();
+			int depth = pendingDepths.pop();
+			maxDepth = Math.max(maxDepth, depth);
+			
+			if (depth < levels) {
+				for (FamilyTreeNode child : getShownChildNodes(node)) {
+					pending.push(child);
+					pendingDepths.push(depth + 1);
+				}
+			}
+		}
+		
+		return maxDepth;
+	}
+	
+	/**
+	 * Returns the child nodes which are printed. The child nodes of an 
+	 * ignored node are shown in its place.
+	 * 
+	 * @param node
+	 * @return
+	 */
+	private static Collection<FamilyTreeNode> getShownChildNodes(FamilyTreeNode node) {
+		Collection<FamilyTreeNode> childNodes = node.getChildNodes();
+		
+		for (FamilyTreeNode child : childNodes) {
+			if (child.isNodeIgnored()) {
+				List<FamilyTreeNode> shown = new ArrayList<>();
+				
+				for (FamilyTreeNode c : childNodes) {
+					if (c.isNodeIgnored()) {
+						shown.addAll(getShownChildNodes(c));
+					} else {
+						shown.add(c);
+					}
+				}
+				
+				return shown;
+			}
+		}
+		
+		//Nothing ignored, the child nodes of the tree are printed as they are
+		return childNodes;
+	}
+	
+	/**
+	 * Prints the tree with the given printer directly to the output stream. 
+	 * The stream is flushed, but not closed.
+	 * 
+	 * @param printer
+	 * @param toFamilyTree
+	 * @param generations The number of generations to print, or 0 to print 
+	 * all generations
+	 * @param out
+	 * @param charset
+	 * @throws IOException
+	 */
+	public static void print(FamilytreePrinter printer, FamilyTreeBuilder toFamilyTree, 
+			int generations, OutputStream out, Charset charset) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset));
+		printer.print(toFamilyTree, generations, writer);
+		writer.flush();
+	}
+	
 }
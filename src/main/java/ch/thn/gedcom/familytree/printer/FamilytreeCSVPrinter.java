@@ -16,18 +16,20 @@
  */
 package ch.thn.gedcom.familytree.printer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
-import ch.thn.datatree.onoff.OnOffTreeUtil;
 import ch.thn.datatree.printer.TreeNodeCSVPrinter;
 import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
 import ch.thn.gedcom.familytree.FamilyTree;
+import ch.thn.gedcom.familytree.FamilyTreeBuilder;
 import ch.thn.gedcom.familytree.FamilyTreeNode;
-import ch.thn.gedcom.familytree.GedcomToFamilyTree;
+import ch.thn.gedcom.familytree.GedcomToFamilytreeError;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintProfile.Field;
 
 /**
  *
@@ -38,9 +40,13 @@ import ch.thn.gedcom.familytree.GedcomToFamilyTree;
 public class FamilytreeCSVPrinter
 extends TreeNodeCSVPrinter<FamilyTreeNode> implements FamilytreePrinter {
 
-  private FamilyTreePrintBuilder printBuilder = null;
+  private static final String NODE_MARKER = "x";
 
-  private GedcomToFamilyTree toFamilyTree = null;
+  private final FamilyTreePrintBuilder printBuilder;
+
+  private final List<FamilyTreeFieldRenderer> primaryLine;
+
+  private final boolean alignValuesRight;
 
 
   /**
@@ -66,40 +72,230 @@ extends TreeNodeCSVPrinter<FamilyTreeNode> implements FamilytreePrinter {
       boolean showAddress, boolean showAgeForDead, boolean showBirthDate,
       boolean showDeathDate, boolean showFirstName, boolean showMaidenName, boolean showMarriedName,
       boolean showDivorcedPartnerWithoutChildren, boolean showDivorcedPartnerWithChildren) {
-    super(alignValuesRight);
-
-    printBuilder = new FamilyTreePrintBuilder(showId, showGender,
+    this(alignValuesRight, FamilyTreePrintProfile.fromFlags(showId, showGender,
         showRelationship, showEmail, showAddress, showAgeForDead,
         showBirthDate, showDeathDate, showFirstName, showMaidenName, showMarriedName,
-        showDivorcedPartnerWithoutChildren, showDivorcedPartnerWithChildren);
+        showDivorcedPartnerWithoutChildren, showDivorcedPartnerWithChildren));
+  }
+
+  /**
+   *
+   *
+   * @param alignValuesRight
+   * @param profile The fields to print
+   */
+  public FamilytreeCSVPrinter(boolean alignValuesRight, FamilyTreePrintProfile profile) {
+    super(alignValuesRight);
+
+    this.alignValuesRight = alignValuesRight;
+
+    printBuilder = new FamilyTreePrintBuilder(profile);
+    primaryLine = compilePrimaryLine(profile);
+
+  }
+
+  /**
+   * Creates the renderers of the columns. The columns of the fields which are
+   * not shown stay empty, only the address columns are left out.
+   *
+   * @param profile
+   * @return
+   */
+  private List<FamilyTreeFieldRenderer> compilePrimaryLine(FamilyTreePrintProfile profile) {
+    List<FamilyTreeFieldRenderer> renderers = new ArrayList<>();
+
+    if (profile.isShown(Field.ID)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendId(sb, indi, "", "");
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.GENDER)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendGender(sb, indi, "M", "F", "", "");
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.RELATIONSHIP)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          if (family != null) {
+            printBuilder.appendRelationship(sb, family, "married", "divorced", /*"unmarried"*/"", "", "");
+          }
+          //Empty placeholder for relationship if there is no family
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.FIRST_NAME)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendFirstName(sb, indi, "", "");
+          int secondNamesStart = sb.indexOf(" ");
+
+          //Split first and second names by first space character
+          if (secondNamesStart != -1) {
+            //First name
+            values.add(sb.substring(0, secondNamesStart));
+            //Second names
+            values.add(sb.substring(secondNamesStart + 1, sb.length()));
+            sb.setLength(0);
+          } else {
+            //First name
+            values.add(FamilyTreePrinterUtil.takeString(sb));
+            //Empty placeholder for second names
+            values.add("");
+          }
+        }
+      });
+    } else {
+      //Empty first and second names
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.MAIDEN_NAME)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendMaidenName(sb, indi, "", "", false);
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.MARRIED_NAME)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendMarriedName(sb, indi, family, "", "", false);
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.BIRTH_DATE)) {
+      final boolean showDeathDate = profile.isShown(Field.DEATH_DATE);
+
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          if (printBuilder.appendBirthDate(sb, indi, "", "")) {
+            values.add(FamilyTreePrinterUtil.takeString(sb));
+
+            //Empty placeholder if there is no death
+            if (showDeathDate) {
+              printBuilder.appendDeathDate(sb, indi, "", "");
+            }
+            values.add(FamilyTreePrinterUtil.takeString(sb));
+          } else {
+            //Empty placeholder for birth and death
+            values.add("");
+            values.add("");
+          }
+        }
+      });
+    } else {
+      //No death date without birth date
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.EMAIL)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          //Empty placeholder if there is no email
+          printBuilder.appendEmail(sb, indi, "", "");
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.ADDRESS)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          values.addAll(printBuilder.getAddressParts(indi, true));
+        }
+      });
+    }
 
+    return Collections.unmodifiableList(renderers);
   }
 
   @Override
   public StringBuilder print(FamilyTreeNode printNode) {
     throw new UnsupportedOperationException("The method print(FamilyTreeNode) is not supported. " +
-        "Use print(GedcomToFamilyTree) instead.");
+        "Use print(FamilyTreeBuilder) instead.");
   }
 
   @Override
-  public StringBuilder print(GedcomToFamilyTree toFamilyTree) {
-    this.toFamilyTree = toFamilyTree;
-
-    LinkedList<FamilyTreeNode> trees = OnOffTreeUtil.convertToSimpleTree((FamilyTreeNode)toFamilyTree.getFamilyTree(), true, true);
+  public StringBuilder print(FamilyTreeBuilder toFamilyTree) {
+    return print(toFamilyTree, 0);
+  }
 
+  @Override
+  public StringBuilder print(FamilyTreeBuilder toFamilyTree, int generations) {
     StringBuilder sb = new StringBuilder();
-    for (FamilyTreeNode tree : trees) {
-      if (sb.length() > 0) {
-        //Keep trees separated a little
-        sb.append(LINE_SEPARATOR + LINE_SEPARATOR);
-      }
 
-      sb.append(super.print(tree));
+    try {
+      print(toFamilyTree, generations, sb);
+    } catch (IOException e) {
+      //A StringBuilder does not throw
+      throw new GedcomToFamilytreeError("Failed to print family tree. " + e.getMessage());
     }
 
     return sb;
   }
 
+  @Override
+  public void print(FamilyTreeBuilder toFamilyTree, int generations, Appendable out) throws IOException {
+    //A new tree writer for every call, nothing of the call is kept in this printer
+    FamilyTreePrinterUtil.print(toFamilyTree.getFamilyTree(), generations, new TreeWriter(), out);
+  }
+
   @Override
   protected Collection<String> getNodeValues(FamilyTreeNode node) {
     List<String> lines = new ArrayList<>();
@@ -113,8 +309,7 @@ extends TreeNodeCSVPrinter<FamilyTreeNode> implements FamilytreePrinter {
     GedcomIndividual[] individuals = node.getNodeValue();
 
     List<List<String>> nodeValueLines = printBuilder.createNodeValueLines(individuals[0], individuals[1],
-        toFamilyTree.getStorage().getFamilyOfParents(individuals[0], individuals[1]),
-        this, false, false);
+        node.getFamily(), this, false, false);
 
     for (List<String> valueLines : nodeValueLines) {
       if (valueLines == null || valueLines.size() == 0) {
@@ -146,72 +341,13 @@ extends TreeNodeCSVPrinter<FamilyTreeNode> implements FamilytreePrinter {
   @Override
   public ArrayList<String> createPrimaryLine(GedcomIndividual indi,
       GedcomIndividual partner, GedcomFamily family, boolean isPartner) {
-    ArrayList<String> values = new ArrayList<String>(7);
-
-    values.add(printBuilder.getId(indi, "", "").toString());
-
-    values.add(printBuilder.getGender(indi, "M", "F", "", "").toString());
-
-    if (family != null) {
-      values.add(printBuilder.getRelationship(family, "married", "divorced", /*"unmarried"*/"", "", "").toString());
-    } else {
-      //Empty placeholder for relationship
-      values.add("");
-    }
-
-    String names = printBuilder.getFirstName(indi, "", "").toString();
-    int secondNamesStart = names.indexOf(" ");
-
-    //Split first and second names by first space character
-    if (secondNamesStart != -1) {
-      //First name
-      values.add(names.substring(0, secondNamesStart));
-      //Second names
-      values.add(names.substring(secondNamesStart + 1, names.length()));
-    } else {
-      //First name
-      values.add(names);
-      //Empty placeholder for second names
-      values.add("");
-    }
-
-    values.add(printBuilder.getMaidenName(indi, "", "", false).toString());
-    values.add(printBuilder.getMarriedName(indi, family, "", "", false).toString());
-
-    StringBuilder birthDate = printBuilder.getBirthDate(indi, "", "");
-
-    if (birthDate.length() > 0) {
-      StringBuilder deathDate = printBuilder.getDeathDate(indi, "", "");
-
-      values.add(birthDate.toString());
-
-      if (deathDate.length() > 0) {
-        values.add(deathDate.toString());
-      } else {
-        //Empty placeholder for death
-        values.add("");
-      }
-
-    } else {
-      //Empty placeholder for birth and death
-      values.add("");
-      values.add("");
-    }
-
-
-    StringBuilder email = printBuilder.getEmail(indi, "", "");
+    ArrayList<String> values = new ArrayList<String>(15);
 
-    if (email.length() > 0) {
-      values.add(email.toString());
-    } else {
-      //Empty placeholder for email
-      values.add("");
-    }
+    //One buffer for all the values
+    StringBuilder sb = new StringBuilder(64);
 
-    ArrayList<String> addressParts = printBuilder.getAddressParts(indi, true);
-
-    for (String part : addressParts) {
-      values.add(part);
+    for (FamilyTreeFieldRenderer renderer : primaryLine) {
+      renderer.render(sb, values, indi, partner, family);
     }
 
     return values;
@@ -253,4 +389,72 @@ extends TreeNodeCSVPrinter<FamilyTreeNode> implements FamilytreePrinter {
 
   }
 
+
+  /**
+   * Writes the lines of the nodes of one print call. Every level of the tree
+   * has its own column, the values of a node start in the column of its level.
+   * If the values are aligned right, the values of all the nodes start after
+   * the column of the deepest level and the column of the level of a node only
+   * holds a marker. The printer creates a new tree writer for every call of
+   * {@link FamilytreePrinter#print(FamilyTreeBuilder, int, Appendable)}.
+   * Printing is therefore reentrant and one printer can print any number of
+   * trees at the same time. The family of a node is the one it has been built
+   * with (see {@link FamilyTreeNode#getFamily()}), the storage of the tree is
+   * not needed for printing.
+   *
+   */
+  private class TreeWriter implements FamilyTreeNodeWriter {
+
+    private boolean written = false;
+
+    private int treeDepth = 0;
+
+    @Override
+    public void startTree(FamilyTreeNode topNode, int levels, Appendable out) throws IOException {
+      if (written) {
+        //Keep trees separated a little
+        out.append(LINE_SEPARATOR + LINE_SEPARATOR);
+      }
+
+      if (alignValuesRight) {
+        //The columns of the levels have to be known before the first line
+        treeDepth = FamilyTreePrinterUtil.getDepth(topNode, levels);
+      }
+    }
+
+    @Override
+    public void writeNode(FamilyTreeNode node, int depth, boolean[] lastChild,
+        boolean hasChildNodes, Appendable out) throws IOException {
+      boolean firstLine = true;
+
+      for (String line : getNodeValues(node)) {
+        for (int i = 0; i < depth; i++) {
+          out.append(CSV_SEPARATOR);
+        }
+
+        if (alignValuesRight) {
+          if (firstLine) {
+            out.append(NODE_MARKER);
+          }
+
+          for (int i = depth; i <= treeDepth; i++) {
+            out.append(CSV_SEPARATOR);
+          }
+        }
+
+        out.append(line);
+        out.append(LINE_SEPARATOR);
+
+        firstLine = false;
+        written = true;
+      }
+    }
+
+    @Override
+    public void endTree(Appendable out) throws IOException {
+      //Nothing to close
+    }
+
+  }
+
 }
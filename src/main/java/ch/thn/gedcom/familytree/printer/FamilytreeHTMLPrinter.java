@@ -17,19 +17,21 @@
 package ch.thn.gedcom.familytree.printer;
 
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
-import ch.thn.datatree.onoff.OnOffTreeUtil;
 import ch.thn.datatree.printer.TreeNodeHTMLPrinter;
 import ch.thn.gedcom.creator.GedcomEnums.Sex;
 import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
 import ch.thn.gedcom.familytree.FamilyTree;
+import ch.thn.gedcom.familytree.FamilyTreeBuilder;
 import ch.thn.gedcom.familytree.FamilyTreeNode;
-import ch.thn.gedcom.familytree.GedcomToFamilyTree;
+import ch.thn.gedcom.familytree.GedcomToFamilytreeError;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintProfile.Field;
 
 /**
  *
@@ -42,9 +44,30 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
 
   private static final String HTMLSPACE = "&nbsp;";
 
-  private FamilyTreePrintBuilder printBuilder = null;
+  private static final String MALE = String.valueOf((char)0x2642);
+  private static final String FEMALE = String.valueOf((char)0x2640);
+  private static final String MARRIED = String.valueOf((char)0x26AD);
+  private static final String DIVORCED = String.valueOf((char)0x26AE);
+  private static final String UNMARRIED = String.valueOf((char)0x26AF);
+  private static final String BIRTH = String.valueOf((char)0x274A);
+  private static final String DEATH = String.valueOf((char)0x271D);
+  private static final String EMAIL = (char)0x2709 + " ";
+  private static final String ADDRESS = "<span style='color:gray;'>" + (char)0x25AA + "</span> ";
 
-  private GedcomToFamilyTree toFamilyTree = null;
+  private static final String TREE_BRANCH = (char)0x251C + "" + (char)0x2500 + HTMLSPACE;
+  private static final String TREE_LASTBRANCH = (char)0x2514 + "" + (char)0x2500 + HTMLSPACE;
+  private static final String TREE_LINE = (char)0x2502 + HTMLSPACE + HTMLSPACE;
+  private static final String TREE_SPACE = HTMLSPACE + HTMLSPACE + HTMLSPACE;
+
+  private static final String[] TREE_COLORS = {"#4e79a7", "#f28e2b", "#e15759", "#59a14f", "#b07aa1", "#9c755f"};
+
+  private final FamilyTreePrintBuilder printBuilder;
+
+  private final List<FamilyTreeFieldRenderer> primaryLine;
+
+  private final boolean withAdditionalLine;
+
+  private final boolean useColors;
 
   boolean addNodeSpace = false;
   boolean showLightDates = true;
@@ -75,15 +98,31 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
       boolean showAddress, boolean showAgeForDead, boolean showBirthDate,
       boolean showDeathDate, boolean showFirstName, boolean showMaidenName, boolean showMarriedName,
       boolean showDivorcedPartnerWithoutChildren, boolean showDivorcedPartnerWithChildren) {
+    this(useColors, addNodeSpace, showLightDates, FamilyTreePrintProfile.fromFlags(showId, showGender,
+        showRelationship, showEmail, showAddress, showAgeForDead,
+        showBirthDate, showDeathDate, showFirstName, showMaidenName, showMarriedName,
+        showDivorcedPartnerWithoutChildren, showDivorcedPartnerWithChildren));
+  }
+
+  /**
+   *
+   *
+   * @param useColors
+   * @param addNodeSpace
+   * @param showLightDates
+   * @param profile The fields to print
+   */
+  public FamilytreeHTMLPrinter(boolean useColors, boolean addNodeSpace, boolean showLightDates,
+      FamilyTreePrintProfile profile) {
     super(false, useColors);
 
+    this.useColors = useColors;
     this.addNodeSpace = addNodeSpace;
     this.showLightDates = showLightDates;
 
-    printBuilder = new FamilyTreePrintBuilder(showId, showGender,
-        showRelationship, showEmail, showAddress, showAgeForDead,
-        showBirthDate, showDeathDate, showFirstName, showMaidenName, showMarriedName,
-        showDivorcedPartnerWithoutChildren, showDivorcedPartnerWithChildren);
+    printBuilder = new FamilyTreePrintBuilder(profile);
+    primaryLine = compilePrimaryLine(profile);
+    withAdditionalLine = profile.isShown(Field.EMAIL) || profile.isShown(Field.ADDRESS);
 
     //This makes sure that also the alignment of the additional lines at
     //the very end of a branch are correct
@@ -91,32 +130,215 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
 
   }
 
+  /**
+   * Creates the renderers of the primary line. The fields which are not shown
+   * are left out.
+   *
+   * @param profile
+   * @return
+   */
+  private List<FamilyTreeFieldRenderer> compilePrimaryLine(FamilyTreePrintProfile profile) {
+    List<FamilyTreeFieldRenderer> renderers = new ArrayList<>();
+
+    if (profile.isShown(Field.ID)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendId(sb, indi, "<b>", "</b> ");
+        }
+      });
+    }
+
+    if (profile.isShown(Field.GENDER)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          if (Sex.MALE.equals(indi.getSex())) {
+            //Male
+            printBuilder.appendGender(sb, indi, MALE, FEMALE, "<span style='color:#6666FF;' title='Male'>", "</span> ");
+          } else {
+            //Female
+            printBuilder.appendGender(sb, indi, MALE, FEMALE, "<span style='color:#FF3399;' title='Female'>", "</span> ");
+          }
+        }
+      });
+    }
+
+    if (profile.isShown(Field.RELATIONSHIP)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          if (family == null) {
+            return;
+          }
+
+          int relationshipStart = sb.length();
+
+          if (printBuilder.appendRelationship(sb, family, MARRIED, DIVORCED, /*UNMARRIED*/"", "", " ")) {
+            //The span with the title has to go in front of the relationship
+            String relationship = sb.substring(relationshipStart);
+            sb.setLength(relationshipStart);
+
+            //Look for the relationship character and add the title
+            if (relationship.indexOf(MARRIED) != -1) {
+              sb.append("<span class='relationship' style='color:#002900;' title='");
+              sb.append("Married");
+            } else if (relationship.indexOf(DIVORCED) != -1) {
+              sb.append("<span class='relationship' style='color:#7A0000;' title='");
+              sb.append("Divorced");
+              sb.append(" (was married to: ");
+              printBuilder.appendFirstName(sb, partner, "", " ");
+              printBuilder.appendMaidenName(sb, partner, "", "", true);
+              sb.append(")");
+            } else if (relationship.indexOf(UNMARRIED) != -1) {
+              sb.append("<span class='relationship' style='color:#858585;' title='");
+              sb.append("Unmarried");
+            } else {
+              sb.append("<span class='relationship' style='color:#D1D1D1;' title='");
+              sb.append("Unknown");
+            }
+            sb.append("'>");
+            sb.append(relationship);
+            sb.append("</span>");
+
+          }
+        }
+      });
+    }
+
+    if (profile.isShown(Field.FIRST_NAME)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendFirstName(sb, indi, "", " ");
+        }
+      });
+    }
+
+    //One of the names is always shown
+    final boolean showMarriedName = profile.isShown(Field.MARRIED_NAME);
+    final boolean showMaidenName = profile.isShown(Field.MAIDEN_NAME);
+
+    renderers.add(new FamilyTreeFieldRenderer() {
+
+      @Override
+      public void render(StringBuilder sb, List<String> values,
+          GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+        //Both names are appended first and then removed again if necessary
+        int marriedStart = sb.length();
+        boolean married = printBuilder.appendMarriedName(sb, indi, family, "", " ", true);
+        int maidenStart = sb.length();
+        boolean maiden = printBuilder.appendMaidenName(sb, indi, "", "", true);
+
+        if (!showMarriedName) {
+          if (maiden) {
+            //Clear the married name only if there is a maiden name
+            sb.delete(marriedStart, maidenStart);
+            maidenStart = marriedStart;
+            married = false;
+          }
+        }
+        if (!showMaidenName) {
+          if (married) {
+            //Clear the maiden name only if there is a maiden name
+            sb.setLength(maidenStart);
+            maiden = false;
+          }
+        }
+
+        if (!married) {
+          //If there is no married name, use the last name
+          sb.append(" ");
+        } else {
+          //If there is a married name, also add the last name if there is one
+          if (maiden) {
+            sb.insert(maidenStart, '(');
+            sb.append(") ");
+          }
+        }
+      }
+    });
+
+    if (profile.isShown(Field.BIRTH_DATE)) {
+      //No dates without birth date
+      final boolean showDeathDate = profile.isShown(Field.DEATH_DATE);
+
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          int datesStart = sb.length();
+          sb.append("<span ");
+          if (showLightDates) {
+            sb.append("style='color:#848484;'");
+          }
+          sb.append(">");
+          sb.append("[");
+
+          if (printBuilder.appendBirthDate(sb, indi, BIRTH, "")) {
+            if (showDeathDate) {
+              int deathStart = sb.length();
+              sb.append(" - ");
+
+              if (printBuilder.appendDeathDate(sb, indi, DEATH, "")) {
+                printBuilder.appendAge(sb, indi, " | ", "");
+              } else {
+                sb.setLength(deathStart);
+              }
+            }
+
+            sb.append("]");
+            sb.append("</span>");
+          } else {
+            sb.setLength(datesStart);
+          }
+        }
+      });
+    }
+
+    return Collections.unmodifiableList(renderers);
+  }
+
   @Override
   public StringBuilder print(FamilyTreeNode printNode) {
     throw new UnsupportedOperationException("The method print(FamilyTreeNode) is not supported. " +
-        "Use print(GedcomToFamilyTree) instead.");
+        "Use print(FamilyTreeBuilder) instead.");
   }
 
   @Override
-  public StringBuilder print(GedcomToFamilyTree toFamilyTree) {
-    this.toFamilyTree = toFamilyTree;
-
-    LinkedList<FamilyTreeNode> trees = OnOffTreeUtil.convertToSimpleTree((FamilyTreeNode)toFamilyTree.getFamilyTree(), true, true);
+  public StringBuilder print(FamilyTreeBuilder toFamilyTree) {
+    return print(toFamilyTree, 0);
+  }
 
+  @Override
+  public StringBuilder print(FamilyTreeBuilder toFamilyTree, int generations) {
     StringBuilder sb = new StringBuilder();
-    for (FamilyTreeNode tree : trees) {
-      if (sb.length() > 0) {
-        //Keep trees separated a little
-        sb.append("<p></p>");
-      }
-      sb.append("<table>");
-      sb.append(super.print(tree));
-      sb.append("</table>");
+
+    try {
+      print(toFamilyTree, generations, sb);
+    } catch (IOException e) {
+      //A StringBuilder does not throw
+      throw new GedcomToFamilytreeError("Failed to print family tree. " + e.getMessage());
     }
 
     return sb;
   }
 
+  @Override
+  public void print(FamilyTreeBuilder toFamilyTree, int generations, Appendable out) throws IOException {
+    //A new tree writer for every call, nothing of the call is kept in this printer
+    FamilyTreePrinterUtil.print(toFamilyTree.getFamilyTree(), generations, new TreeWriter(), out);
+  }
+
 
   @Override
   protected Collection<String> getNodeValues(FamilyTreeNode node) {
@@ -131,8 +353,7 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
     GedcomIndividual[] individuals = node.getNodeValue();
 
     List<List<String>> nodeValueLines = printBuilder.createNodeValueLines(individuals[0], individuals[1],
-        toFamilyTree.getStorage().getFamilyOfParents(individuals[0], individuals[1]),
-        this, addNodeSpace, false);
+        node.getFamily(), this, addNodeSpace, false);
 
     for (List<String> valueLines : nodeValueLines) {
       if (valueLines == null) {
@@ -161,99 +382,10 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
       GedcomIndividual partner, GedcomFamily family, boolean isPartner) {
     ArrayList<String> values = new ArrayList<String>(1);
 
-    StringBuilder sb = new StringBuilder();
-
-    sb.append(printBuilder.getId(indi, "<b>", "</b> "));
-
-    if (Sex.MALE.equals(indi.getSex())) {
-      //Male
-      sb.append(printBuilder.getGender(indi, String.valueOf((char)0x2642), String.valueOf((char)0x2640), "<span style='color:#6666FF;' title='Male'>", "</span> "));
-    } else {
-      //Female
-      sb.append(printBuilder.getGender(indi, String.valueOf((char)0x2642), String.valueOf((char)0x2640), "<span style='color:#FF3399;' title='Female'>", "</span> "));
-    }
-
-    if (family != null) {
-      StringBuilder relationship = printBuilder.getRelationship(family, String.valueOf((char)0x26AD), String.valueOf((char)0x26AE), /*String.valueOf((char)0x26AF)*/"", "", " ");
-
-      if (relationship.length() > 0) {
-        //Look for the relationship character and add the title
-        if (relationship.indexOf(String.valueOf((char)0x26AD)) != -1) {
-          sb.append("<span class='relationship' style='color:#002900;' title='");
-          sb.append("Married");
-        } else if (relationship.indexOf(String.valueOf((char)0x26AE)) != -1) {
-          sb.append("<span class='relationship' style='color:#7A0000;' title='");
-          sb.append("Divorced");
-          sb.append(" (was married to: ");
-          sb.append(printBuilder.getFirstName(partner, "", " "));
-          sb.append(printBuilder.getMaidenName(partner, "", "", true));
-          sb.append(")");
-        } else if (relationship.indexOf(String.valueOf((char)0x26AF)) != -1) {
-          sb.append("<span class='relationship' style='color:#858585;' title='");
-          sb.append("Unmarried");
-        } else {
-          sb.append("<span class='relationship' style='color:#D1D1D1;' title='");
-          sb.append("Unknown");
-        }
-        sb.append("'>");
-        sb.append(relationship);
-        sb.append("</span>");
-
-      }
-    }
-
-
-    sb.append(printBuilder.getFirstName(indi, "", " "));
+    StringBuilder sb = new StringBuilder(256);
 
-    String married = printBuilder.getMarriedName(indi, family, "", " ", true).toString();
-    String maiden = printBuilder.getMaidenName(indi, "", "", true).toString();
-
-    if (!printBuilder.showMarriedName()) {
-      if (maiden.length() > 0) {
-        //Clear the married name only if there is a maiden name
-        married = "";
-      }
-    }
-    if (!printBuilder.showMaidenName()) {
-      if (married.length() > 0) {
-        //Clear the maiden name only if there is a maiden name
-        maiden = "";
-      }
-    }
-
-    sb.append(married);
-
-    if (married.length() == 0) {
-      //If there is no married name, use the last name
-      sb.append(maiden);
-      sb.append(" ");
-    } else {
-      //If there is a married name, also add the last name if there is one
-      if (maiden.length() > 0) {
-        sb.append("(");
-        sb.append(maiden);
-        sb.append(") ");
-      }
-    }
-
-    StringBuilder birthDate = printBuilder.getBirthDate(indi, String.valueOf((char)0x274A), "");
-
-    if (birthDate.length() > 0) {
-      StringBuilder deathDate = printBuilder.getDeathDate(indi, String.valueOf((char)0x271D), "");
-
-      sb.append("<span " + (showLightDates ? "style='color:#848484;'" : "") + ">");
-      sb.append("[");
-      sb.append(birthDate);
-
-      if (deathDate.length() > 0) {
-        sb.append(" - ");
-        sb.append(deathDate);
-
-        sb.append(printBuilder.getAge(indi, " | ", ""));
-      }
-
-      sb.append("]");
-      sb.append("</span>");
+    for (FamilyTreeFieldRenderer renderer : primaryLine) {
+      renderer.render(sb, values, indi, partner, family);
     }
 
     values.add(sb.toString());
@@ -263,20 +395,36 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
   @Override
   public ArrayList<String> createAdditionalLine(GedcomIndividual indi,
       GedcomIndividual partner, GedcomFamily family, boolean isPartner) {
+    if (!withAdditionalLine) {
+      //Neither email nor address
+      return null;
+    }
+
     ArrayList<String> values = new ArrayList<String>(7);
 
-    StringBuilder sb = new StringBuilder();
+    StringBuilder sb = new StringBuilder(256);
 
     //A little space in front of the additional line
-    sb.append(FamilyTreePrinterUtil.createColumnString(printBuilder.getId(isPartner ? partner : indi, "", "").length(), HTMLSPACE));
+    printBuilder.appendId(sb, isPartner ? partner : indi, "", "");
+    int idLength = sb.length();
+    sb.setLength(0);
+    appendColumns(sb, idLength, HTMLSPACE);
 
     if (isPartner) {
       //Move the additional line of the partner to the right so that it lines up (about) the same
-      sb.append(FamilyTreePrinterUtil.createColumnString(printBuilder.getId(indi, "", "").length() + 2, HTMLSPACE));
+      int spaceEnd = sb.length();
+      printBuilder.appendId(sb, indi, "", "");
+      idLength = sb.length() - spaceEnd;
+      sb.setLength(spaceEnd);
+      appendColumns(sb, idLength + 2, HTMLSPACE);
     }
 
-    StringBuilder email = printBuilder.getEmail(indi, (char)0x2709 + " ", " ");
-    StringBuilder address = null;
+    //The span is removed again if there is nothing to show
+    int infoStart = sb.length();
+    sb.append("<span class='additionalinfo'>");
+
+    boolean email = printBuilder.appendEmail(sb, indi, EMAIL, " ");
+    boolean address = false;
 
     boolean empty = true;
     boolean withAddress = true;
@@ -295,19 +443,15 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
       //This only happens to the last line because it only happens if there is
       //no character in front of the bullet point
       //It happens in the Eclipse Console output and gedit
-      address = printBuilder.getAddress(indi, "<span style='color:gray;'>" + (char)0x25AA + "</span> ", " ");
+      address = printBuilder.appendAddress(sb, indi, ADDRESS, " ");
     }
 
-    if (email.length() > 0 || withAddress && address.length() > 0) {
-      sb.append("<span class='additionalinfo'>");
-      sb.append(email);
+    if (email || address) {
+      sb.append("</span>");
 
       empty = false;
-
-      if (withAddress) {
-        sb.append(address);
-      }
-      sb.append("</span>");
+    } else {
+      sb.setLength(infoStart);
     }
 
 
@@ -322,6 +466,19 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
   }
 
 
+  /**
+   * Appends the column content the given number of times
+   *
+   * @param sb
+   * @param numberOfColumns
+   * @param columnContent
+   */
+  private static void appendColumns(StringBuilder sb, int numberOfColumns, String columnContent) {
+    for (int i = 0; i < numberOfColumns; i++) {
+      sb.append(columnContent);
+    }
+  }
+
   @Override
   protected void appendHeaderData(StringBuilder sb) {
     super.appendHeaderData(sb);
@@ -330,9 +487,98 @@ extends TreeNodeHTMLPrinter<FamilyTreeNode> implements FamilytreePrinter {
     //		sb.append("td {border:1px dotted black}");
     sb.append(".additionalinfo {font-style:italic;}" + LINE_SEPARATOR);
     sb.append(".relationship {vertical-align:bottom;}" + LINE_SEPARATOR);
+    sb.append(".treeline {font-family:monospace;}" + LINE_SEPARATOR);
     sb.append("</style>" + LINE_SEPARATOR);
 
   }
 
 
+  /**
+   * Writes the lines of the nodes of one print call as rows of a table, with
+   * the lines of the tree in front of them. The printer creates a new tree
+   * writer for every call of
+   * {@link FamilytreePrinter#print(FamilyTreeBuilder, int, Appendable)}.
+   * Printing is therefore reentrant and one printer can print any number of
+   * trees at the same time. The family of a node is the one it has been built
+   * with (see {@link FamilyTreeNode#getFamily()}), the storage of the tree is
+   * not needed for printing.
+   *
+   */
+  private class TreeWriter implements FamilyTreeNodeWriter {
+
+    private boolean first = true;
+
+    @Override
+    public void startTree(FamilyTreeNode topNode, int levels, Appendable out) throws IOException {
+      if (!first) {
+        //Keep trees separated a little
+        out.append("<p></p>");
+      }
+
+      out.append("<table>");
+      first = false;
+    }
+
+    @Override
+    public void writeNode(FamilyTreeNode node, int depth, boolean[] lastChild,
+        boolean hasChildNodes, Appendable out) throws IOException {
+      boolean firstLine = true;
+
+      for (String line : getNodeValues(node)) {
+        out.append("<tr><td><span class='treeline'>");
+
+        for (int i = 1; i < depth; i++) {
+          appendTreeLine(out, i, lastChild[i] ? TREE_SPACE : TREE_LINE);
+        }
+
+        if (depth > 0) {
+          if (firstLine) {
+            appendTreeLine(out, depth, lastChild[depth] ? TREE_LASTBRANCH : TREE_BRANCH);
+          } else {
+            appendTreeLine(out, depth, lastChild[depth] ? TREE_SPACE : TREE_LINE);
+          }
+        }
+
+        if (!firstLine) {
+          //Additional lines are indented like the child nodes
+          appendTreeLine(out, depth + 1, hasChildNodes ? TREE_LINE : TREE_SPACE);
+        }
+
+        out.append("</span>");
+        out.append(line);
+        out.append("</td></tr>");
+        out.append(LINE_SEPARATOR);
+
+        firstLine = false;
+      }
+    }
+
+    @Override
+    public void endTree(Appendable out) throws IOException {
+      out.append("</table>");
+    }
+
+    /**
+     * Appends the part of the tree lines of the given level, in the color of
+     * the level if colors are used
+     *
+     * @param out
+     * @param level
+     * @param treeLine
+     * @throws IOException
+     */
+    private void appendTreeLine(Appendable out, int level, String treeLine) throws IOException {
+      if (useColors && !TREE_SPACE.equals(treeLine)) {
+        out.append("<span style='color:");
+        out.append(TREE_COLORS[level % TREE_COLORS.length]);
+        out.append(";'>");
+        out.append(treeLine);
+        out.append("</span>");
+      } else {
+        out.append(treeLine);
+      }
+    }
+
+  }
+
 }
@@ -16,13 +16,17 @@
  */
 package ch.thn.gedcom.familytree.printer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
-import ch.thn.gedcom.familytree.GedcomToFamilyTree;
+import ch.thn.gedcom.familytree.FamilyTreeBuilder;
 
 /**
+ * A printer for family trees. The printers do not keep anything of a print 
+ * call, the same printer can print several trees at the same time (for 
+ * example from different threads).
  *
  * @author Thomas Naeff (github.com/thnaeff)
  *
@@ -36,7 +40,34 @@ public interface FamilytreePrinter {
 	 * @param toFamilyTree
 	 * @return
 	 */
-	public StringBuilder print(GedcomToFamilyTree toFamilyTree);
+	public StringBuilder print(FamilyTreeBuilder toFamilyTree);
+	
+	/**
+	 * Only prints the given number of generations. The nodes below are not 
+	 * read, which keeps a lazy tree from building them.
+	 * 
+	 * @param toFamilyTree
+	 * @param generations The number of generations to print, or 0 to print 
+	 * all generations
+	 * @return
+	 */
+	public StringBuilder print(FamilyTreeBuilder toFamilyTree, int generations);
+	
+	/**
+	 * Prints the tree directly to the given output (for example a 
+	 * {@link java.io.Writer}). Every line is written as soon as its node is 
+	 * visited while the tree is traversed depth first. Neither the tree nor 
+	 * the output is copied. See 
+	 * {@link FamilyTreePrinterUtil#print(FamilytreePrinter, FamilyTreeBuilder, int, java.io.OutputStream, java.nio.charset.Charset)} 
+	 * to print to an {@link java.io.OutputStream}.
+	 * 
+	 * @param toFamilyTree
+	 * @param generations The number of generations to print, or 0 to print 
+	 * all generations
+	 * @param out
+	 * @throws IOException If writing to the output fails
+	 */
+	public void print(FamilyTreeBuilder toFamilyTree, int generations, Appendable out) throws IOException;
 	
 	/**
 	 * 
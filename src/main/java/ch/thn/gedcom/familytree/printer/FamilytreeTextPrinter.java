@@ -16,18 +16,20 @@
  */
 package ch.thn.gedcom.familytree.printer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
-import ch.thn.datatree.onoff.OnOffTreeUtil;
 import ch.thn.datatree.printer.TreeNodePlainTextPrinter;
 import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
 import ch.thn.gedcom.familytree.FamilyTree;
+import ch.thn.gedcom.familytree.FamilyTreeBuilder;
 import ch.thn.gedcom.familytree.FamilyTreeNode;
-import ch.thn.gedcom.familytree.GedcomToFamilyTree;
+import ch.thn.gedcom.familytree.GedcomToFamilytreeError;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintProfile.Field;
 
 /**
  *
@@ -37,9 +39,25 @@ import ch.thn.gedcom.familytree.GedcomToFamilyTree;
  */
 public class FamilytreeTextPrinter extends TreeNodePlainTextPrinter<FamilyTreeNode> implements FamilytreePrinter {
 
-  private FamilyTreePrintBuilder printBuilder = null;
+  private static final String MALE = String.valueOf((char)0x2642);
+  private static final String FEMALE = String.valueOf((char)0x2640);
+  private static final String MARRIED = String.valueOf((char)0x26AD);
+  private static final String DIVORCED = String.valueOf((char)0x26AE);
+  private static final String BIRTH = String.valueOf((char)0x274A);
+  private static final String DEATH = String.valueOf((char)0x271D);
+  private static final String EMAIL = (char)0x2709 + " ";
+  private static final String ADDRESS = (char)0x25AA + " ";
 
-  private GedcomToFamilyTree toFamilyTree = null;
+  private static final String TREE_BRANCH = (char)0x251C + "" + (char)0x2500 + " ";
+  private static final String TREE_LASTBRANCH = (char)0x2514 + "" + (char)0x2500 + " ";
+  private static final String TREE_LINE = (char)0x2502 + "  ";
+  private static final String TREE_SPACE = "   ";
+
+  private final FamilyTreePrintBuilder printBuilder;
+
+  private final List<FamilyTreeFieldRenderer> primaryLine;
+
+  private final boolean withAdditionalLine;
 
   boolean addNodeSpace = false;
 
@@ -66,41 +84,212 @@ public class FamilytreeTextPrinter extends TreeNodePlainTextPrinter<FamilyTreeNo
       boolean showAddress, boolean showAgeForDead, boolean showBirthDate,
       boolean showDeathDate, boolean showFirstName, boolean showMaidenName, boolean showMarriedName,
       boolean showDivorcedPartnerWithoutChildren, boolean showDivorcedPartnerWithChildren) {
+    this(addNodeSpace, FamilyTreePrintProfile.fromFlags(showId, showGender,
+        showRelationship, showEmail, showAddress, showAgeForDead,
+        showBirthDate, showDeathDate, showFirstName, showMaidenName, showMarriedName,
+        showDivorcedPartnerWithoutChildren, showDivorcedPartnerWithChildren));
+  }
+
+  /**
+   *
+   *
+   * @param addNodeSpace
+   * @param profile The fields to print
+   */
+  public FamilytreeTextPrinter(boolean addNodeSpace, FamilyTreePrintProfile profile) {
     super();
 
     this.addNodeSpace = addNodeSpace;
 
-    printBuilder = new FamilyTreePrintBuilder(showId, showGender,
-        showRelationship, showEmail, showAddress, showAgeForDead,
-        showBirthDate, showDeathDate, showFirstName, showMaidenName, showMarriedName,
-        showDivorcedPartnerWithoutChildren, showDivorcedPartnerWithChildren);
+    printBuilder = new FamilyTreePrintBuilder(profile);
+    primaryLine = compilePrimaryLine(profile);
+    withAdditionalLine = profile.isShown(Field.EMAIL) || profile.isShown(Field.ADDRESS);
 
   }
 
+  /**
+   * Creates the renderers of the columns of the primary line. The columns of
+   * the fields which are not shown stay empty.
+   *
+   * @param profile
+   * @return
+   */
+  private List<FamilyTreeFieldRenderer> compilePrimaryLine(FamilyTreePrintProfile profile) {
+    List<FamilyTreeFieldRenderer> renderers = new ArrayList<>();
+
+    if (profile.isShown(Field.ID)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendId(sb, indi, "", "");
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    if (profile.isShown(Field.GENDER)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendGender(sb, indi, MALE, FEMALE, "", "");
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    final boolean showRelationship = profile.isShown(Field.RELATIONSHIP);
+
+    renderers.add(new FamilyTreeFieldRenderer() {
+
+      @Override
+      public void render(StringBuilder sb, List<String> values,
+          GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+        //Only a column for the relationship if there is a family
+        if (family != null) {
+          if (showRelationship) {
+            printBuilder.appendRelationship(sb, family, MARRIED, DIVORCED, /*String.valueOf((char)0x26AF)*/"", "", "");
+          }
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      }
+    });
+
+    if (profile.isShown(Field.FIRST_NAME)) {
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          printBuilder.appendFirstName(sb, indi, "", "");
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    //One of the names is always shown
+    final boolean showMarriedName = profile.isShown(Field.MARRIED_NAME);
+    final boolean showMaidenName = profile.isShown(Field.MAIDEN_NAME);
+
+    renderers.add(new FamilyTreeFieldRenderer() {
+
+      @Override
+      public void render(StringBuilder sb, List<String> values,
+          GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+        boolean married = printBuilder.appendMarriedName(sb, indi, family, "", "", true);
+        String marriedName = FamilyTreePrinterUtil.takeString(sb);
+        boolean maiden = printBuilder.appendMaidenName(sb, indi, "", "", true);
+        String maidenName = FamilyTreePrinterUtil.takeString(sb);
+
+        if (!showMarriedName) {
+          if (maiden) {
+            //Clear the married name only if there is a maiden name
+            marriedName = "";
+            married = false;
+          }
+        }
+        if (!showMaidenName) {
+          if (married) {
+            //Clear the maiden name only if there is a maiden name
+            maidenName = "";
+            maiden = false;
+          }
+        }
+
+        values.add(marriedName);
+
+        if (!married) {
+          //If there is no married name, use the last name
+          values.add(maidenName);
+        } else {
+          //If there is a married name, also add the last name if there is one
+          if (maiden) {
+            sb.append("(");
+            sb.append(maidenName);
+            sb.append(")");
+            values.add(FamilyTreePrinterUtil.takeString(sb));
+          }
+        }
+      }
+    });
+
+    if (profile.isShown(Field.BIRTH_DATE)) {
+      //No lifespan without birth date
+      final boolean showDeathDate = profile.isShown(Field.DEATH_DATE);
+
+      renderers.add(new FamilyTreeFieldRenderer() {
+
+        @Override
+        public void render(StringBuilder sb, List<String> values,
+            GedcomIndividual indi, GedcomIndividual partner, GedcomFamily family) {
+          sb.append("[");
+
+          if (printBuilder.appendBirthDate(sb, indi, BIRTH, "")) {
+            if (showDeathDate) {
+              int deathStart = sb.length();
+              sb.append(" - ");
+
+              if (printBuilder.appendDeathDate(sb, indi, DEATH, "")) {
+                printBuilder.appendAge(sb, indi, " | ", "");
+              } else {
+                sb.setLength(deathStart);
+              }
+            }
+
+            sb.append("]");
+          } else {
+            sb.setLength(0);
+          }
+          values.add(FamilyTreePrinterUtil.takeString(sb));
+        }
+      });
+    } else {
+      renderers.add(FamilyTreePrinterUtil.EMPTY_VALUE);
+    }
+
+    return Collections.unmodifiableList(renderers);
+  }
+
   @Override
   public StringBuilder print(FamilyTreeNode printNode) {
     throw new UnsupportedOperationException("The method print(FamilyTreeNode) is not supported. " +
-        "Use print(GedcomToFamilyTree) instead.");
+        "Use print(FamilyTreeBuilder) instead.");
   }
 
   @Override
-  public StringBuilder print(GedcomToFamilyTree toFamilyTree) {
-    this.toFamilyTree = toFamilyTree;
-
-    LinkedList<FamilyTreeNode> trees = OnOffTreeUtil.convertToSimpleTree((FamilyTreeNode)toFamilyTree.getFamilyTree(), true, true);
+  public StringBuilder print(FamilyTreeBuilder toFamilyTree) {
+    return print(toFamilyTree, 0);
+  }
 
+  @Override
+  public StringBuilder print(FamilyTreeBuilder toFamilyTree, int generations) {
     StringBuilder sb = new StringBuilder();
-    for (FamilyTreeNode tree : trees) {
-      if (sb.length() > 0) {
-        //Keep trees separated a little
-        sb.append(LINE_SEPARATOR);
-      }
-      sb.append(super.print(tree));
+
+    try {
+      print(toFamilyTree, generations, sb);
+    } catch (IOException e) {
+      //A StringBuilder does not throw
+      throw new GedcomToFamilytreeError("Failed to print family tree. " + e.getMessage());
     }
 
     return sb;
   }
 
+  @Override
+  public void print(FamilyTreeBuilder toFamilyTree, int generations, Appendable out) throws IOException {
+    //A new tree writer for every call, nothing of the call is kept in this printer
+    FamilyTreePrinterUtil.print(toFamilyTree.getFamilyTree(), generations, new TreeWriter(), out);
+  }
+
 
   @Override
   protected Collection<String> getNodeValues(FamilyTreeNode node) {
@@ -115,8 +304,7 @@ public class FamilytreeTextPrinter extends TreeNodePlainTextPrinter<FamilyTreeNo
     GedcomIndividual[] individuals = node.getNodeValue();
 
     List<List<String>> nodeValueLines = printBuilder.createNodeValueLines(individuals[0], individuals[1],
-        toFamilyTree.getStorage().getFamilyOfParents(individuals[0], individuals[1]),
-        this, addNodeSpace, false);
+        node.getFamily(), this, addNodeSpace, false);
 
     for (List<String> valueLines : nodeValueLines) {
       if (valueLines == null) {
@@ -145,63 +333,12 @@ public class FamilytreeTextPrinter extends TreeNodePlainTextPrinter<FamilyTreeNo
       GedcomIndividual partner, GedcomFamily family, boolean isPartner) {
     ArrayList<String> values = new ArrayList<String>(7);
 
-    values.add(printBuilder.getId(indi, "", "").toString());
-
-    values.add(printBuilder.getGender(indi, String.valueOf((char)0x2642), String.valueOf((char)0x2640), "", "").toString());
-
-    if (family != null) {
-      values.add(printBuilder.getRelationship(family, String.valueOf((char)0x26AD), String.valueOf((char)0x26AE), /*String.valueOf((char)0x26AF)*/"", "", "").toString());
-    }
-
-    values.add(printBuilder.getFirstName(indi, "", "").toString());
+    //One buffer for all the values
+    StringBuilder sb = new StringBuilder(64);
 
-    String married = printBuilder.getMarriedName(indi, family, "", "", true).toString();
-    String maiden = printBuilder.getMaidenName(indi, "", "", true).toString();
-
-    if (!printBuilder.showMarriedName()) {
-      if (maiden.length() > 0) {
-        //Clear the married name only if there is a maiden name
-        married = "";
-      }
+    for (FamilyTreeFieldRenderer renderer : primaryLine) {
+      renderer.render(sb, values, indi, partner, family);
     }
-    if (!printBuilder.showMaidenName()) {
-      if (married.length() > 0) {
-        //Clear the maiden name only if there is a maiden name
-        maiden = "";
-      }
-    }
-
-    values.add(married);
-
-    if (married.length() == 0) {
-      //If there is no married name, use the last name
-      values.add(maiden);
-    } else {
-      //If there is a married name, also add the last name if there is one
-      if (maiden.length() > 0) {
-        values.add("(" + maiden + ")");
-      }
-    }
-
-    StringBuilder birthDate = printBuilder.getBirthDate(indi, String.valueOf((char)0x274A), "");
-    StringBuilder sbLifespan = new StringBuilder();
-
-    if (birthDate.length() > 0) {
-      StringBuilder deathDate = printBuilder.getDeathDate(indi, String.valueOf((char)0x271D), "");
-
-      sbLifespan.append("[");
-      sbLifespan.append(birthDate);
-
-      if (deathDate.length() > 0) {
-        sbLifespan.append(" - ");
-        sbLifespan.append(deathDate);
-
-        sbLifespan.append(printBuilder.getAge(indi, " | ", "").toString());
-      }
-
-      sbLifespan.append("]");
-    }
-    values.add(sbLifespan.toString());
 
     return values;
   }
@@ -209,18 +346,27 @@ public class FamilytreeTextPrinter extends TreeNodePlainTextPrinter<FamilyTreeNo
   @Override
   public ArrayList<String> createAdditionalLine(GedcomIndividual indi,
       GedcomIndividual partner, GedcomFamily family, boolean isPartner) {
+    if (!withAdditionalLine) {
+      //Neither email nor address
+      return null;
+    }
+
     ArrayList<String> values = new ArrayList<String>(3);
 
     //A little space in front of the additional line
-    values.add(FamilyTreePrinterUtil.createColumnString(printBuilder.getId(isPartner ? partner : indi, "", "").length(), " "));
+    StringBuilder sb = new StringBuilder(64);
+    printBuilder.appendId(sb, isPartner ? partner : indi, "", "");
+    values.add(FamilyTreePrinterUtil.createColumnString(sb.length(), " "));
+    sb.setLength(0);
 
     if (isPartner) {
       //Extra space for partners on additional lines
       values.add(" ");
     }
 
-    StringBuilder email = printBuilder.getEmail(indi, (char)0x2709 + " ", "");
-    StringBuilder address = null;
+    boolean email = printBuilder.appendEmail(sb, indi, EMAIL, "");
+    String emailValue = FamilyTreePrinterUtil.takeString(sb);
+    boolean address = false;
 
     boolean empty = true;
     boolean withAddress = true;
@@ -239,15 +385,15 @@ public class FamilytreeTextPrinter extends TreeNodePlainTextPrinter<FamilyTreeNo
       //This only happens to the last line because it only happens if there is
       //no character in front of the bullet point
       //It happens in the Eclipse Console output and gedit
-      address = printBuilder.getAddress(indi, (char)0x25AA + " ", "");
+      address = printBuilder.appendAddress(sb, indi, ADDRESS, "");
     }
 
-    if (email.length() > 0 || withAddress && address.length() > 0) {
-      values.add(email.toString());
+    if (email || withAddress && address) {
+      values.add(emailValue);
       empty = false;
 
       if (withAddress) {
-        values.add(address.toString());
+        values.add(FamilyTreePrinterUtil.takeString(sb));
       }
     }
 
@@ -261,4 +407,64 @@ public class FamilytreeTextPrinter extends TreeNodePlainTextPrinter<FamilyTreeNo
   }
 
 
+  /**
+   * Writes the lines of the nodes of one print call, with the lines of the
+   * tree in front of them. The printer creates a new tree writer for every
+   * call of {@link FamilytreePrinter#print(FamilyTreeBuilder, int, Appendable)}.
+   * Printing is therefore reentrant and one printer can print any number of
+   * trees at the same time. The family of a node is the one it has been built
+   * with (see {@link FamilyTreeNode#getFamily()}), the storage of the tree is
+   * not needed for printing.
+   *
+   */
+  private class TreeWriter implements FamilyTreeNodeWriter {
+
+    private boolean written = false;
+
+    @Override
+    public void startTree(FamilyTreeNode topNode, int levels, Appendable out) throws IOException {
+      if (written) {
+        //Keep trees separated a little
+        out.append(LINE_SEPARATOR);
+      }
+    }
+
+    @Override
+    public void writeNode(FamilyTreeNode node, int depth, boolean[] lastChild,
+        boolean hasChildNodes, Appendable out) throws IOException {
+      boolean firstLine = true;
+
+      for (String line : getNodeValues(node)) {
+        for (int i = 1; i < depth; i++) {
+          out.append(lastChild[i] ? TREE_SPACE : TREE_LINE);
+        }
+
+        if (depth > 0) {
+          if (firstLine) {
+            out.append(lastChild[depth] ? TREE_LASTBRANCH : TREE_BRANCH);
+          } else {
+            out.append(lastChild[depth] ? TREE_SPACE : TREE_LINE);
+          }
+        }
+
+        if (!firstLine) {
+          //Additional lines are indented like the child nodes
+          out.append(hasChildNodes ? TREE_LINE : TREE_SPACE);
+        }
+
+        out.append(line);
+        out.append(LINE_SEPARATOR);
+
+        firstLine = false;
+        written = true;
+      }
+    }
+
+    @Override
+    public void endTree(Appendable out) throws IOException {
+      //Nothing to close
+    }
+
+  }
+
 }
@@ -0,0 +1,156 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import java.util.List;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+
+/**
+ * Sorts the families in the order in which they appear in the GEDCOM data:
+ * the children in the order of the child links of their parents, and the
+ * families of an individual in the order of its spouse family links. Nodes
+ * with the same positions are sorted like the {@link FamilytreeSorter} sorts
+ * them.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyGedcomOrderSorter extends FamilyTreeKeySorter<FamilyGedcomOrderSorter.GedcomOrderKey> {
+
+	private final FamilytreeSorter dateSorter = new FamilytreeSorter();
+
+	private final GedcomCreatorStructureStorage storage;
+
+	/**
+	 *
+	 *
+	 * @param storage The storage with the families of the individuals
+	 */
+	public FamilyGedcomOrderSorter(GedcomCreatorStructureStorage storage) {
+		this.storage = storage;
+	}
+
+	@Override
+	public GedcomOrderKey createKey(FamilyTreeNode treeNode) {
+		GedcomIndividual individual = treeNode.getNodeValue()[0];
+		GedcomFamily family = treeNode.getFamily();
+
+		int childPosition = -1;
+		int familyPosition = -1;
+
+		if (individual != null) {
+			List<String> famcLinks = individual.getChildFamilyLinks();
+
+			if (famcLinks != null) {
+				for (String familyId : famcLinks) {
+					if (familyId != null && storage.hasFamily(familyId)) {
+						//The first family of the parents
+						List<String> childLinks = storage.getFamily(familyId).getChildLinks();
+
+						if (childLinks != null) {
+							childPosition = childLinks.indexOf(individual.getId());
+						}
+						break;
+					}
+				}
+			}
+
+			List<String> famsLinks = individual.getSpouseFamilyLinks();
+
+			if (family != null && famsLinks != null) {
+				familyPosition = famsLinks.indexOf(family.getId());
+			}
+		}
+
+		return new GedcomOrderKey(childPosition, familyPosition, dateSorter.createKey(treeNode));
+	}
+
+	@Override
+	public int compare(FamilyTreeNode treeNode1, GedcomOrderKey key1, FamilyTreeNode treeNode2,
+			GedcomOrderKey key2) {
+		if (isSameFamily(treeNode1, treeNode2)) {
+			//Same family
+			return 0;
+		}
+
+		int comp = Integer.compare(key1.childPosition, key2.childPosition);
+
+		if (comp != 0) {
+			return comp;
+		}
+
+		comp = Integer.compare(key1.familyPosition, key2.familyPosition);
+
+		if (comp != 0) {
+			return comp;
+		}
+
+		//Same positions -> sort by the dates
+		return dateSorter.compare(treeNode1, key1.dateKey, treeNode2, key2.dateKey);
+	}
+
+
+	/**
+	 * The positions of a node in the GEDCOM data
+	 *
+	 */
+	public static final class GedcomOrderKey {
+
+		private final int childPosition;
+		private final int familyPosition;
+		private final FamilyTreeSortKey dateKey;
+
+		/**
+		 *
+		 *
+		 * @param childPosition
+		 * @param familyPosition
+		 * @param dateKey
+		 */
+		private GedcomOrderKey(int childPosition, int familyPosition, FamilyTreeSortKey dateKey) {
+			this.childPosition = childPosition;
+			this.familyPosition = familyPosition;
+			this.dateKey = dateKey;
+		}
+
+		/**
+		 * The position of the individual in the child links of its parents,
+		 * or -1 if it has no parents
+		 *
+		 * @return
+		 */
+		public int getChildPosition() {
+			return childPosition;
+		}
+
+		/**
+		 * The position of the family in the spouse family links of the
+		 * individual, or -1 if there is no family
+		 *
+		 * @return
+		 */
+		public int getFamilyPosition() {
+			return familyPosition;
+		}
+
+	}
+
+}
@@ -0,0 +1,121 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import ch.thn.gedcom.familytree.FamilyGraphNode;
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+import ch.thn.gedcom.familytree.index.FamilyTreeGraph;
+import ch.thn.gedcom.familytree.index.FamilyTreeIndex;
+
+/**
+ * Sorts the nodes of a tree which has been built from a {@link FamilyTreeGraph}
+ * in the same order as the {@link FamilytreeSorter}, but with the dates and IDs
+ * of the graph. The individuals and families of the nodes therefore do not have
+ * to be loaded for sorting. Other nodes are sorted by the {@link FamilytreeSorter}.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyGraphSorter extends FamilytreeSorter {
+
+	/**
+	 *
+	 *
+	 */
+	public FamilyGraphSorter() {
+
+	}
+
+	@Override
+	public int compare(FamilyTreeNode treeNode1, FamilyTreeNode treeNode2) {
+		if (!(treeNode1 instanceof FamilyGraphNode) || !(treeNode2 instanceof FamilyGraphNode)) {
+			return super.compare(treeNode1, treeNode2);
+		}
+
+		FamilyGraphNode node1 = (FamilyGraphNode)treeNode1;
+		FamilyGraphNode node2 = (FamilyGraphNode)treeNode2;
+		FamilyTreeGraph graph = node1.getGraph();
+
+		int indi10 = node1.getIndividual1();
+		int indi11 = node1.getIndividual2();
+
+		int indi20 = node2.getIndividual1();
+		int indi21 = node2.getIndividual2();
+
+		int fam1 = node1.getFamilyNumber();
+		int fam2 = node2.getFamilyNumber();
+
+		//Same steps as in FamilytreeSorter
+		if (fam1 != FamilyTreeIndex.NONE && fam1 == fam2) {
+			//Same family
+			return 0;
+		} else if (indi11 == FamilyTreeIndex.NONE || indi21 == FamilyTreeIndex.NONE) {
+			//One of them or both have no partner -> different family
+		} else if ((indi10 == indi20 && indi11 == indi21)
+				|| (indi10 == indi21 && indi11 == indi20)) {
+			//Same family
+			return 0;
+		}
+
+		int birthBeforeOrAfter = FamilyTreeDates.isBeforeOrAfter(graph.getBirthDate(indi10), graph.getBirthDate(indi20));
+
+		if (birthBeforeOrAfter != 0) {
+			//Sort from old to young
+			return (-1) * birthBeforeOrAfter;
+		}
+
+		if (fam1 == FamilyTreeIndex.NONE || fam2 == FamilyTreeIndex.NONE) {
+			//No marriage dates to compare -> sort by user ID
+			return sortById(graph, indi10, indi11, indi20, indi21);
+		}
+
+		int marriageBeforeOrAfter = FamilyTreeDates.isBeforeOrAfter(graph.getMarriageDate(fam1), graph.getMarriageDate(fam2));
+
+		if (marriageBeforeOrAfter == 0) {
+			//Marriage dates are equal -> sort by user ID
+			return sortById(graph, indi10, indi11, indi20, indi21);
+		}
+
+		return marriageBeforeOrAfter;
+	}
+
+	/**
+	 *
+	 *
+	 * @param graph
+	 * @param indi10
+	 * @param indi11
+	 * @param indi20
+	 * @param indi21
+	 * @return
+	 */
+	private int sortById(FamilyTreeGraph graph, int indi10, int indi11, int indi20, int indi21) {
+		int comp = graph.getNaturalIndividualId(indi10).compareTo(graph.getNaturalIndividualId(indi20));
+
+		if (comp != 0) {
+			return comp;
+		} else {
+			if (indi11 == FamilyTreeIndex.NONE || indi21 == FamilyTreeIndex.NONE) {
+				//At least one partner is missing -> different
+				return 1;
+			}
+
+			return graph.getNaturalIndividualId(indi11).compareTo(graph.getNaturalIndividualId(indi21));
+		}
+	}
+
+}
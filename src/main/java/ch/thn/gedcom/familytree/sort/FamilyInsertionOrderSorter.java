@@ -0,0 +1,48 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+
+/**
+ * Keeps the child nodes in the order in which they are added, which is the
+ * order of the child links and spouse family links of the GEDCOM data when
+ * the tree is built. Nothing is compared while the tree is built: a node
+ * with this sorter numbers its child nodes when they are added and only
+ * checks if the same family has already been added (see
+ * {@link FamilyTreeNode#getSortPosition()}). This is the fastest build
+ * for exports which do not need the child nodes sorted by date.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyInsertionOrderSorter implements FamilyTreeSorter {
+
+	/**
+	 *
+	 *
+	 */
+	public FamilyInsertionOrderSorter() {
+
+	}
+
+	@Override
+	public int compare(FamilyTreeNode treeNode1, FamilyTreeNode treeNode2) {
+		return Integer.compare(treeNode1.getSortPosition(), treeNode2.getSortPosition());
+	}
+
+}
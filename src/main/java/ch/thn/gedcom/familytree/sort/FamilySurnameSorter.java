@@ -0,0 +1,104 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+
+/**
+ * Sorts the families by the surname of the individual which follows the tree,
+ * ignoring the case. Families with the same surname are sorted like the
+ * {@link FamilytreeSorter} sorts them, by birth date, marriage date and ID.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilySurnameSorter extends FamilyTreeKeySorter<FamilySurnameSorter.SurnameKey> {
+
+	private final FamilytreeSorter dateSorter = new FamilytreeSorter();
+
+	/**
+	 *
+	 *
+	 */
+	public FamilySurnameSorter() {
+
+	}
+
+	@Override
+	public SurnameKey createKey(FamilyTreeNode treeNode) {
+		GedcomIndividual individual = treeNode.getNodeValue()[0];
+		String surname = null;
+
+		if (individual != null && individual.getNumberOfNames() > 0) {
+			surname = individual.getSurname(0);
+		}
+
+		return new SurnameKey(surname == null ? "" : surname, dateSorter.createKey(treeNode));
+	}
+
+	@Override
+	public int compare(FamilyTreeNode treeNode1, SurnameKey key1, FamilyTreeNode treeNode2,
+			SurnameKey key2) {
+		if (isSameFamily(treeNode1, treeNode2)) {
+			//Same family
+			return 0;
+		}
+
+		int comp = String.CASE_INSENSITIVE_ORDER.compare(key1.surname, key2.surname);
+
+		if (comp != 0) {
+			return comp;
+		}
+
+		//Same surname -> sort by the dates
+		return dateSorter.compare(treeNode1, key1.dateKey, treeNode2, key2.dateKey);
+	}
+
+
+	/**
+	 * The surname and the dates of a node
+	 *
+	 */
+	public static final class SurnameKey {
+
+		private final String surname;
+		private final FamilyTreeSortKey dateKey;
+
+		/**
+		 *
+		 *
+		 * @param surname
+		 * @param dateKey
+		 */
+		private SurnameKey(String surname, FamilyTreeSortKey dateKey) {
+			this.surname = surname;
+			this.dateKey = dateKey;
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		public String getSurname() {
+			return surname;
+		}
+
+	}
+
+}
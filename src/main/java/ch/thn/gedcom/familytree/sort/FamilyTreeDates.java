@@ -0,0 +1,89 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import java.util.Date;
+
+import ch.thn.gedcom.GedcomHelper;
+import ch.thn.gedcom.familytree.GedcomDateCache;
+
+/**
+ * Dates as primitive keys (milliseconds of the parsed GEDCOM date), which can
+ * be kept in arrays and compared without parsing the GEDCOM date again. The
+ * comparison gives the same results as {@link GedcomHelper#isBeforeOrAfter(Date, Date)}
+ * with the parsed dates.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public final class FamilyTreeDates {
+
+	/** The key of a missing or invalid date */
+	public static final long NO_DATE = Long.MIN_VALUE;
+
+	//The results of GedcomHelper.isBeforeOrAfter: 1 if the first date is 
+	//before the second one, -1 if it is after the second one. A missing date 
+	//counts as after any date, two missing dates are equal.
+	static final int BEFORE = 1;
+	static final int AFTER = -1;
+	static final int NO_DATE_FIRST = -1;
+	static final int NO_DATE_SECOND = 1;
+	static final int NO_DATES = 0;
+
+
+	/**
+	 *
+	 *
+	 */
+	private FamilyTreeDates() {
+
+	}
+
+	/**
+	 * Parses the GEDCOM date, or reads it from the shared {@link GedcomDateCache}
+	 * if it has already been parsed
+	 *
+	 * @param gedcomDate
+	 * @return The key of the date or {@link #NO_DATE}
+	 */
+	public static long toKey(String gedcomDate) {
+		return GedcomDateCache.getShared().getTime(gedcomDate, NO_DATE);
+	}
+
+	/**
+	 * Same as {@link GedcomHelper#isBeforeOrAfter(Date, Date)} with the dates
+	 * of the given keys
+	 *
+	 * @param date1
+	 * @param date2
+	 * @return
+	 */
+	public static int isBeforeOrAfter(long date1, long date2) {
+		if (date1 == NO_DATE) {
+			return date2 == NO_DATE ? NO_DATES : NO_DATE_FIRST;
+		} else if (date2 == NO_DATE) {
+			return NO_DATE_SECOND;
+		} else if (date1 < date2) {
+			return BEFORE;
+		} else if (date1 > date2) {
+			return AFTER;
+		}
+
+		return 0;
+	}
+
+}
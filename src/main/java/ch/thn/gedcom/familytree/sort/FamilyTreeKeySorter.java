@@ -0,0 +1,97 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+
+/**
+ * A sorter which compares the nodes by a key. The key of a node is created
+ * with {@link #createKey(FamilyTreeNode)} the first time the node is compared
+ * and kept in the node (see {@link FamilyTreeNode#getSortKey(FamilyTreeKeySorter)}).
+ * The dates, names or IDs of a node therefore only have to be read and parsed
+ * once, and not for every comparison while the tree is built or sorted again.<br>
+ * <br>
+ * Like every {@link FamilyTreeSorter}, the comparison has to return 0 for two
+ * nodes of the same family (see {@link #isSameFamily(FamilyTreeNode, FamilyTreeNode)})
+ * and must not return 0 for two different families, since nodes which are
+ * equal are only added once.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ * @param <K> The type of the keys
+ */
+public abstract class FamilyTreeKeySorter<K> implements FamilyTreeSorter {
+
+	/**
+	 * Creates the key of the given node. The key must only depend on the node
+	 * and on this sorter, since it is only created once per node.
+	 *
+	 * @param treeNode
+	 * @return
+	 */
+	public abstract K createKey(FamilyTreeNode treeNode);
+
+	/**
+	 * Compares the two nodes by their keys
+	 *
+	 * @param treeNode1
+	 * @param key1 The key of treeNode1
+	 * @param treeNode2
+	 * @param key2 The key of treeNode2
+	 * @return
+	 */
+	public abstract int compare(FamilyTreeNode treeNode1, K key1, FamilyTreeNode treeNode2, K key2);
+
+	@Override
+	public int compare(FamilyTreeNode treeNode1, FamilyTreeNode treeNode2) {
+		return compare(treeNode1, treeNode1.getSortKey(this), treeNode2, treeNode2.getSortKey(this));
+	}
+
+	/**
+	 * Returns <code>true</code> if the two nodes show the same family: either
+	 * both have the same family, or both show the same two individuals.
+	 *
+	 * @param treeNode1
+	 * @param treeNode2
+	 * @return
+	 */
+	protected static boolean isSameFamily(FamilyTreeNode treeNode1, FamilyTreeNode treeNode2) {
+		GedcomFamily fam1 = treeNode1.getFamily();
+		GedcomFamily fam2 = treeNode2.getFamily();
+
+		if (fam1 != null && fam2 != null && fam1 == fam2) {
+			return true;
+		}
+
+		GedcomIndividual indi10 = treeNode1.getNodeValue()[0];
+		GedcomIndividual indi11 = treeNode1.getNodeValue()[1];
+
+		GedcomIndividual indi20 = treeNode2.getNodeValue()[0];
+		GedcomIndividual indi21 = treeNode2.getNodeValue()[1];
+
+		if (indi11 == null || indi21 == null) {
+			//One of them or both have no partner -> different family
+			return false;
+		}
+
+		return (indi10 == indi20 && indi11 == indi21)
+				|| (indi10 == indi21 && indi11 == indi20);
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+import ch.thn.gedcom.familytree.sort.NaturalIdComparator.NaturalId;
+
+/**
+ * The dates and IDs of a {@link FamilyTreeNode} which are used for sorting,
+ * parsed once and kept as primitive keys (see {@link FamilyTreeDates}) and
+ * split IDs (see {@link NaturalIdComparator}).
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public final class FamilyTreeSortKey {
+
+	private final long birthDate;
+	private final long marriageDate;
+	private final NaturalId individualId;
+	private final NaturalId partnerId;
+
+	/**
+	 *
+	 *
+	 * @param birthDate
+	 * @param marriageDate
+	 * @param individualId
+	 * @param partnerId
+	 */
+	public FamilyTreeSortKey(long birthDate, long marriageDate, NaturalId individualId,
+			NaturalId partnerId) {
+		this.birthDate = birthDate;
+		this.marriageDate = marriageDate;
+		this.individualId = individualId;
+		this.partnerId = partnerId;
+	}
+
+	/**
+	 * Creates the key of a node
+	 *
+	 * @param individual The individual which follows the tree
+	 * @param partner The partner, or <code>null</code>
+	 * @param family The family of the node, or <code>null</code>
+	 * @return
+	 */
+	public static FamilyTreeSortKey create(GedcomIndividual individual, GedcomIndividual partner,
+			GedcomFamily family) {
+		return new FamilyTreeSortKey(
+				individual == null ? FamilyTreeDates.NO_DATE : FamilyTreeDates.toKey(individual.getBirthDate()),
+				family == null ? FamilyTreeDates.NO_DATE : FamilyTreeDates.toKey(family.getMarriageDate()),
+				individual == null ? null : NaturalIdComparator.parse(individual.getId()),
+				partner == null ? null : NaturalIdComparator.parse(partner.getId()));
+	}
+
+	/**
+	 * The birth date of the individual which follows the tree
+	 *
+	 * @return
+	 */
+	public long getBirthDate() {
+		return birthDate;
+	}
+
+	/**
+	 * The marriage date of the family of the node
+	 *
+	 * @return
+	 */
+	public long getMarriageDate() {
+		return marriageDate;
+	}
+
+	/**
+	 * The ID of the individual which follows the tree
+	 *
+	 * @return
+	 */
+	public NaturalId getIndividualId() {
+		return individualId;
+	}
+
+	/**
+	 * The ID of the partner, or <code>null</code> if there is no partner
+	 *
+	 * @return
+	 */
+	public NaturalId getPartnerId() {
+		return partnerId;
+	}
+
+}
@@ -16,21 +16,21 @@
  */
 package ch.thn.gedcom.familytree.sort;
 
-import ch.thn.gedcom.GedcomFormatter;
-import ch.thn.gedcom.GedcomHelper;
-import ch.thn.gedcom.creator.structures.GedcomFamily;
 import ch.thn.gedcom.creator.structures.GedcomIndividual;
 import ch.thn.gedcom.familytree.FamilyTreeNode;
 
 /**
  * Sorts the families according to the birth date of the individual which follows 
- * the tree. If the birth date is the same, the marriage date is used.
- * 
+ * the tree. If the birth date is the same, the marriage date is used.<br>
+ * <br>
+ * The dates and IDs of a node are parsed once into its {@link FamilyTreeSortKey}.
  *
  * @author Thomas Naeff (github.com/thnaeff)
  *
  */
-public class FamilytreeSorter implements FamilyTreeSorter {
+public class FamilytreeSorter extends FamilyTreeKeySorter<FamilyTreeSortKey> {
+	
+	private static final NaturalIdComparator ID_COMPARATOR = new NaturalIdComparator();
 	
 	/**
 	 * 
@@ -41,42 +41,29 @@ public class FamilytreeSorter implements FamilyTreeSorter {
 	}
 
 	@Override
-	public int compare(FamilyTreeNode treeNode1, FamilyTreeNode treeNode2) {
+	public FamilyTreeSortKey createKey(FamilyTreeNode treeNode) {
+		return FamilyTreeSortKey.create(treeNode.getNodeValue()[0], treeNode.getNodeValue()[1],
+				treeNode.getFamily());
+	}
+
+	@Override
+	public int compare(FamilyTreeNode treeNode1, FamilyTreeSortKey key1, 
+			FamilyTreeNode treeNode2, FamilyTreeSortKey key2) {
 		//This method does not only need to compare the birth dates, but it has to 
 		//determine if two families are equal or not.
 		//This is necessary since Guavas TreeMultiset (which is used in the FamilyTreeNode 
 		//as backing set for the child nodes) counts any elements as equal if they 
 		//return equal with this compare method.
 		
-		
-		GedcomIndividual indi10 = treeNode1.getNodeValue()[0];
-		GedcomIndividual indi11 = treeNode1.getNodeValue()[1];
-		
-		GedcomIndividual indi20 = treeNode2.getNodeValue()[0];
-		GedcomIndividual indi21 = treeNode2.getNodeValue()[1];
-		
-		GedcomFamily fam1 = treeNode1.getFamily();
-		GedcomFamily fam2 = treeNode2.getFamily();
-		
 		//Compare families if both nodes have families. Compare individuals otherwise
-		if (fam1 != null && fam2 != null && fam1 == fam2) {
-			//Same family
-			return 0;
-		} else if (indi11 == null || indi21 == null) {
-			//One of them or both have no partner -> different family
-			
-			//It could be gone into more detail here by comparing the children of 
-			//the families
-			
-		} else if ((indi10 == indi20 && indi11 == indi21) 
-				|| (indi10 == indi21 && indi11 == indi20)) {
+		if (isSameFamily(treeNode1, treeNode2)) {
 			//Same family
 			return 0;
 		}
 		
 		//Sort by birth date of the first individual (the first individual is the 
 		//one which follows the family tree. The second individual is the partner).
-		int birthBeforeOrAfter = GedcomHelper.isBeforeOrAfter(GedcomFormatter.getDateFromGedcom(indi10.getBirthDate()), GedcomFormatter.getDateFromGedcom(indi20.getBirthDate()));
+		int birthBeforeOrAfter = FamilyTreeDates.isBeforeOrAfter(key1.getBirthDate(), key2.getBirthDate());
 		
 		//If the birth dates are not equal, they are not the same person
 		if (birthBeforeOrAfter != 0) {
@@ -87,22 +74,46 @@ public class FamilytreeSorter implements FamilyTreeSorter {
 		//The birth dates are equal, but they are not the same family
 		//-> try to compare the marriage dates
 		
-		if (fam1 == null || fam2 == null) {
+		if (treeNode1.getFamily() == null || treeNode2.getFamily() == null) {
 			//No marriage dates to compare -> sort by user ID
-			return sortById(indi10, indi11, indi20, indi21);
+			return sortById(key1, key2);
 		}
 		
-		int marriageBeforeOrAfter = GedcomHelper.isBeforeOrAfter(GedcomFormatter.getDateFromGedcom(fam1.getMarriageDate()), GedcomFormatter.getDateFromGedcom(fam2.getMarriageDate()));
+		int marriageBeforeOrAfter = FamilyTreeDates.isBeforeOrAfter(key1.getMarriageDate(), key2.getMarriageDate());
 		
 		
 		if (marriageBeforeOrAfter == 0) {
 			//Marriage dates are equal -> sort by user ID
-			return sortById(indi10, indi11, indi20, indi21);
+			return sortById(key1, key2);
 		}
 		
 		return marriageBeforeOrAfter;
 	}
 	
+	/**
+	 * 
+	 * 
+	 * @param key1
+	 * @param key2
+	 * @return
+	 */
+	private int sortById(FamilyTreeSortKey key1, FamilyTreeSortKey key2) {
+		
+		int comp = key1.getIndividualId().compareTo(key2.getIndividualId());
+		
+		if (comp != 0) {
+			return comp;
+		} else {
+			if (key1.getPartnerId() == null || key2.getPartnerId() == null) {
+				//At least one partner is missing -> different
+				return 1;
+			}
+			
+			return key1.getPartnerId().compareTo(key2.getPartnerId());
+		}
+		
+	}
+	
 	/**
 	 * 
 	 * 
@@ -112,28 +123,10 @@ public class FamilytreeSorter implements FamilyTreeSorter {
 	 * @param indi21
 	 * @return
 	 */
-	private int sortById(GedcomIndividual indi10, GedcomIndividual indi11, 
+	protected int sortById(GedcomIndividual indi10, GedcomIndividual indi11, 
 			GedcomIndividual indi20, GedcomIndividual indi21) {
 		
-		//Tries to order by integer ID. If not an integer, order lexicographically
-		
-		String id1 = indi10.getId();
-		String id2 = indi20.getId();
-		
-		int comp = 0;
-		
-		try {
-			int idNum1 = Integer.parseInt(id1);
-			int idNum2 = Integer.parseInt(id2);
-			comp = Integer.compare(idNum1, idNum2);
-		} catch (NumberFormatException e) {
-			//Not integers (or invalid integers)
-			
-			//Compares the ID's lexicographically. This gives at least some ordering 
-			//(an individual with a higher ID has most likely been added later), 
-			//but it would still order I700 after I1000 (since 7 > 1)
-			comp = id1.compareTo(id2);
-		}
+		int comp = compareIds(indi10.getId(), indi20.getId());
 		
 		if (comp != 0) {
 			return comp;
@@ -143,19 +136,24 @@ public class FamilytreeSorter implements FamilyTreeSorter {
 				return 1;
 			}
 			
-			id1 = indi11.getId();
-			id2 = indi21.getId();
-			
-			try {
-				int idNum1 = Integer.parseInt(id1);
-				int idNum2 = Integer.parseInt(id2);
-				return Integer.compare(idNum1, idNum2);
-			} catch (NumberFormatException e) {
-				//Not integers (or invalid integers)
-				return id1.compareTo(id2);
-			}
+			return compareIds(indi11.getId(), indi21.getId());
 		}
 		
 	}
 	
+	/**
+	 * 
+	 * 
+	 * @param id1
+	 * @param id2
+	 * @return
+	 */
+	protected static int compareIds(String id1, String id2) {
+		
+		//Orders by the prefix and then by the number at the end, which puts 
+		//I700 before I1000
+		return ID_COMPARATOR.compare(id1, id2);
+		
+	}
+	
 }
@@ -0,0 +1,144 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import java.util.Comparator;
+
+/**
+ * Compares IDs in their natural order: an ID is split into a prefix and the
+ * number at its end, IDs with the same prefix are ordered by their number.
+ * "I700" therefore comes before "I1000", and plain numbers are ordered as
+ * numbers. IDs without a number at the end are ordered by their prefix.<br>
+ * <br>
+ * This comparator splits both IDs on each comparison. Where the same IDs are
+ * compared many times, the IDs should be split once with {@link #parse(String)}
+ * and the {@link NaturalId}s kept and compared instead (like the
+ * {@link FamilyTreeSortKey} of a node does).
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class NaturalIdComparator implements Comparator<String> {
+
+	//More digits do not fit into a long
+	private static final int MAX_DIGITS = 18;
+
+	/**
+	 *
+	 *
+	 */
+	public NaturalIdComparator() {
+
+	}
+
+	@Override
+	public int compare(String id1, String id2) {
+		return parse(id1).compareTo(parse(id2));
+	}
+
+	/**
+	 * Splits the ID into its prefix and the number at its end
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static NaturalId parse(String id) {
+		if (id == null) {
+			id = "";
+		}
+
+		int start = id.length();
+
+		while (start > 0 && Character.isDigit(id.charAt(start - 1))) {
+			start--;
+		}
+
+		int digits = id.length() - start;
+
+		if (digits == 0 || digits > MAX_DIGITS) {
+			//No number (or a number which is too long) -> only a prefix
+			return new NaturalId(id, id, -1);
+		}
+
+		long number = 0;
+
+		for (int i = start; i < id.length(); i++) {
+			number = number * 10 + Character.digit(id.charAt(i), 10);
+		}
+
+		return new NaturalId(id, id.substring(0, start), number);
+	}
+
+
+	/**
+	 * An ID split into its prefix and the number at its end
+	 *
+	 */
+	public static final class NaturalId implements Comparable<NaturalId> {
+
+		private final String id;
+		private final String prefix;
+		private final long number;
+
+		/**
+		 *
+		 *
+		 * @param id
+		 * @param prefix
+		 * @param number The number or -1 if there is no number
+		 */
+		private NaturalId(String id, String prefix, long number) {
+			this.id = id;
+			this.prefix = prefix;
+			this.number = number;
+		}
+
+		/**
+		 *
+		 *
+		 * @return
+		 */
+		public String getId() {
+			return id;
+		}
+
+		@Override
+		public int compareTo(NaturalId other) {
+			int comp = prefix.compareTo(other.prefix);
+
+			if (comp != 0) {
+				return comp;
+			}
+
+			comp = Long.compare(number, other.number);
+
+			if (comp != 0) {
+				return comp;
+			}
+
+			//Same number with different leading zeros
+			return id.compareTo(other.id);
+		}
+
+		@Override
+		public String toString() {
+			return id;
+		}
+
+	}
+
+}
@@ -0,0 +1,444 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.GedcomEnums.Sex;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.familytree.printer.FamilytreeTextPrinter;
+import ch.thn.gedcom.store.GedcomParseException;
+import ch.thn.gedcom.store.GedcomStore;
+
+/**
+ * Creates generated individuals and families for the tests and benchmarks.
+ * All individuals have IDs like <code>I1</code>, all families IDs like
+ * <code>F1</code>. The root individual always is <code>I1</code>.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeTestData {
+
+  public static final String ROOT_ID = "I1";
+
+  private static final String[] MONTHS = new String[] {"JAN", "FEB", "MAR", "APR",
+      "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+  private final GedcomStore store;
+  private final GedcomCreatorStructureStorage storage;
+
+  private int individualCount = 0;
+  private int familyCount = 0;
+
+  /**
+   *
+   *
+   */
+  public FamilyTreeTestData() {
+    this.store = createStore();
+    this.storage = new GedcomCreatorStructureStorage();
+  }
+
+  /**
+   * Creates a store with the GEDCOM 5.5.1 grammar loaded
+   *
+   * @return
+   */
+  public static GedcomStore createStore() {
+    GedcomStore store = new GedcomStore();
+    store.showParsingOutput(false);
+
+    try {
+      store.parse(store.getClass().getResource("/gedcomobjects_5.5.1.gedg").getPath());
+    } catch (GedcomParseException e) {
+      throw new IllegalStateException("Failed to load the GEDCOM grammar", e);
+    }
+
+    return store;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public GedcomStore getStore() {
+    return store;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public GedcomCreatorStructureStorage getStorage() {
+    return storage;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getIndividualCount() {
+    return individualCount;
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  public int getFamilyCount() {
+    return familyCount;
+  }
+
+  /**
+   * Creates a tree where every family has the given number of children. Each
+   * child is married to a new individual from outside of the tree.
+   *
+   * @param generations
+   * @param childrenPerFamily
+   * @return
+   */
+  public FamilyTreeTestData createWideTree(int generations, int childrenPerFamily) {
+    GedcomIndividual root = createIndividual(Sex.MALE, 0);
+    storage.addIndividual(root);
+
+    addDescendants(root, 1, generations, childrenPerFamily);
+
+    return this;
+  }
+
+  /**
+   * Creates a single line of descendants where each individual has exactly
+   * one child
+   *
+   * @param generations
+   * @return
+   */
+  public FamilyTreeTestData createDeepTree(int generations) {
+    GedcomIndividual parent = createIndividual(Sex.MALE, 0);
+    storage.addIndividual(parent);
+
+    for (int i = 1; i < generations; i++) {
+      GedcomIndividual partner = createIndividual(Sex.FEMALE, i);
+      GedcomIndividual child = createIndividual(Sex.MALE, i);
+      storage.addIndividual(partner);
+      storage.addIndividual(child);
+
+      addFamily(parent, partner, i).addChildLink(child.getId());
+      child.addChildFamilyLink("F" + familyCount);
+
+      parent = child;
+    }
+
+    return this;
+  }
+
+  /**
+   * Creates a single line of descendants where the last descendant is linked
+   * as parent of the first individual, which makes the first individual its
+   * own ancestor
+   *
+   * @param generations
+   * @return
+   */
+  public FamilyTreeTestData createLoopTree(int generations) {
+    createDeepTree(generations);
+
+    GedcomIndividual root = storage.getIndividual(ROOT_ID);
+    GedcomIndividual last = storage.getIndividual("I" + individualCount);
+    GedcomIndividual partner = createIndividual(Sex.FEMALE, generations);
+    storage.addIndividual(partner);
+
+    addFamily(last, partner, generations).addChildLink(root.getId());
+    root.addChildFamilyLink("F" + familyCount);
+
+    return this;
+  }
+
+  /**
+   * Creates two lines of descendants of the root individual which meet again
+   * when two cousins marry. The family of the cousins therefore appears twice
+   * in the tree, once under each cousin.<br>
+   * <br>
+   * Root + partner -&gt; A, B<br>
+   * A + partner -&gt; C<br>
+   * B + partner -&gt; D<br>
+   * C + D -&gt; E<br>
+   * E + partner -&gt; two children
+   *
+   * @return
+   */
+  public FamilyTreeTestData createCousinMarriage() {
+    GedcomIndividual root = createIndividual(Sex.MALE, 0);
+    GedcomIndividual a = createIndividual(Sex.MALE, 1);
+    GedcomIndividual b = createIndividual(Sex.FEMALE, 1);
+    GedcomIndividual c = createIndividual(Sex.MALE, 2);
+    GedcomIndividual d = createIndividual(Sex.FEMALE, 2);
+    GedcomIndividual e = createIndividual(Sex.MALE, 3);
+
+    for (GedcomIndividual indi : new GedcomIndividual[] {root, a, b, c, d, e}) {
+      storage.addIndividual(indi);
+    }
+
+    addChildren(addFamily(root, addPartner(root, 0), 0), a, b);
+    addChildren(addFamily(a, addPartner(a, 1), 1), c);
+    addChildren(addFamily(b, addPartner(b, 1), 1), d);
+    addChildren(addFamily(c, d, 2), e);
+
+    GedcomIndividual grandChild1 = createIndividual(Sex.MALE, 4);
+    GedcomIndividual grandChild2 = createIndividual(Sex.FEMALE, 4);
+    storage.addIndividual(grandChild1);
+    storage.addIndividual(grandChild2);
+    addChildren(addFamily(e, addPartner(e, 3), 3), grandChild1, grandChild2);
+
+    return this;
+  }
+
+  /**
+   * Creates the ancestors of the root individual where every generation only
+   * has two couples A and B. The husband of A and the wife of B are the
+   * children of the A couple of the generation above, the wife of A and the
+   * husband of B are the children of the B couple above. The number of
+   * ancestor slots doubles with every generation, but there are only two
+   * different ancestor families per generation.
+   *
+   * @param generations The number of ancestor generations
+   * @return
+   */
+  public FamilyTreeTestData createPedigreeCollapse(int generations) {
+    GedcomIndividual root = createIndividual(Sex.MALE, generations);
+    storage.addIndividual(root);
+
+    GedcomIndividual[] coupleA = null;
+    GedcomIndividual[] coupleB = null;
+
+    for (int i = 1; i <= generations; i++) {
+      GedcomIndividual[] parentsA = addCouple(generations - i);
+      GedcomIndividual[] parentsB = addCouple(generations - i);
+
+      if (coupleA == null) {
+        addChildren(storage.getFamily("F" + (familyCount - 1)), root);
+      } else {
+        addChildren(storage.getFamily("F" + (familyCount - 1)), coupleA[0], coupleB[1]);
+        addChildren(storage.getFamily("F" + familyCount), coupleA[1], coupleB[0]);
+      }
+
+      coupleA = parentsA;
+      coupleB = parentsB;
+    }
+
+    return this;
+  }
+
+  /**
+   *
+   *
+   * @param generation
+   * @return The husband and the wife
+   */
+  private GedcomIndividual[] addCouple(int generation) {
+    GedcomIndividual husband = createIndividual(Sex.MALE, generation);
+    GedcomIndividual wife = createIndividual(Sex.FEMALE, generation);
+    storage.addIndividual(husband);
+    storage.addIndividual(wife);
+    addFamily(husband, wife, generation);
+
+    return new GedcomIndividual[] {husband, wife};
+  }
+
+  /**
+   *
+   *
+   * @param indi
+   * @param generation
+   * @return
+   */
+  private GedcomIndividual addPartner(GedcomIndividual indi, int generation) {
+    GedcomIndividual partner = createIndividual(indi.getSex() == Sex.MALE ? Sex.FEMALE : Sex.MALE, generation);
+    storage.addIndividual(partner);
+    return partner;
+  }
+
+  /**
+   *
+   *
+   * @param family
+   * @param children
+   */
+  private static void addChildren(GedcomFamily family, GedcomIndividual... children) {
+    for (GedcomIndividual child : children) {
+      family.addChildLink(child.getId());
+      child.addChildFamilyLink(family.getId());
+    }
+  }
+
+  /**
+   *
+   *
+   * @param parent
+   * @param generation
+   * @param generations
+   * @param childrenPerFamily
+   */
+  private void addDescendants(GedcomIndividual parent, int generation,
+      int generations, int childrenPerFamily) {
+    if (generation >= generations) {
+      return;
+    }
+
+    Sex partnerSex = (parent.getSex() == Sex.MALE ? Sex.FEMALE : Sex.MALE);
+    GedcomIndividual partner = createIndividual(partnerSex, generation);
+    storage.addIndividual(partner);
+
+    GedcomFamily family = addFamily(parent, partner, generation);
+
+    for (int i = 0; i < childrenPerFamily; i++) {
+      GedcomIndividual child = createIndividual(i % 2 == 0 ? Sex.MALE : Sex.FEMALE, generation);
+      child.addChildFamilyLink(family.getId());
+      family.addChildLink(child.getId());
+      storage.addIndividual(child);
+
+      addDescendants(child, generation + 1, generations, childrenPerFamily);
+    }
+  }
+
+  /**
+   *
+   *
+   * @param sex
+   * @param generation
+   * @return
+   */
+  private GedcomIndividual createIndividual(Sex sex, int generation) {
+    individualCount++;
+
+    GedcomIndividual indi = new GedcomIndividual(store, "I" + individualCount);
+    indi.setSex(sex);
+    indi.addName("Name" + (individualCount % 97), new String[] {"Given" + individualCount});
+    indi.setBirth(true, createDate(generation, individualCount));
+
+    return indi;
+  }
+
+  /**
+   *
+   *
+   * @param indi1
+   * @param indi2
+   * @param generation
+   * @return
+   */
+  private GedcomFamily addFamily(GedcomIndividual indi1, GedcomIndividual indi2, int generation) {
+    familyCount++;
+
+    String familyId = "F" + familyCount;
+    GedcomFamily family = new GedcomFamily(store, familyId);
+
+    if (indi1.getSex() == Sex.FEMALE) {
+      family.setHusbandLink(indi2.getId());
+      family.setWifeLink(indi1.getId());
+    } else {
+      family.setHusbandLink(indi1.getId());
+      family.setWifeLink(indi2.getId());
+    }
+
+    family.setMarried(true, createDate(generation, familyCount));
+
+    indi1.addSpouseFamilyLink(familyId);
+    indi2.addSpouseFamilyLink(familyId);
+
+    storage.addFamily(family);
+
+    return family;
+  }
+
+  /**
+   * Creates a GEDCOM date. Dates repeat every now and then so that the sorter
+   * also has to compare marriage dates and IDs.
+   *
+   * @param generation
+   * @param number
+   * @return
+   */
+  private static String createDate(int generation, int number) {
+    return ((number % 28) + 1) + " " + MONTHS[number % 12] + " " + (1700 + generation * 25 + number % 7);
+  }
+
+  /**
+   * Prints the current tree of the given builder with all the details, which
+   * makes it possible to compare two trees
+   *
+   * @param toFamilyTree
+   * @return
+   */
+  public static String printTree(FamilyTreeBuilder toFamilyTree) {
+    FamilytreeTextPrinter printer = new FamilytreeTextPrinter(false, true, true, true,
+        true, true, true, true, true, true, true, true, true, true);
+    return printer.print(toFamilyTree).toString();
+  }
+
+  /**
+   * Prints a tree which has been built by
+   * {@link GedcomToFamilyTree#buildFamilyTrees(java.util.Collection)}
+   *
+   * @param storage
+   * @param familyTree
+   * @return
+   */
+  public static String printTree(GedcomCreatorStructureStorage storage, final FamilyTree familyTree) {
+    return printTree(new GedcomToFamilyTree(storage) {
+
+      @Override
+      public FamilyTree getFamilyTree() {
+        return familyTree;
+      }
+    });
+  }
+
+  /**
+   * Returns the IDs of the first individuals of all the nodes. The list
+   * follows the order of the child nodes of the tree itself.
+   *
+   * @param treeNode
+   * @return
+   */
+  public static List<String> getIds(FamilyTreeNode treeNode) {
+    List<String> ids = new ArrayList<>();
+    List<FamilyTreeNode> nodes = new ArrayList<>();
+    nodes.add(treeNode);
+
+    while (!nodes.isEmpty()) {
+      FamilyTreeNode node = nodes.remove(nodes.size() - 1);
+      List<FamilyTreeNode> children = new ArrayList<>(node.getChildNodes());
+
+      for (int i = children.size() - 1; i >= 0; i--) {
+        ids.add(children.get(i).getNodeValue()[0].getId());
+        nodes.add(children.get(i));
+      }
+    }
+
+    return ids;
+  }
+
+}
@@ -0,0 +1,153 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ch.thn.gedcom.GedcomFormatter;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintBuilder;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomDateCacheTest {
+
+  private static final String[] DATES = {"1 JAN 1900", "15 MAR 1850", "1850", "invalid", ""};
+
+
+  @Test
+  public void sameResultsAsFormatter() {
+    GedcomDateCache cache = new GedcomDateCache(100);
+
+    for (int i = 0; i < 2; i++) {
+      for (String date : DATES) {
+        assertEquals(GedcomFormatter.getDateFromGedcom(date), cache.getDate(date));
+        assertEquals(GedcomFormatter.convertGedcomDate(date, FamilyTreePrintBuilder.dateFormatYear,
+            FamilyTreePrintBuilder.dateFormatYearMonth, FamilyTreePrintBuilder.dateFormatYearMonthDay),
+            cache.format(date, FamilyTreePrintBuilder.dateFormatYear,
+                FamilyTreePrintBuilder.dateFormatYearMonth, FamilyTreePrintBuilder.dateFormatYearMonthDay));
+      }
+    }
+
+    assertNull(cache.getDate(null));
+    assertEquals(-1, cache.getTime("invalid", -1));
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    GedcomDateCache cache = new GedcomDateCache(100);
+
+    cache.getDate("1 JAN 1900");
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+
+    cache.getTime("1 JAN 1900", -1);
+    assertEquals(1, cache.getHitCount());
+
+    //The date has been parsed, but not formatted yet
+    cache.format("1 JAN 1900", "yyyy", "MM.yyyy", "dd.MM.yyyy");
+    assertEquals(2, cache.getMissCount());
+
+    cache.format("1 JAN 1900", "yyyy", "MM.yyyy", "dd.MM.yyyy");
+    assertEquals(2, cache.getHitCount());
+
+    //Other formats are formatted again
+    assertEquals("1900", cache.format("1 JAN 1900", "yyyy", "yyyy", "yyyy"));
+    assertEquals(3, cache.getMissCount());
+
+    cache.clear();
+    assertEquals(0, cache.getSize());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(0, cache.getMissCount());
+  }
+
+  @Test
+  public void sizeIsBounded() {
+    GedcomDateCache cache = new GedcomDateCache(10);
+
+    for (int i = 0; i < 100; i++) {
+      cache.getDate("1 JAN " + (1800 + i));
+      assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+
+    assertEquals(100, cache.getMissCount());
+  }
+
+  @Test
+  public void fullCacheOnlyRemovesOldDates() {
+    GedcomDateCache cache = new GedcomDateCache(1000);
+
+    for (int i = 0; i < 5000; i++) {
+      cache.getDate(i % 28 + 1 + " JAN " + (1000 + i / 28));
+    }
+
+    //Not cleared, only the least recently used dates have been removed
+    assertEquals(1000, cache.getSize());
+
+    long misses = cache.getMissCount();
+    cache.getDate("10 JAN " + (1000 + 4990 / 28));
+    assertEquals(misses, cache.getMissCount());
+  }
+
+  @Test
+  public void leastRecentlyUsedDateIsRemoved() {
+    GedcomDateCache cache = new GedcomDateCache(1);
+
+    cache.getDate("1 JAN 1900");
+    cache.getDate("2 JAN 1900");
+    cache.getDate("2 JAN 1900");
+    assertEquals(1, cache.getHitCount());
+
+    cache.getDate("1 JAN 1900");
+    assertEquals(3, cache.getMissCount());
+  }
+
+  @Test
+  public void maxSizeCanBeChanged() {
+    GedcomDateCache cache = new GedcomDateCache(100);
+
+    for (int i = 0; i < 100; i++) {
+      cache.getDate("1 JAN " + (1800 + i));
+    }
+
+    cache.setMaxSize(10);
+    assertEquals(10, cache.getMaxSize());
+    assertTrue(cache.getSize() <= 10);
+  }
+
+  @Test
+  public void eachFormatIsCached() {
+    GedcomDateCache cache = new GedcomDateCache(100);
+    cache.getDate("1 JAN 1900");
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals("01.01.1900", cache.format("1 JAN 1900", "yyyy", "MM.yyyy", "dd.MM.yyyy"));
+      assertEquals("1900", cache.format("1 JAN 1900", "yyyy", "yyyy", "yyyy"));
+    }
+
+    //Both formats have only been formatted once
+    assertEquals(3, cache.getMissCount());
+    assertEquals(4, cache.getHitCount());
+  }
+
+}
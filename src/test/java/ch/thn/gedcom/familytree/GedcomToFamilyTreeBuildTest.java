@@ -0,0 +1,706 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.store.GedcomStore;
+
+import ch.thn.gedcom.familytree.index.FamilyTreeComponent;
+import ch.thn.gedcom.familytree.index.FamilyTreeGraph;
+import ch.thn.gedcom.familytree.index.FamilyTreeIndex;
+import ch.thn.gedcom.familytree.index.GedcomRecordLoader;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrinterUtil;
+import ch.thn.gedcom.familytree.printer.FamilytreeTextPrinter;
+import ch.thn.gedcom.familytree.sort.FamilyGedcomOrderSorter;
+import ch.thn.gedcom.familytree.sort.FamilySurnameSorter;
+import ch.thn.gedcom.familytree.sort.FamilytreeSorter;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomToFamilyTreeBuildTest {
+
+
+  @Test
+  public void iterativeBuildEqualsRecursiveBuild() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+
+    GedcomToFamilyTree recursive = new GedcomToFamilyTree(data.getStorage());
+    recursive.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree iterative = new GedcomToFamilyTree(data.getStorage());
+    iterative.setIterativeBuild(true);
+    iterative.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.getIds(recursive.getFamilyTree()),
+        FamilyTreeTestData.getIds(iterative.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(recursive), FamilyTreeTestData.printTree(iterative));
+  }
+
+  @Test
+  public void parallelBuildEqualsRecursiveBuild() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(5, 4);
+
+    GedcomToFamilyTree recursive = new GedcomToFamilyTree(data.getStorage());
+    recursive.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    GedcomToFamilyTree parallel = new GedcomToFamilyTree(data.getStorage());
+    parallel.setParallelBuild(pool, 10);
+    parallel.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    pool.shutdown();
+
+    assertEquals(FamilyTreeTestData.getIds(recursive.getFamilyTree()),
+        FamilyTreeTestData.getIds(parallel.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(recursive), FamilyTreeTestData.printTree(parallel));
+  }
+
+  @Test
+  public void iterativeBuildOfDeepTree() {
+    final FamilyTreeTestData data = new FamilyTreeTestData().createDeepTree(20000);
+    final GedcomToFamilyTree iterative = new GedcomToFamilyTree(data.getStorage());
+    iterative.setIterativeBuild(true);
+
+    //A thread with a small stack which would not survive the recursive build
+    final Throwable[] error = new Throwable[1];
+    Thread thread = new Thread(null, new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          iterative.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+        } catch (Throwable e) {
+          error[0] = e;
+        }
+      }
+    }, "small-stack", 64 * 1024);
+
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    assertEquals(null, error[0]);
+  }
+
+  @Test
+  public void sharedSubtreesOfCousinMarriage() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createCousinMarriage();
+
+    GedcomToFamilyTree unshared = new GedcomToFamilyTree(data.getStorage());
+    unshared.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree shared = new GedcomToFamilyTree(data.getStorage());
+    shared.setShareSubtrees(true);
+    shared.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.printTree(unshared), FamilyTreeTestData.printTree(shared));
+
+    //The family of the youngest cousin is shared, which saves its two children
+    assertEquals(1, shared.getSharedNodeCount());
+    assertEquals(2, shared.getSavedNodeCount());
+    assertEquals(0, unshared.getSavedNodeCount());
+  }
+
+  @Test
+  public void updateBuildsSharedTreesAgain() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createCousinMarriage();
+
+    GedcomToFamilyTree shared = new GedcomToFamilyTree(data.getStorage());
+    shared.setShareSubtrees(true);
+    shared.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree hourglass = new GedcomToFamilyTree(data.getStorage());
+    hourglass.setHourglassBuild(true);
+    hourglass.buildFamilyTree("I6");
+
+    FamilyTree sharedTree = shared.getFamilyTree();
+    FamilyTree hourglassTree = hourglass.getFamilyTree();
+
+    //The second child of the root family becomes the oldest one
+    data.getStorage().getIndividual("I3").setBirth(true, "1 JAN 1600");
+
+    for (GedcomToFamilyTree updated : Arrays.asList(shared, hourglass)) {
+      FamilyTree oldTree = (updated == shared ? sharedTree : hourglassTree);
+      FamilyTree newTree = updated.updateFamilyTree(Collections.singletonList("I3"),
+          Collections.<String>emptyList());
+
+      //Built again instead of updated
+      assertNotSame(oldTree, newTree);
+      assertSame(newTree, updated.getFamilyTree());
+    }
+
+    GedcomToFamilyTree built = new GedcomToFamilyTree(data.getStorage());
+    built.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    assertEquals(FamilyTreeTestData.printTree(built), FamilyTreeTestData.printTree(shared));
+    assertEquals(1, shared.getSharedNodeCount());
+
+    GedcomToFamilyTree builtHourglass = new GedcomToFamilyTree(data.getStorage());
+    builtHourglass.setHourglassBuild(true);
+    builtHourglass.buildFamilyTree("I6");
+    assertEquals(FamilyTreeTestData.printTree(builtHourglass), FamilyTreeTestData.printTree(hourglass));
+  }
+
+  @Test
+  public void batchBuildEqualsSingleBuilds() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createCousinMarriage();
+    //The root and its two children
+    List<String> ids = Arrays.asList(FamilyTreeTestData.ROOT_ID, "I2", "I3");
+
+    GedcomToFamilyTree batch = new GedcomToFamilyTree(data.getStorage());
+    Map<String, FamilyTree> familyTrees = batch.buildFamilyTrees(ids);
+
+    assertEquals(ids, new ArrayList<>(familyTrees.keySet()));
+
+    for (String id : ids) {
+      GedcomToFamilyTree single = new GedcomToFamilyTree(data.getStorage());
+      single.buildFamilyTree(id);
+
+      assertEquals(FamilyTreeTestData.printTree(single),
+          FamilyTreeTestData.printTree(data.getStorage(), familyTrees.get(id)));
+    }
+
+    //The subtrees of the children are in more than one tree
+    assertTrue(batch.getSharedNodeCount() > 0);
+    assertTrue(batch.getSavedNodeCount() > 0);
+    //The tree of the builder is not changed by the batch
+    assertEquals(null, batch.getFamilyTree());
+  }
+
+  @Test
+  public void componentBuildEqualsSingleBuilds() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 3);
+    String secondRootId = "I" + (data.getIndividualCount() + 1);
+    data.createCousinMarriage();
+
+    GedcomToFamilyTree components = new GedcomToFamilyTree(data.getStorage());
+    Map<FamilyTreeComponent, FamilyTree> familyTrees = components.buildComponentTrees(
+        Arrays.asList("I2", "I" + data.getIndividualCount()));
+
+    assertEquals(2, familyTrees.size());
+
+    List<String> rootIds = Arrays.asList(FamilyTreeTestData.ROOT_ID, secondRootId);
+    int i = 0;
+
+    for (Map.Entry<FamilyTreeComponent, FamilyTree> entry : familyTrees.entrySet()) {
+      assertEquals(Collections.singletonList(rootIds.get(i)), entry.getKey().getTopAncestorIds());
+
+      GedcomToFamilyTree single = new GedcomToFamilyTree(data.getStorage());
+      single.buildFamilyTree(rootIds.get(i));
+
+      assertEquals(FamilyTreeTestData.printTree(single),
+          FamilyTreeTestData.printTree(data.getStorage(), entry.getValue()));
+      i++;
+    }
+  }
+
+  @Test
+  public void sorterEqualsDefaultSorter() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 5);
+
+    GedcomToFamilyTree sorted = new GedcomToFamilyTree(data.getStorage());
+    sorted.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    for (int deferred = 0; deferred < 2; deferred++) {
+      GedcomToFamilyTree keys = new GedcomToFamilyTree(data.getStorage());
+      keys.setSorter(new FamilytreeSorter());
+      keys.setDeferredSort(deferred == 1);
+      keys.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+      assertEquals(FamilyTreeTestData.printTree(sorted), FamilyTreeTestData.printTree(keys));
+    }
+  }
+
+  @Test
+  public void deferredSortKeepsChildNodesOfSortedAdd() {
+    GedcomStore store = FamilyTreeTestData.createStore();
+    GedcomIndividual individual = new GedcomIndividual(store, "I1");
+    GedcomIndividual partner1 = new GedcomIndividual(store, "I2");
+    GedcomIndividual partner2 = new GedcomIndividual(store, "I3");
+    GedcomIndividual other = new GedcomIndividual(store, "I4");
+
+    //Without dates the nodes are sorted by the IDs. With a missing partner,
+    //the sorter sorts each of the nodes after the other.
+    List<Object[]> children = Arrays.asList(
+        new Object[] {individual, null, null},
+        new Object[] {individual, null, null},
+        new Object[] {individual, null, new GedcomFamily(store, "F1")},
+        new Object[] {individual, partner1, new GedcomFamily(store, "F2")},
+        new Object[] {individual, partner1, new GedcomFamily(store, "F2")},
+        new Object[] {individual, partner2, new GedcomFamily(store, "F3")},
+        new Object[] {other, null, null},
+        new Object[] {other, partner1, new GedcomFamily(store, "F4")});
+
+    Random random = new Random(1);
+
+    for (int round = 0; round < 200; round++) {
+      List<Object[]> order = new ArrayList<>(children);
+      Collections.shuffle(order, random);
+
+      FamilyTreeNode added = new FamilyTree("Added");
+      FamilyTreeNode appended = new FamilyTree("Appended");
+
+      for (Object[] child : order) {
+        added.addChildNode(new FamilyTreeNode((GedcomIndividual)child[0],
+            (GedcomIndividual)child[1], (GedcomFamily)child[2]));
+        appended.appendChildNode(new FamilyTreeNode((GedcomIndividual)child[0],
+            (GedcomIndividual)child[1], (GedcomFamily)child[2]));
+      }
+
+      assertEquals(describeChildNodes(added), describeChildNodes(appended));
+    }
+  }
+
+  @Test
+  public void surnameSorterSortsBySurname() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(3, 6);
+
+    for (int deferred = 0; deferred < 2; deferred++) {
+      GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+      toFamilyTree.setSorter(new FamilySurnameSorter());
+      toFamilyTree.setDeferredSort(deferred == 1);
+      FamilyTree familyTree = toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+      List<FamilyTreeNode> nodes = new ArrayList<>();
+      nodes.add(familyTree);
+
+      while (!nodes.isEmpty()) {
+        String previous = "";
+
+        for (FamilyTreeNode child : nodes.remove(nodes.size() - 1).getChildNodes()) {
+          String surname = child.getNodeValue()[0].getSurname(0);
+          assertTrue(previous.compareToIgnoreCase(surname) <= 0);
+          previous = surname;
+          nodes.add(child);
+        }
+      }
+
+      //A copy for printing keeps the order
+      assertEquals(FamilyTreeTestData.getIds(familyTree),
+          FamilyTreeTestData.getIds(FamilyTreePrinterUtil.limitGenerations(familyTree, 10)));
+    }
+  }
+
+  @Test
+  public void gedcomOrderSorterFollowsChildLinks() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(3, 6);
+
+    GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.setSorter(new FamilyGedcomOrderSorter(data.getStorage()));
+    FamilyTree familyTree = toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    List<FamilyTreeNode> nodes = new ArrayList<>(familyTree.getChildNodes());
+    int families = 0;
+
+    while (!nodes.isEmpty()) {
+      FamilyTreeNode node = nodes.remove(nodes.size() - 1);
+
+      if (node.getFamily() == null) {
+        continue;
+      }
+
+      List<String> childIds = new ArrayList<>();
+
+      for (FamilyTreeNode child : node.getChildNodes()) {
+        childIds.add(child.getNodeValue()[0].getId());
+        nodes.add(child);
+      }
+
+      assertEquals(node.getFamily().getChildLinks(), childIds);
+      families++;
+    }
+
+    assertEquals(data.getFamilyCount(), families);
+
+    GedcomToFamilyTree sorted = new GedcomToFamilyTree(data.getStorage());
+    sorted.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertFalse(FamilyTreeTestData.getIds(sorted.getFamilyTree()).equals(
+        FamilyTreeTestData.getIds(familyTree)));
+  }
+
+  @Test
+  public void ancestorTreeOfCousinMarriage() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createCousinMarriage();
+    //The first child of the cousins
+    String grandChildId = "I" + (data.getIndividualCount() - 2);
+
+    GedcomToAncestorTree ancestors = new GedcomToAncestorTree(data.getStorage());
+    ancestors.buildFamilyTree(grandChildId);
+
+    assertTrue(ancestors.getLoops().isEmpty());
+    //The root family is reached through both cousins
+    assertEquals(1, ancestors.getSharedNodeCount());
+
+    String tree = FamilyTreeTestData.printTree(ancestors);
+    assertEquals(2, tree.split("I1 ", -1).length - 1);
+  }
+
+  @Test
+  public void ancestorTreeOfPedigreeCollapse() {
+    int generations = 20;
+    FamilyTreeTestData data = new FamilyTreeTestData().createPedigreeCollapse(generations);
+
+    GedcomToAncestorTree ancestors = new GedcomToAncestorTree(data.getStorage());
+    ancestors.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    //Only the first A and B node of each generation are built, the other
+    //nodes of the generation share their child nodes
+    assertEquals(2 * (generations - 2), ancestors.getSharedNodeCount());
+    //The first node with the individual itself plus 2^generations - 1 ancestor
+    //families if nothing was shared
+    long allNodes = 1 + (1L << generations) - 1;
+    long builtNodes = 1 + 1 + 2 + 4 * (generations - 2);
+    assertEquals(allNodes - builtNodes, ancestors.getSavedNodeCount());
+  }
+
+  @Test
+  public void ancestorTreeFindsLoops() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createLoopTree(5);
+
+    GedcomToAncestorTree ancestors = new GedcomToAncestorTree(data.getStorage());
+    ancestors.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    List<FamilyTreeLoop> loops = ancestors.getLoops();
+    assertEquals(1, loops.size());
+    assertEquals(FamilyTreeTestData.ROOT_ID, loops.get(0).getIndividualId());
+  }
+
+  @Test
+  public void ancestorTreeReportsMissingFamilies() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createDeepTree(3);
+    String lastId = "I" + data.getIndividualCount();
+    data.getStorage().getIndividual(lastId).addChildFamilyLink("F99");
+
+    GedcomToAncestorTree ancestors = new GedcomToAncestorTree(data.getStorage());
+    ancestors.buildFamilyTree(lastId);
+
+    GedcomToFamilyTree hourglass = new GedcomToFamilyTree(data.getStorage());
+    hourglass.setHourglassBuild(true);
+    hourglass.buildFamilyTree(lastId);
+
+    for (FamilyTreeBuilder build : Arrays.<FamilyTreeBuilder>asList(ancestors, hourglass)) {
+      List<FamilyTreeProblem> problems = build.getProblems();
+      assertEquals(1, problems.size());
+      assertEquals(lastId, problems.get(0).getIndividualId());
+      assertEquals("F99", problems.get(0).getFamilyId());
+    }
+  }
+
+  @Test
+  public void hourglassBuildContainsAncestorsAndDescendants() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createCousinMarriage();
+    //The child of the cousins
+    String id = "I6";
+
+    GedcomToFamilyTree descendants = new GedcomToFamilyTree(data.getStorage());
+    descendants.buildFamilyTree(id);
+
+    GedcomToFamilyTree hourglass = new GedcomToFamilyTree(data.getStorage());
+    hourglass.setHourglassBuild(true);
+    hourglass.buildFamilyTree(id);
+
+    //The family of the parents and the family of the individual
+    assertEquals(2, hourglass.getFamilyTree().getChildNodeCount());
+    //The root family is reached through both parents
+    assertEquals(1, hourglass.getSharedNodeCount());
+
+    String tree = FamilyTreeTestData.printTree(hourglass);
+    assertTrue(tree.contains(FamilyTreeTestData.printTree(descendants)));
+    assertEquals(2, tree.split("I1 ", -1).length - 1);
+
+    GedcomToFamilyTree lazyHourglass = new GedcomToFamilyTree(data.getStorage());
+    lazyHourglass.setHourglassBuild(true);
+    lazyHourglass.setLazyBuild(true);
+    lazyHourglass.buildFamilyTree(id);
+
+    assertEquals(tree, FamilyTreeTestData.printTree(lazyHourglass));
+  }
+
+  @Test
+  public void indexBuildFindsLoops() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createLoopTree(5);
+
+    GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    //An empty index is built again with the starting individual
+    toFamilyTree.setIndex(FamilyTreeIndex.build(data.getStorage(), Collections.<String>emptyList()));
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(data.getIndividualCount(), toFamilyTree.getIndex().getIndividualCount());
+
+    List<FamilyTreeLoop> loops = toFamilyTree.getLoops();
+    assertEquals(1, loops.size());
+    assertEquals(FamilyTreeTestData.ROOT_ID, loops.get(0).getIndividualId());
+    assertEquals("F" + data.getFamilyCount(), loops.get(0).getFamilyId());
+  }
+
+  @Test
+  public void graphBuildEqualsStorageBuild() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+
+    GedcomToFamilyTree storageBuild = new GedcomToFamilyTree(data.getStorage());
+    storageBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    FamilyTreeGraph graph = FamilyTreeGraph.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID));
+    GedcomGraphToFamilyTree graphBuild = new GedcomGraphToFamilyTree(graph, data.getStorage());
+    graphBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    //Nothing is loaded until the tree is printed
+    FamilyGraphNode node = (FamilyGraphNode)graphBuild.getFamilyTree().getChildNodes().iterator().next();
+    assertFalse(node.isLoaded());
+
+    assertEquals(FamilyTreeTestData.printTree(storageBuild), FamilyTreeTestData.printTree(graphBuild));
+    assertEquals(FamilyTreeTestData.getIds(storageBuild.getFamilyTree()),
+        FamilyTreeTestData.getIds(graphBuild.getFamilyTree()));
+    assertTrue(node.isLoaded());
+  }
+
+  @Test
+  public void graphFindsIndividualNumbers() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+
+    FamilyTreeGraph graph = FamilyTreeGraph.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID));
+
+    for (int i = 0; i < graph.getIndividualCount(); i++) {
+      assertEquals(i, graph.getIndividualNumber(graph.getIndividualId(i)));
+    }
+
+    assertEquals(FamilyTreeIndex.NONE, graph.getIndividualNumber("I0"));
+    assertEquals(FamilyTreeIndex.NONE, graph.getIndividualNumber("X1"));
+    assertEquals(FamilyTreeIndex.NONE, graph.getIndividualNumber(null));
+  }
+
+  @Test
+  public void graphBuildLoadsEachRecordOnce() {
+    final FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+
+    final List<String> individualIds = new ArrayList<>();
+    final List<String> familyIds = new ArrayList<>();
+
+    FamilyTreeGraph graph = FamilyTreeGraph.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID));
+    GedcomGraphToFamilyTree graphBuild = new GedcomGraphToFamilyTree(graph, new GedcomRecordLoader() {
+
+      @Override
+      public GedcomIndividual loadIndividual(String individualId) {
+        individualIds.add(individualId);
+        return data.getStorage().getIndividual(individualId);
+      }
+
+      @Override
+      public GedcomFamily loadFamily(String familyId) {
+        familyIds.add(familyId);
+        return data.getStorage().getFamily(familyId);
+      }
+    });
+    graphBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertTrue(individualIds.isEmpty());
+
+    GedcomToFamilyTree storageBuild = new GedcomToFamilyTree(data.getStorage());
+    storageBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.printTree(storageBuild), FamilyTreeTestData.printTree(graphBuild));
+    assertEquals(data.getIndividualCount(), individualIds.size());
+    assertEquals(data.getIndividualCount(), new HashSet<>(individualIds).size());
+    assertEquals(data.getFamilyCount(), familyIds.size());
+    assertEquals(data.getFamilyCount(), new HashSet<>(familyIds).size());
+  }
+
+  @Test
+  public void lazyBuildEqualsBuild() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+
+    GedcomToFamilyTree built = new GedcomToFamilyTree(data.getStorage());
+    built.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree lazy = new GedcomToFamilyTree(data.getStorage());
+    lazy.setLazyBuild(true);
+    lazy.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    assertFalse(lazy.getFamilyTree().isExpanded());
+
+    assertEquals(FamilyTreeTestData.getIds(built.getFamilyTree()),
+        FamilyTreeTestData.getIds(lazy.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(built), FamilyTreeTestData.printTree(lazy));
+  }
+
+  @Test
+  public void lazyBuildCanBeReadInParallel() throws Exception {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(5, 4);
+
+    GedcomToFamilyTree built = new GedcomToFamilyTree(data.getStorage());
+    built.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    List<String> ids = FamilyTreeTestData.getIds(built.getFamilyTree());
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      for (int i = 0; i < 20; i++) {
+        GedcomToFamilyTree lazy = new GedcomToFamilyTree(data.getStorage());
+        lazy.setLazyBuild(true);
+        final FamilyTree familyTree = lazy.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+        //All threads expand the same nodes at the same time
+        List<Future<List<String>>> results = new ArrayList<>();
+
+        for (int j = 0; j < 8; j++) {
+          results.add(executor.submit(new Callable<List<String>>() {
+
+            @Override
+            public List<String> call() {
+              return FamilyTreeTestData.getIds(familyTree);
+            }
+          }));
+        }
+
+        for (Future<List<String>> result : results) {
+          assertEquals(ids, result.get());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void lazyBuildOnlyBuildsPrintedGenerations() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(5, 3);
+    FamilytreeTextPrinter printer = new FamilytreeTextPrinter(false, true, true, true,
+        true, true, true, true, true, true, true, true, true, true);
+
+    GedcomToFamilyTree built = new GedcomToFamilyTree(data.getStorage());
+    built.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree lazy = new GedcomToFamilyTree(data.getStorage());
+    lazy.setLazyBuild(true);
+    lazy.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(printer.print(built, 2).toString(), printer.print(lazy, 2).toString());
+
+    //The second generation is there, but its children have not been built
+    FamilyTreeNode generation1 = lazy.getFamilyTree().getChildNodes().iterator().next();
+    FamilyTreeNode generation2 = generation1.getChildNodes().iterator().next();
+    assertTrue(generation1.isExpanded());
+    assertFalse(generation2.isExpanded());
+
+    //With a limit, the tree ends after the given number of generations
+    GedcomToFamilyTree limited = new GedcomToFamilyTree(data.getStorage());
+    limited.setLazyBuild(true);
+    limited.setGenerationLimit(2);
+    limited.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(printer.print(built, 2).toString(), FamilyTreeTestData.printTree(limited));
+  }
+
+  @Test
+  public void buildReportsMissingFamilies() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createDeepTree(3);
+    data.getStorage().getIndividual(FamilyTreeTestData.ROOT_ID).addSpouseFamilyLink("F99");
+
+    GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree indexed = new GedcomToFamilyTree(data.getStorage());
+    indexed.setIndex(FamilyTreeIndex.build(data.getStorage(), Collections.<String>emptyList()));
+    indexed.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    for (GedcomToFamilyTree build : Arrays.asList(toFamilyTree, indexed)) {
+      List<FamilyTreeProblem> problems = build.getProblems();
+      assertEquals(1, problems.size());
+      assertEquals(FamilyTreeTestData.ROOT_ID, problems.get(0).getIndividualId());
+      assertEquals("F99", problems.get(0).getFamilyId());
+      //The family which exists is still built
+      assertEquals(1, build.getFamilyTree().getChildNodeCount());
+    }
+  }
+
+  @Test
+  public void graphNodeFamilyEqualsFamilyOfParents() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 3);
+
+    GedcomGraphToFamilyTree graphBuild = new GedcomGraphToFamilyTree(FamilyTreeGraph.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID)), data.getStorage());
+    graphBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTreeEngineTest.assertNodeFamilies(data, graphBuild.getFamilyTree());
+  }
+
+  @Test
+  public void graphBuildReportsMissingSpouses() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createDeepTree(3);
+    data.getStorage().getFamily("F2").setWifeLink("I99");
+
+    GedcomGraphToFamilyTree graphBuild = new GedcomGraphToFamilyTree(FamilyTreeGraph.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID)), data.getStorage());
+    graphBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    List<FamilyTreeProblem> problems = graphBuild.getProblems();
+    assertEquals(1, problems.size());
+    assertEquals("F2", problems.get(0).getFamilyId());
+
+    graphBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    assertEquals(1, graphBuild.getProblems().size());
+  }
+
+  /**
+   * Returns the individuals and the family of every child node
+   *
+   * @param node
+   * @return
+   */
+  private static List<String> describeChildNodes(FamilyTreeNode node) {
+    List<String> childNodes = new ArrayList<>();
+
+    for (FamilyTreeNode child : node.getChildNodes()) {
+      GedcomIndividual[] individuals = child.getNodeValue();
+      childNodes.add(individuals[0].getId() + " " +
+          (individuals[1] == null ? null : individuals[1].getId()) + " " +
+          (child.getFamily() == null ? null : child.getFamily().getId()));
+    }
+
+    return childNodes;
+  }
+
+}
@@ -0,0 +1,292 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import ch.thn.gedcom.creator.GedcomEnums.Sex;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+import ch.thn.gedcom.store.GedcomStore;
+
+import ch.thn.gedcom.familytree.index.FamilyTreeIndex;
+import ch.thn.gedcom.familytree.sort.FamilyGedcomOrderSorter;
+import ch.thn.gedcom.familytree.sort.FamilyInsertionOrderSorter;
+
+/**
+ * The tests which have to result in the same tree with each way of building
+ * the tree
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+@RunWith(Parameterized.class)
+public class GedcomToFamilyTreeEngineTest {
+
+  /**
+   * The ways of building a tree
+   *
+   */
+  public enum Engine {
+    RECURSIVE,
+    ITERATIVE,
+    PARALLEL,
+    LAZY;
+  }
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> engines() {
+    List<Object[]> engines = new ArrayList<>();
+
+    for (Engine engine : Engine.values()) {
+      engines.add(new Object[] {engine});
+    }
+
+    return engines;
+  }
+
+  private final Engine engine;
+  private final ForkJoinPool pool = new ForkJoinPool(2);
+
+  /**
+   *
+   *
+   * @param engine
+   */
+  public GedcomToFamilyTreeEngineTest(Engine engine) {
+    this.engine = engine;
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Creates a builder which builds with the engine of this test
+   *
+   * @param data
+   * @return
+   */
+  private GedcomToFamilyTree create(FamilyTreeTestData data) {
+    GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+
+    switch (engine) {
+    case ITERATIVE:
+      toFamilyTree.setIterativeBuild(true);
+      break;
+    case PARALLEL:
+      //A low threshold, so that the small test trees are split
+      toFamilyTree.setParallelBuild(pool, 1);
+      break;
+    case LAZY:
+      toFamilyTree.setLazyBuild(true);
+      break;
+    default:
+      break;
+    }
+
+    return toFamilyTree;
+  }
+
+  @Test
+  public void loopEndsBranch() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createLoopTree(5);
+
+    GedcomToFamilyTree toFamilyTree = create(data);
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    //A lazy tree finds the loop while it is read
+    FamilyTreeTestData.getIds(toFamilyTree.getFamilyTree());
+
+    List<FamilyTreeLoop> loops = toFamilyTree.getLoops();
+    assertEquals(1, loops.size());
+    assertEquals(FamilyTreeTestData.ROOT_ID, loops.get(0).getIndividualId());
+    assertEquals("F" + data.getFamilyCount(), loops.get(0).getFamilyId());
+  }
+
+  @Test
+  public void deferredSortEqualsSortedBuild() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+    //A child which is linked twice is only added once
+    data.getStorage().getFamily("F1").addChildLink("I3");
+
+    GedcomToFamilyTree sorted = new GedcomToFamilyTree(data.getStorage());
+    sorted.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree deferred = create(data);
+    deferred.setDeferredSort(true);
+    deferred.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.getIds(sorted.getFamilyTree()),
+        FamilyTreeTestData.getIds(deferred.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(sorted), FamilyTreeTestData.printTree(deferred));
+  }
+
+  @Test
+  public void insertionOrderKeepsGedcomOrder() {
+    assertInsertionOrderKeepsGedcomOrder(false);
+  }
+
+  @Test
+  public void insertionOrderWithDeferredSortKeepsGedcomOrder() {
+    assertInsertionOrderKeepsGedcomOrder(true);
+  }
+
+  /**
+   *
+   *
+   * @param deferredSort
+   */
+  private void assertInsertionOrderKeepsGedcomOrder(boolean deferredSort) {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+    //A child which is linked twice is only added once
+    data.getStorage().getFamily("F1").addChildLink("I3");
+
+    GedcomToFamilyTree gedcomOrder = new GedcomToFamilyTree(data.getStorage());
+    gedcomOrder.setSorter(new FamilyGedcomOrderSorter(data.getStorage()));
+    gedcomOrder.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    GedcomToFamilyTree insertionOrder = create(data);
+    insertionOrder.setSorter(new FamilyInsertionOrderSorter());
+    insertionOrder.setDeferredSort(deferredSort);
+    insertionOrder.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.getIds(gedcomOrder.getFamilyTree()),
+        FamilyTreeTestData.getIds(insertionOrder.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(gedcomOrder), FamilyTreeTestData.printTree(insertionOrder));
+  }
+
+  @Test
+  public void indexBuildEqualsStorageBuild() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+
+    GedcomToFamilyTree storageBuild = new GedcomToFamilyTree(data.getStorage());
+    storageBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    FamilyTreeIndex index = FamilyTreeIndex.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID));
+    assertEquals(data.getIndividualCount(), index.getIndividualCount());
+    assertEquals(data.getFamilyCount(), index.getFamilyCount());
+
+    GedcomToFamilyTree indexBuild = create(data);
+    indexBuild.setIndex(index);
+    indexBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.getIds(storageBuild.getFamilyTree()),
+        FamilyTreeTestData.getIds(indexBuild.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(storageBuild), FamilyTreeTestData.printTree(indexBuild));
+  }
+
+  @Test
+  public void updateSortsModifiedIndividualsAgain() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 4);
+
+    GedcomToFamilyTree updated = create(data);
+    updated.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    //Read the whole tree, so that a lazy tree is updated and not just built
+    //with the modifications
+    FamilyTreeTestData.getIds(updated.getFamilyTree());
+
+    //Make the youngest children of the root family the oldest ones
+    data.getStorage().getIndividual("I3").setBirth(true, "1 JAN 1600");
+    data.getStorage().getIndividual("I40").setBirth(true, "2 JAN 1600");
+    updated.updateFamilyTree(Arrays.asList("I3", "I40"), Collections.<String>emptyList());
+
+    GedcomToFamilyTree built = new GedcomToFamilyTree(data.getStorage());
+    built.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.getIds(built.getFamilyTree()),
+        FamilyTreeTestData.getIds(updated.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(built), FamilyTreeTestData.printTree(updated));
+  }
+
+  @Test
+  public void updateBuildsModifiedFamiliesAgain() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 3);
+
+    GedcomToFamilyTree updated = create(data);
+    updated.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    FamilyTreeTestData.getIds(updated.getFamilyTree());
+
+    //A new child for the family of the first child of the root
+    GedcomStore store = data.getStore();
+    String childId = "N1";
+    GedcomIndividual child = new GedcomIndividual(store, childId);
+    child.setSex(Sex.FEMALE);
+    child.setBirth(true, "1 JAN 1800");
+    child.addChildFamilyLink("F2");
+    data.getStorage().getFamily("F2").addChildLink(childId);
+    data.getStorage().addIndividual(child);
+
+    updated.updateFamilyTree(Collections.singletonList(childId), Collections.singletonList("F2"));
+
+    GedcomToFamilyTree built = new GedcomToFamilyTree(data.getStorage());
+    built.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    assertEquals(FamilyTreeTestData.getIds(built.getFamilyTree()),
+        FamilyTreeTestData.getIds(updated.getFamilyTree()));
+    assertEquals(FamilyTreeTestData.printTree(built), FamilyTreeTestData.printTree(updated));
+  }
+
+  @Test
+  public void nodeFamilyEqualsFamilyOfParents() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(4, 3);
+
+    GedcomToFamilyTree toFamilyTree = create(data);
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    assertNodeFamilies(data, toFamilyTree.getFamilyTree());
+
+    GedcomToFamilyTree indexBuild = create(data);
+    indexBuild.setIndex(FamilyTreeIndex.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID)));
+    indexBuild.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    assertNodeFamilies(data, indexBuild.getFamilyTree());
+  }
+
+  /**
+   * Checks that the family of each node is the family of its two individuals.
+   * The printers use the family of the node instead of looking it up.
+   *
+   * @param data
+   * @param familyTree
+   */
+  static void assertNodeFamilies(FamilyTreeTestData data, FamilyTree familyTree) {
+    List<FamilyTreeNode> nodes = new ArrayList<>(familyTree.getChildNodes());
+
+    while (!nodes.isEmpty()) {
+      FamilyTreeNode node = nodes.remove(nodes.size() - 1);
+      GedcomIndividual[] individuals = node.getNodeValue();
+
+      assertTrue(node.getFamily() == data.getStorage().getFamilyOfParents(individuals[0], individuals[1]));
+      nodes.addAll(node.getChildNodes());
+    }
+  }
+
+}
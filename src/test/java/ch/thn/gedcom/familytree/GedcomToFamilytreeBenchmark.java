@@ -0,0 +1,347 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.structures.GedcomFamily;
+import ch.thn.gedcom.creator.structures.GedcomIndividual;
+
+import ch.thn.gedcom.familytree.index.FamilyTreeGraph;
+import ch.thn.gedcom.familytree.index.FamilyTreeIndex;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintProfile;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintProfile.Field;
+import ch.thn.gedcom.familytree.printer.FamilytreeCSVPrinter;
+import ch.thn.gedcom.familytree.printer.FamilytreeHTMLPrinter;
+import ch.thn.gedcom.familytree.printer.FamilytreePrinter;
+import ch.thn.gedcom.familytree.printer.FamilytreeTextPrinter;
+import ch.thn.gedcom.familytree.sort.FamilyGedcomOrderSorter;
+import ch.thn.gedcom.familytree.sort.FamilyInsertionOrderSorter;
+import ch.thn.gedcom.familytree.sort.FamilySurnameSorter;
+import ch.thn.gedcom.familytree.sort.FamilyTreeSorter;
+
+/**
+ * A simple benchmark for building and printing family trees. It is started
+ * manually (it is not a unit test) and prints the average time and, if
+ * the JVM supports it, the average number of bytes allocated by each measured
+ * operation.
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomToFamilytreeBenchmark {
+
+  private static final int WARMUP_RUNS = 5;
+  private static final int MEASURED_RUNS = 10;
+
+
+  public static void main(String[] args) {
+
+    //Wide tree: 6 generations with 6 children in each family (~ 11k individuals)
+    FamilyTreeTestData wide = new FamilyTreeTestData().createWideTree(6, 6);
+    System.out.println("Wide tree with " + wide.getIndividualCount() + " individuals");
+
+    benchmarkBuild("recursive build", wide, false);
+    benchmarkBuild("iterative build", wide, true);
+    benchmarkIndexBuild("index build", wide);
+    benchmarkGraphBuild("graph build", wide);
+    benchmarkSortedBuild("sorted build and read", wide, false, null);
+    benchmarkSortedBuild("deferred sort build and read", wide, true, null);
+    benchmarkSortedBuild("surname sorter build and read", wide, false, new FamilySurnameSorter());
+    benchmarkSortedBuild("GEDCOM order sorter build and read", wide, false,
+        new FamilyGedcomOrderSorter(wide.getStorage()));
+    benchmarkSortedBuild("insertion order build and read", wide, false,
+        new FamilyInsertionOrderSorter());
+
+    benchmarkPrint("text print", wide, new FamilytreeTextPrinter(false, true, true, true,
+        true, true, true, true, true, true, true, true, true, true));
+    benchmarkPrint("CSV print", wide, new FamilytreeCSVPrinter(false, true, true, true,
+        true, true, true, true, true, true, true, true, true, true));
+    benchmarkPrint("HTML print", wide, new FamilytreeHTMLPrinter(false, false, true, true,
+        true, true, true, true, true, true, true, true, true, true, true, true));
+
+    //Only a few fields
+    FamilyTreePrintProfile idAndName = new FamilyTreePrintProfile(Field.ID, Field.FIRST_NAME);
+    benchmarkPrint("text print, ID and name", wide, new FamilytreeTextPrinter(false, idAndName));
+    benchmarkPrint("CSV print, ID and name", wide, new FamilytreeCSVPrinter(false, idAndName));
+    benchmarkPrint("HTML print, ID and name", wide, new FamilytreeHTMLPrinter(false, false, true, idAndName));
+
+    benchmarkFamilyLookup("family lookup in storage", wide, true);
+    benchmarkFamilyLookup("family of node", wide, false);
+
+    int processors = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= processors; threads *= 2) {
+      benchmarkParallelBuild("parallel build, " + threads + " threads", wide, threads);
+    }
+
+  }
+
+  /**
+   *
+   *
+   * @param name
+   * @param data
+   * @param iterative
+   */
+  private static void benchmarkBuild(String name, FamilyTreeTestData data, boolean iterative) {
+    final GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.setIterativeBuild(iterative);
+
+    run(name, new Runnable() {
+
+      @Override
+      public void run() {
+        toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+      }
+    });
+  }
+
+  /**
+   *
+   *
+   * @param name
+   * @param data
+   */
+  private static void benchmarkIndexBuild(String name, FamilyTreeTestData data) {
+    final GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.setIndex(FamilyTreeIndex.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID)));
+
+    run(name, new Runnable() {
+
+      @Override
+      public void run() {
+        toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+      }
+    });
+  }
+
+  /**
+   *
+   *
+   * @param name
+   * @param data
+   */
+  private static void benchmarkGraphBuild(String name, FamilyTreeTestData data) {
+    FamilyTreeGraph graph = FamilyTreeGraph.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID));
+    final GedcomGraphToFamilyTree toFamilyTree = new GedcomGraphToFamilyTree(graph, data.getStorage());
+
+    run(name, new Runnable() {
+
+      @Override
+      public void run() {
+        toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+      }
+    });
+  }
+
+  /**
+   * Builds the tree and reads all the child nodes, which sorts the child
+   * nodes of a tree with deferred sorting
+   *
+   * @param name
+   * @param data
+   * @param deferredSort
+   * @param sorter
+   */
+  private static void benchmarkSortedBuild(String name, FamilyTreeTestData data,
+      boolean deferredSort, FamilyTreeSorter sorter) {
+    final GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.setIterativeBuild(true);
+    toFamilyTree.setDeferredSort(deferredSort);
+    toFamilyTree.setSorter(sorter);
+
+    run(name, new Runnable() {
+
+      @Override
+      public void run() {
+        Deque<FamilyTreeNode> nodes = new ArrayDeque<>();
+        nodes.push(toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID));
+
+        while (!nodes.isEmpty()) {
+          for (FamilyTreeNode child : nodes.pop().getChildNodes()) {
+            nodes.push(child);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Prints the tree to an output which discards everything, which only
+   * leaves the allocations of the printer
+   *
+   * @param name
+   * @param data
+   * @param printer
+   */
+  private static void benchmarkPrint(String name, FamilyTreeTestData data,
+      final FamilytreePrinter printer) {
+    final GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    final Appendable discard = new Appendable() {
+
+      @Override
+      public Appendable append(CharSequence csq) {
+        return this;
+      }
+
+      @Override
+      public Appendable append(CharSequence csq, int start, int end) {
+        return this;
+      }
+
+      @Override
+      public Appendable append(char c) {
+        return this;
+      }
+    };
+
+    run(name, new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          printer.print(toFamilyTree, 0, discard);
+        } catch (IOException e) {
+          throw new GedcomToFamilytreeError(e.getMessage());
+        }
+      }
+    });
+  }
+
+  /**
+   *
+   *
+   * @param name
+   * @param data
+   * @param threads
+   */
+  private static void benchmarkParallelBuild(String name, FamilyTreeTestData data, int threads) {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    final GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.setParallelBuild(pool, 500);
+
+    run(name, new Runnable() {
+
+      @Override
+      public void run() {
+        toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+      }
+    });
+
+    pool.shutdown();
+  }
+
+  /**
+   * Reads the family of every node of the tree, either with the lookup the
+   * printers used to do or from the node
+   *
+   * @param name
+   * @param data
+   * @param fromStorage
+   */
+  private static void benchmarkFamilyLookup(String name, FamilyTreeTestData data,
+      final boolean fromStorage) {
+    final GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    run(name, new Runnable() {
+
+      @Override
+      public void run() {
+        GedcomCreatorStructureStorage storage = toFamilyTree.getStorage();
+        Deque<FamilyTreeNode> nodes = new ArrayDeque<>(toFamilyTree.getFamilyTree().getChildNodes());
+        int families = 0;
+
+        while (!nodes.isEmpty()) {
+          FamilyTreeNode node = nodes.pop();
+          GedcomIndividual[] individuals = node.getNodeValue();
+          GedcomFamily family = (fromStorage
+              ? storage.getFamilyOfParents(individuals[0], individuals[1]) : node.getFamily());
+
+          if (family != null) {
+            families++;
+          }
+
+          nodes.addAll(node.getChildNodes());
+        }
+
+        if (families == 0) {
+          throw new GedcomToFamilytreeError("No families found");
+        }
+      }
+    });
+  }
+
+  /**
+   * Runs the operation a couple of times to warm up the JVM, then measures
+   * the average time of the following runs.
+   *
+   * @param name
+   * @param operation
+   */
+  private static void run(String name, Runnable operation) {
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      operation.run();
+    }
+
+    long startBytes = getAllocatedBytes();
+    long start = System.nanoTime();
+
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      operation.run();
+    }
+
+    long average = (System.nanoTime() - start) / MEASURED_RUNS;
+    long averageBytes = (getAllocatedBytes() - startBytes) / MEASURED_RUNS;
+
+    if (startBytes < 0) {
+      System.out.println(String.format("%-40s %10.2f ms", name, average / 1000000.0));
+    } else {
+      System.out.println(String.format("%-40s %10.2f ms %12d bytes", name,
+          average / 1000000.0, averageBytes));
+    }
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread so far. Only
+   * the current thread is measured, the allocations of a parallel build are
+   * therefore not all included.
+   *
+   * @return The number of bytes or -1 if the JVM does not support measuring it
+   */
+  private static long getAllocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+
+    return -1;
+  }
+
+}
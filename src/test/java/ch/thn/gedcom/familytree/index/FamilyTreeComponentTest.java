@@ -0,0 +1,70 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import ch.thn.gedcom.familytree.FamilyTreeTestData;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeComponentTest {
+
+  @Test
+  public void unrelatedTreesAreSeparateComponents() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(3, 2);
+    int firstCount = data.getIndividualCount();
+    String secondRootId = "I" + (firstCount + 1);
+    data.createWideTree(4, 2);
+
+    //Any individual of the second tree finds the whole tree
+    FamilyTreeIndex index = FamilyTreeIndex.build(data.getStorage(),
+        Arrays.asList(FamilyTreeTestData.ROOT_ID, "I" + data.getIndividualCount()));
+    List<FamilyTreeComponent> components = FamilyTreeComponent.find(index);
+
+    assertEquals(2, components.size());
+    //The larger tree first
+    assertEquals(data.getIndividualCount() - firstCount, components.get(0).getIndividualCount());
+    assertEquals(Collections.singletonList(secondRootId), components.get(0).getTopAncestorIds());
+    assertEquals(firstCount, components.get(1).getIndividualCount());
+    assertEquals(Collections.singletonList(FamilyTreeTestData.ROOT_ID), components.get(1).getTopAncestorIds());
+  }
+
+  @Test
+  public void partnersAreNoTopAncestors() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createCousinMarriage();
+
+    //Start with one of the youngest individuals
+    FamilyTreeIndex index = FamilyTreeIndex.build(data.getStorage(),
+        Collections.singletonList("I" + data.getIndividualCount()));
+    List<FamilyTreeComponent> components = FamilyTreeComponent.find(index);
+
+    assertEquals(1, components.size());
+    assertEquals(data.getIndividualCount(), components.get(0).getIndividualCount());
+    assertEquals(Collections.singletonList(FamilyTreeTestData.ROOT_ID), components.get(0).getTopAncestorIds());
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.thn.gedcom.familytree.FamilyTreeTestData;
+import ch.thn.gedcom.familytree.GedcomGraphToFamilyTree;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeGraphFileTest {
+
+  private FamilyTreeTestData data = null;
+  private FamilyTreeGraph graph = null;
+  private File source = null;
+  private File file = null;
+
+  @Before
+  public void setUp() throws IOException {
+    data = new FamilyTreeTestData().createWideTree(4, 3);
+    graph = FamilyTreeGraph.build(data.getStorage(),
+        Collections.singletonList(FamilyTreeTestData.ROOT_ID));
+
+    source = File.createTempFile("familytree", ".ged");
+    source.deleteOnExit();
+    file = File.createTempFile("familytree", ".graph");
+    file.deleteOnExit();
+  }
+
+  @Test
+  public void readWrittenGraph() throws IOException {
+    FamilyTreeGraphFile.write(graph, file, source);
+    FamilyTreeGraph readGraph = FamilyTreeGraphFile.read(file, source);
+
+    assertNotNull(readGraph);
+    assertEquals(graph.getIndividualCount(), readGraph.getIndividualCount());
+    assertEquals(graph.getFamilyCount(), readGraph.getFamilyCount());
+    assertEquals(print(graph), print(readGraph));
+  }
+
+  @Test
+  public void changedSourceIsStale() throws IOException {
+    FamilyTreeGraphFile.write(graph, file, source);
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(source, "rw")) {
+      randomAccessFile.write(new byte[] {1, 2, 3});
+    }
+
+    assertNull(FamilyTreeGraphFile.read(file, source));
+  }
+
+  @Test
+  public void corruptFileIsStale() throws IOException {
+    FamilyTreeGraphFile.write(graph, file, source);
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.seek(randomAccessFile.length() - 1);
+      int last = randomAccessFile.read();
+      randomAccessFile.seek(randomAccessFile.length() - 1);
+      randomAccessFile.write(last + 1);
+    }
+
+    assertNull(FamilyTreeGraphFile.read(file, source));
+  }
+
+  @Test
+  public void loadParsesStaleFile() throws IOException {
+    final int[] parsed = new int[1];
+    FamilyTreeGraphFile.GraphParser parser = new FamilyTreeGraphFile.GraphParser() {
+
+      @Override
+      public FamilyTreeGraph parse() {
+        parsed[0]++;
+        return graph;
+      }
+    };
+
+    //The empty file is stale
+    FamilyTreeGraphFile.load(file, source, parser);
+    assertEquals(1, parsed[0]);
+
+    FamilyTreeGraph loadedGraph = FamilyTreeGraphFile.load(file, source, parser);
+    assertEquals(1, parsed[0]);
+    assertEquals(print(graph), print(loadedGraph));
+  }
+
+  /**
+   *
+   *
+   * @param graph
+   * @return
+   */
+  private String print(FamilyTreeGraph graph) {
+    GedcomGraphToFamilyTree toFamilyTree = new GedcomGraphToFamilyTree(graph, data.getStorage());
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+    return FamilyTreeTestData.printTree(toFamilyTree);
+  }
+
+}
@@ -0,0 +1,187 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.thn.gedcom.creator.GedcomCreatorStructureStorage;
+import ch.thn.gedcom.creator.GedcomEnums.Sex;
+import ch.thn.gedcom.familytree.FamilyTreeNode;
+import ch.thn.gedcom.familytree.FamilyTreeTestData;
+import ch.thn.gedcom.familytree.GedcomGraphToFamilyTree;
+import ch.thn.gedcom.familytree.GedcomToFamilyTree;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class GedcomFileIndexTest {
+
+  private static final String GEDCOM = "0 HEAD\r\n"
+      + "1 CHAR UTF-8\r\n"
+      + "0 @I0@ INDI\r\n"
+      + "1 NAME Parent /Ancestor/\r\n"
+      + "1 FAMS @F0@\r\n"
+      + "0 @I1@ INDI\r\n"
+      + "1 NAME Root /Name/\r\n"
+      + "1 SEX M\r\n"
+      + "1 BIRT\r\n"
+      + "2 DATE 1 JAN 1900\r\n"
+      + "1 FAMS @F1@\r\n"
+      + "1 FAMC @F0@\r\n"
+      + "0 @I2@ INDI\r\n"
+      + "1 NAME Wife /Other/\r\n"
+      + "1 SEX F\r\n"
+      + "1 FAMS @F1@\r\n"
+      + "0 @I3@ INDI\r\n"
+      + "1 NAME Child /Name/\r\n"
+      + "1 SEX M\r\n"
+      + "1 BIRT\r\n"
+      + "2 DATE 2 FEB 1930\r\n"
+      + "1 DEAT\r\n"
+      + "2 DATE 3 MAR 1990\r\n"
+      + "1 FAMC @F1@\r\n"
+      + "0 @F0@ FAM\r\n"
+      + "1 HUSB @I0@\r\n"
+      + "1 CHIL @I1@\r\n"
+      + "0 @F1@ FAM\r\n"
+      + "1 HUSB @I1@\r\n"
+      + "1 WIFE @I2@\r\n"
+      + "1 MARR\r\n"
+      + "2 DATE 5 MAY 1925\r\n"
+      + "1 CHIL @I3@\r\n"
+      + "0 TRLR\r\n";
+
+  private File file = null;
+
+  @Before
+  public void setUp() throws IOException {
+    file = createFile(GEDCOM);
+  }
+
+  @Test
+  public void loadOnlyDescendants() throws IOException {
+    GedcomFileIndex fileIndex = new GedcomFileIndex(FamilyTreeTestData.createStore(), file);
+    assertEquals(4, fileIndex.getIndividualCount());
+    assertEquals(2, fileIndex.getFamilyCount());
+
+    GedcomCreatorStructureStorage storage = fileIndex.loadDescendants("I1");
+
+    //The parents of the root are not needed
+    assertFalse(storage.hasIndividual("I0"));
+    assertFalse(storage.hasFamily("F0"));
+
+    assertTrue(storage.hasFamily("F1"));
+    assertEquals(Sex.FEMALE, storage.getIndividual("I2").getSex());
+    assertEquals("2 FEB 1930", storage.getIndividual("I3").getBirthDate());
+    assertEquals("3 MAR 1990", storage.getIndividual("I3").getDeathDate());
+    assertEquals("Name", storage.getIndividual("I3").getSurname(0));
+    assertEquals("5 MAY 1925", storage.getFamily("F1").getMarriageDate());
+  }
+
+  @Test
+  public void marriageDateOnlyFromMarriage() throws IOException {
+    File divorceFile = createFile("0 HEAD\r\n"
+        + "0 @I1@ INDI\r\n"
+        + "1 FAMS @F1@\r\n"
+        + "0 @I2@ INDI\r\n"
+        + "1 FAMS @F1@\r\n"
+        + "0 @F1@ FAM\r\n"
+        + "1 HUSB @I1@\r\n"
+        + "1 WIFE @I2@\r\n"
+        + "1 MARR Y\r\n"
+        + "1 DIV\r\n"
+        + "2 DATE 1 JAN 1950\r\n"
+        + "1 CHAN\r\n"
+        + "2 DATE 2 FEB 2000\r\n"
+        + "0 TRLR\r\n");
+
+    GedcomFileIndex fileIndex = new GedcomFileIndex(FamilyTreeTestData.createStore(), divorceFile);
+    GedcomCreatorStructureStorage storage = fileIndex.loadDescendants("I1");
+
+    assertTrue(storage.getFamily("F1").isMarried());
+    //The dates of the divorce and the change do not belong to the marriage
+    assertNull(storage.getFamily("F1").getMarriageDate());
+  }
+
+  @Test
+  public void buildFromFile() throws IOException {
+    GedcomFileIndex fileIndex = new GedcomFileIndex(FamilyTreeTestData.createStore(), file);
+    GedcomToFamilyTree toFamilyTree = fileIndex.buildFamilyTree("I1", null);
+
+    FamilyTreeNode rootFamily = toFamilyTree.getFamilyTree().getChildNodes().iterator().next();
+    assertEquals("I1", rootFamily.getNodeValue()[0].getId());
+    assertEquals("I2", rootFamily.getNodeValue()[1].getId());
+    assertEquals(1, rootFamily.getChildNodeCount());
+  }
+
+  @Test
+  public void buildGraphTreeWithoutStorage() throws IOException {
+    GedcomFileIndex fileIndex = new GedcomFileIndex(FamilyTreeTestData.createStore(), file);
+    File graphFile = File.createTempFile("familytree", ".graph");
+    graphFile.deleteOnExit();
+
+    //Creates the graph file
+    FamilyTreeGraph graph = fileIndex.loadGraph(graphFile);
+    assertEquals(4, graph.getIndividualCount());
+
+    //Only the graph file and the records of the printed nodes are read
+    GedcomFileIndex newFileIndex = new GedcomFileIndex(FamilyTreeTestData.createStore(), file);
+    FamilyTreeGraph readGraph = FamilyTreeGraphFile.read(graphFile, file);
+    assertNotNull(readGraph);
+
+    GedcomGraphToFamilyTree graphBuild = new GedcomGraphToFamilyTree(readGraph, newFileIndex);
+    graphBuild.buildFamilyTree("I1");
+
+    assertEquals(FamilyTreeTestData.printTree(fileIndex.buildFamilyTree("I1", null)),
+        FamilyTreeTestData.printTree(graphBuild));
+  }
+
+  /**
+   * Writes the GEDCOM lines to a new temporary file
+   *
+   * @param gedcom
+   * @return
+   * @throws IOException
+   */
+  private static File createFile(String gedcom) throws IOException {
+    File file = File.createTempFile("familytree", ".ged");
+    file.deleteOnExit();
+
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+      writer.write(gedcom);
+    }
+
+    return file;
+  }
+
+}
@@ -0,0 +1,243 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.printer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ch.thn.gedcom.familytree.FamilyTreeTestData;
+import ch.thn.gedcom.familytree.GedcomToFamilyTree;
+import ch.thn.gedcom.familytree.printer.FamilyTreePrintProfile.Field;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreePrinterTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+  @Test
+  public void streamEqualsPrint() throws IOException {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(3, 3);
+
+    for (String title : Arrays.asList("Tree", null)) {
+      GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+      toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID, title);
+
+      for (FamilytreePrinter printer : createPrinters()) {
+        for (int generations = 0; generations < 3; generations++) {
+          String expected = printer.print(toFamilyTree, generations).toString();
+
+          StringWriter writer = new StringWriter();
+          printer.print(toFamilyTree, generations, writer);
+          assertEquals(expected, writer.toString());
+
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          FamilyTreePrinterUtil.print(printer, toFamilyTree, generations, out, UTF8);
+          assertEquals(expected, new String(out.toByteArray(), UTF8));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void printsDeepTreeLineByLine() throws IOException {
+    FamilyTreeTestData data = new FamilyTreeTestData().createDeepTree(2000);
+    GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.setIterativeBuild(true);
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID, "Tree");
+
+    for (FamilytreePrinter printer : createPrinters()) {
+      CountingAppendable out = new CountingAppendable();
+      printer.print(toFamilyTree, 0, out);
+
+      assertEquals(printer.print(toFamilyTree).length(), out.written);
+      //Nothing bigger than a line is written at once
+      assertTrue(String.valueOf(out.largest), out.largest < 1000);
+    }
+  }
+
+  @Test
+  public void printsOnlyGivenGenerations() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createDeepTree(10);
+    GedcomToFamilyTree withTitle = new GedcomToFamilyTree(data.getStorage());
+    withTitle.buildFamilyTree(FamilyTreeTestData.ROOT_ID, "Tree");
+    GedcomToFamilyTree withoutTitle = new GedcomToFamilyTree(data.getStorage());
+    withoutTitle.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    for (FamilytreePrinter printer : createPrinters()) {
+      //The title does not count as generation
+      String output = printer.print(withTitle, 3).toString();
+      assertTrue(output, output.contains("I5"));
+      assertFalse(output, output.contains("I7"));
+
+      output = printer.print(withoutTitle, 3).toString();
+      assertTrue(output, output.contains("I5"));
+      assertFalse(output, output.contains("I7"));
+    }
+  }
+
+  @Test
+  public void printsTreesInParallel() throws Exception {
+    //Different trees, the individuals of one tree are not couples in the others
+    final List<GedcomToFamilyTree> trees = new ArrayList<>();
+    for (FamilyTreeTestData data : Arrays.asList(
+        new FamilyTreeTestData().createWideTree(3, 3),
+        new FamilyTreeTestData().createWideTree(4, 2),
+        new FamilyTreeTestData().createDeepTree(30),
+        new FamilyTreeTestData().createCousinMarriage())) {
+      GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+      toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+      trees.add(toFamilyTree);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      for (final FamilytreePrinter printer : createPrinters()) {
+        List<String> expected = new ArrayList<>();
+        for (GedcomToFamilyTree toFamilyTree : trees) {
+          expected.add(printer.print(toFamilyTree).toString());
+        }
+
+        //The same printer for all the trees and threads
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+          final GedcomToFamilyTree toFamilyTree = trees.get(i % trees.size());
+
+          results.add(executor.submit(new Callable<String>() {
+
+            @Override
+            public String call() {
+              return printer.print(toFamilyTree).toString();
+            }
+          }));
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+          assertEquals(expected.get(i % trees.size()), results.get(i).get());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void profileIsImmutable() {
+    FamilyTreePrintProfile profile = new FamilyTreePrintProfile(Field.ID, Field.FIRST_NAME);
+    FamilyTreePrintProfile withGender = profile.with(Field.GENDER);
+    FamilyTreePrintProfile withoutId = profile.without(Field.ID);
+
+    assertEquals(new FamilyTreePrintProfile(Field.ID, Field.FIRST_NAME), profile);
+    assertTrue(withGender.isShown(Field.GENDER));
+    assertFalse(withoutId.isShown(Field.ID));
+    assertTrue(withoutId.isShown(Field.FIRST_NAME));
+
+    assertEquals(FamilyTreePrintProfile.ALL, FamilyTreePrintProfile.fromFlags(true, true, true,
+        true, true, true, true, true, true, true, true, true, true));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void profileFieldsCanNotBeChanged() {
+    FamilyTreePrintProfile.ALL.getFields().remove(Field.ID);
+  }
+
+  @Test
+  public void profileOnlyPrintsShownFields() {
+    FamilyTreeTestData data = new FamilyTreeTestData().createWideTree(2, 2);
+    GedcomToFamilyTree toFamilyTree = new GedcomToFamilyTree(data.getStorage());
+    toFamilyTree.buildFamilyTree(FamilyTreeTestData.ROOT_ID);
+
+    FamilyTreePrintProfile profile = new FamilyTreePrintProfile(Field.ID);
+    List<FamilytreePrinter> printers = Arrays.<FamilytreePrinter>asList(
+        new FamilytreeTextPrinter(false, profile),
+        new FamilytreeCSVPrinter(false, profile),
+        new FamilytreeHTMLPrinter(false, false, true, profile));
+
+    for (FamilytreePrinter printer : printers) {
+      String output = printer.print(toFamilyTree).toString();
+
+      assertTrue(output, output.contains(FamilyTreeTestData.ROOT_ID));
+      assertFalse(output, output.contains("Given"));
+      //Without birth date
+      assertFalse(output, output.contains("1701"));
+    }
+  }
+
+  /**
+   * Counts the characters and remembers the biggest part written at once
+   *
+   */
+  private static class CountingAppendable implements Appendable {
+
+    private int written = 0;
+    private int largest = 0;
+
+    @Override
+    public Appendable append(CharSequence csq) {
+      return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) {
+      written += end - start;
+      largest = Math.max(largest, end - start);
+      return this;
+    }
+
+    @Override
+    public Appendable append(char c) {
+      return append(String.valueOf(c));
+    }
+
+  }
+
+  /**
+   *
+   *
+   * @return
+   */
+  private static List<FamilytreePrinter> createPrinters() {
+    return Arrays.<FamilytreePrinter>asList(
+        new FamilytreeTextPrinter(false, true, true, true,
+            true, true, true, true, true, true, true, true, true, true),
+        new FamilytreeCSVPrinter(false, true, true, true,
+            true, true, true, true, true, true, true, true, true, true),
+        new FamilytreeHTMLPrinter(false, false, true, true, true, true,
+            true, true, true, true, true, true, true, true, true, true));
+  }
+
+}
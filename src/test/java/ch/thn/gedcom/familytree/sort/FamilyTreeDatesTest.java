@@ -0,0 +1,58 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import ch.thn.gedcom.GedcomHelper;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class FamilyTreeDatesTest {
+
+  @Test
+  public void constantsAreResultsOfHelper() {
+    assertEquals(GedcomHelper.isBeforeOrAfter(new Date(0), new Date(1)), FamilyTreeDates.BEFORE);
+    assertEquals(GedcomHelper.isBeforeOrAfter(new Date(1), new Date(0)), FamilyTreeDates.AFTER);
+    assertEquals(GedcomHelper.isBeforeOrAfter(null, new Date(0)), FamilyTreeDates.NO_DATE_FIRST);
+    assertEquals(GedcomHelper.isBeforeOrAfter(new Date(0), null), FamilyTreeDates.NO_DATE_SECOND);
+    assertEquals(GedcomHelper.isBeforeOrAfter(null, null), FamilyTreeDates.NO_DATES);
+  }
+
+  @Test
+  public void keysCompareLikeHelper() {
+    Date[] dates = {null, new Date(-1000), new Date(0), new Date(1000)};
+
+    for (Date date1 : dates) {
+      for (Date date2 : dates) {
+        long key1 = date1 == null ? FamilyTreeDates.NO_DATE : date1.getTime();
+        long key2 = date2 == null ? FamilyTreeDates.NO_DATE : date2.getTime();
+
+        assertEquals(GedcomHelper.isBeforeOrAfter(date1, date2),
+            FamilyTreeDates.isBeforeOrAfter(key1, key2));
+      }
+    }
+  }
+
+}
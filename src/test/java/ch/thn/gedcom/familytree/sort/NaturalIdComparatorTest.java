@@ -0,0 +1,56 @@
+/**
+ *    Copyright 2014 Thomas Naeff (github.com/thnaeff)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package ch.thn.gedcom.familytree.sort;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Thomas Naeff (github.com/thnaeff)
+ *
+ */
+public class NaturalIdComparatorTest {
+
+  private final NaturalIdComparator comparator = new NaturalIdComparator();
+
+  @Test
+  public void numbersInNaturalOrder() {
+    assertTrue(comparator.compare("I700", "I1000") < 0);
+    assertTrue(comparator.compare("I1000", "I700") > 0);
+    assertTrue(comparator.compare("700", "1000") < 0);
+    assertEquals(0, comparator.compare("I42", "I42"));
+  }
+
+  @Test
+  public void sortsMixedIds() {
+    List<String> ids = new ArrayList<>(Arrays.asList("P2", "I10", "I", "I007", "I7",
+        "I99999999999999999999", "I2", "", "X1Y"));
+    Collections.sort(ids, comparator);
+
+    assertEquals(Arrays.asList("", "I", "I2", "I007", "I7", "I10", "I99999999999999999999",
+        "P2", "X1Y"), ids);
+  }
+
+}